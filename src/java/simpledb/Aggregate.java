@@ -1,34 +1,60 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Any number of aggregates, grouped by any number of columns, are
+ * computed in a single pass over the child.
+ * <p>
+ * Groups are kept in memory up to a memory budget. Once the budget is full,
+ * tuples of groups already in memory are still aggregated, but tuples of new
+ * groups are hash partitioned to {@link SpillFile}s. After the child is
+ * exhausted, the in-memory groups are returned, then each spilled partition
+ * is aggregated by a nested Aggregate that partitions with a different hash
+ * function. After {@link #MAX_DEPTH} levels, which only happens with a tiny
+ * budget, the remaining partition is aggregated in memory regardless of the
+ * budget.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private int agg_index;
-    private int groupby_index;
-    private Aggregator.Op agg_op;
+    /** Number of partitions overflow groups are split into. */
+    static final int NUM_PARTITIONS = 16;
+    /** Maximum number of times a partition is split again. */
+    static final int MAX_DEPTH = 4;
+    // approximate per-group memory beyond the key and accumulators: the
+    // group key, its hash entries and the aggregator's group state
+    private static final int GROUP_OVERHEAD = 96;
+
+    private int[] agg_indexes;
+    private int[] groupby_indexes;
+    private Aggregator.Op[] agg_ops;
     private DbIterator child;
     private TupleDesc child_td;
-    private Type groupby_field_type;
-    private Type agg_field_type;
     private Aggregator aggregator;
     private DbIterator aggregate_iterator;
+    private final long memory_budget;
+    private final int seed;
+    private final int depth;
+
+    // overflow groups, per partition, and the aggregate of the current one
+    private transient SpillFile[] spills;
+    private int num_spilled_partitions;
+    private long num_spilled_tuples;
+    private int partition;
+    private transient Aggregate nested;
 
     /**
      * Constructor.
-     * 
+     *
      * Implementation hint: depending on the type of afield, you will want to
      * construct an {@link IntAggregator} or {@link StringAggregator} to help
      * you with your implementation of readNext().
-     * 
-     * 
+     *
+     *
      * @param child
      *            The DbIterator that is feeding us tuples.
      * @param afield
@@ -40,19 +66,97 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, SpillFile.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups, within a
+     * memory budget.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @param memoryBudget
+     *            bytes the in-memory groups may use before the tuples of
+     *            new groups are spilled to disk
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops, long memoryBudget) {
+        this(child, afields, gfields, aops, memoryBudget, 0, 0);
+    }
+
+    private Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            long memoryBudget, int seed, int depth) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate");
+        }
         this.child = child;
-        this.agg_index = afield;
-        this.groupby_index = gfield;
-        this.agg_op = aop;
+        this.agg_indexes = afields.clone();
+        this.groupby_indexes = gfields.clone();
+        this.agg_ops = aops.clone();
         this.child_td = child.getTupleDesc();
-        this.groupby_field_type = gfield == Aggregator.NO_GROUPING ? null : child_td.getFieldType(gfield);
-        this.agg_field_type = this.child_td.getFieldType(afield);
-        if (this.agg_field_type == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(this.groupby_index, this.groupby_field_type, this.agg_index, this.agg_op);
-        } else if (this.agg_field_type == Type.STRING_TYPE) {
-            aggregator = new StringAggregator(this.groupby_index, this.groupby_field_type, this.agg_index, this.agg_op);
+        this.memory_budget = memoryBudget;
+        this.seed = seed;
+        this.depth = depth;
+        // check the operators against the column types
+        this.aggregator = newGroupAggregator();
+    }
+
+    // a new, empty aggregator for all aggregates and group fields
+    private Aggregator newGroupAggregator() {
+        int[] gfields = this.groupby_indexes;
+        int[] afields = this.agg_indexes;
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gtypes[i] = this.child_td.getFieldType(gfields[i]);
+        }
+        Type[] atypes = new Type[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            atypes[i] = this.child_td.getFieldType(afields[i]);
+        }
+        if (afields.length == 1 && gfields.length <= 1) {
+            return newAggregator(gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0],
+                    gfields.length == 0 ? null : gtypes[0], afields[0], atypes[0], this.agg_ops[0]);
+        }
+        return new MultiAggregator(gfields, gtypes, afields, atypes, this.agg_ops);
+    }
+
+    /**
+     * Create the aggregator for a single aggregate over a column of type
+     * afieldtype.
+     */
+    static Aggregator newAggregator(int gfield, Type gfieldtype, int afield, Type afieldtype, Aggregator.Op aop) {
+        if (afieldtype == Type.INT_TYPE) {
+            return new IntegerAggregator(gfield, gfieldtype, afield, aop);
+        } else if (afieldtype == Type.STRING_TYPE) {
+            return new StringAggregator(gfield, gfieldtype, afield, aop);
+        } else {
+            return new NumericAggregator(gfield, gfieldtype, afield, afieldtype, aop);
         }
-        this.aggregate_iterator = aggregator.iterator();
     }
 
     /**
@@ -62,7 +166,15 @@ public class Aggregate extends Operator {
      * */
     public int groupField() {
         // some code goes here
-	    return this.groupby_index;
+	    return this.groupby_indexes.length == 0 ? Aggregator.NO_GROUPING : this.groupby_indexes[0];
+    }
+
+    /**
+     * @return the indexes of all group-by fields in the <b>INPUT</b> tuples,
+     *         empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return this.groupby_indexes.clone();
     }
 
     /**
@@ -72,8 +184,8 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	    // some code goes here
-        if (this.groupby_index == Aggregator.NO_GROUPING) return null;
-	    return this.aggregate_iterator.getTupleDesc().getFieldName(0);
+        if (this.groupby_indexes.length == 0) return null;
+	    return getTupleDesc().getFieldName(0);
     }
 
     /**
@@ -81,7 +193,14 @@ public class Aggregate extends Operator {
      * */
     public int aggregateField() {
 	    // some code goes here
-	    return this.agg_index;
+	    return this.agg_indexes[0];
+    }
+
+    /**
+     * @return the fields of all aggregates, in output order
+     */
+    public int[] aggregateFields() {
+        return this.agg_indexes.clone();
     }
 
     /**
@@ -90,10 +209,7 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	    // some code goes here
-        if (this.groupby_index == Aggregator.NO_GROUPING) {
-            return this.aggregate_iterator.getTupleDesc().getFieldName(0);
-        }
-	    return  this.aggregate_iterator.getTupleDesc().getFieldName(1);
+	    return getTupleDesc().getFieldName(this.groupby_indexes.length);
     }
 
     /**
@@ -101,50 +217,216 @@ public class Aggregate extends Operator {
      * */
     public Aggregator.Op aggregateOp() {
 	    // some code goes here
-	    return this.agg_op;
+	    return this.agg_ops[0];
+    }
+
+    /**
+     * @return the operators of all aggregates, in output order
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.agg_ops.clone();
+    }
+
+    /**
+     * @return the number of partitions of overflow groups written to disk
+     *         by the last open(), not counting nested repartitioning
+     */
+    public int numSpilledPartitions() {
+        return this.num_spilled_partitions;
+    }
+
+    /**
+     * @return the number of child tuples written to disk by the last open()
+     */
+    public long numSpilledTuples() {
+        return this.num_spilled_tuples;
+    }
+
+    /**
+     * @return the number of bytes of groups kept in memory before the
+     *         others are written to disk
+     */
+    public long memoryBudget() {
+        return this.memory_budget;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	    return aop.toString();
     }
 
+    /**
+     * @return the type of the aggregate column produced when aop is computed
+     *         over a column of type afieldtype: COUNT, and every aggregate
+     *         over INT and STRING columns, produce INT_TYPE; aggregates over
+     *         LONG, DOUBLE and DATE columns keep the column's type.
+     */
+    public static Type resultType(Type afieldtype, Aggregator.Op aop) {
+        if (aop == Aggregator.Op.COUNT || afieldtype == Type.INT_TYPE || afieldtype == Type.STRING_TYPE) {
+            return Type.INT_TYPE;
+        }
+        return afieldtype;
+    }
+
+    /**
+     * @return the types of the columns produced by one aggregate: two
+     *         columns, the sum and the count, for SUM_COUNT, and the
+     *         {@link #resultType} otherwise
+     */
+    static Type[] resultTypes(Type afieldtype, Aggregator.Op aop) {
+        if (aop == Aggregator.Op.SUM_COUNT) {
+            return new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        }
+        return new Type[]{resultType(afieldtype, aop)};
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	    // some code goes here
         this.child.open();
         super.open();
-        while (this.child.hasNext()) {
-            this.aggregator.mergeTupleIntoGroup(this.child.next());
+        deleteSpills();
+        this.aggregator = newGroupAggregator();
+        try {
+            aggregate();
+        } catch (IOException e) {
+            throw new DbException("couldn't write aggregate partition: " + e.getMessage());
         }
         this.aggregate_iterator = this.aggregator.iterator();
         this.aggregate_iterator.open();
     }
 
+    // the bytes one group takes in memory
+    private long groupBytes() {
+        long bytes = GROUP_OVERHEAD;
+        for (int g : this.groupby_indexes) {
+            bytes += this.child_td.getFieldType(g).getLen();
+        }
+        // an accumulator and a count per aggregate
+        return bytes + 16L * this.agg_indexes.length;
+    }
+
+    /**
+     * @return the hash code of the values of fields gfields of t, as a
+     *         list; computed without allocating the list
+     */
+    static int groupHash(Tuple t, int[] gfields) {
+        if (gfields.length == 1) {
+            return t.getField(gfields[0]).hashCode();
+        }
+        int hash = 1;
+        for (int g : gfields) {
+            hash = 31 * hash + t.getField(g).hashCode();
+        }
+        return hash;
+    }
+
+    // merge the child into the aggregator, spilling tuples of the groups
+    // that don't fit
+    private void aggregate() throws DbException, TransactionAbortedException, IOException {
+        this.spills = new SpillFile[NUM_PARTITIONS];
+        this.num_spilled_partitions = 0;
+        this.num_spilled_tuples = 0;
+        this.partition = 0;
+        if (this.groupby_indexes.length == 0 || this.depth >= MAX_DEPTH) {
+            while (this.child.hasNext()) {
+                this.aggregator.mergeTupleIntoGroup(this.child.next());
+            }
+            return;
+        }
+        long max_groups = Math.max(1, this.memory_budget / groupBytes());
+        while (this.child.hasNext()) {
+            Tuple t = this.child.next();
+            // new groups are added until the budget is full, then only
+            // the groups already in memory
+            if (this.aggregator.numGroups() < max_groups) {
+                this.aggregator.mergeTupleIntoGroup(t);
+                continue;
+            }
+            if (this.aggregator.mergeTupleIntoExistingGroup(t)) {
+                continue;
+            }
+            int part = HashJoin.partitionOf(groupHash(t, this.groupby_indexes), this.seed, NUM_PARTITIONS);
+            if (this.spills[part] == null) {
+                this.spills[part] = new SpillFile(this.child_td);
+                this.num_spilled_partitions++;
+            }
+            this.spills[part].add(t);
+            this.num_spilled_tuples++;
+        }
+    }
+
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group-by fields come first, in the order
+     * they were given, followed by the results of the aggregates. If there
+     * is no group by field, the result tuple contains only the aggregates.
+     * Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
         if (this.aggregate_iterator.hasNext()) {
             return this.aggregate_iterator.next();
         }
-        return null;
+        return nextFromSpilled();
+    }
+
+    private Tuple nextFromSpilled() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (this.nested != null) {
+                if (this.nested.hasNext()) {
+                    return this.nested.next();
+                }
+                this.nested.close();
+                this.nested = null;
+                this.partition++;
+            }
+            while (this.partition < NUM_PARTITIONS && this.spills[this.partition] == null) {
+                this.partition++;
+            }
+            if (this.partition >= NUM_PARTITIONS) {
+                return null;
+            }
+            try {
+                this.nested = new Aggregate(this.spills[this.partition].iterator(), this.agg_indexes,
+                        this.groupby_indexes, this.agg_ops, this.memory_budget, this.seed + 1, this.depth + 1);
+            } catch (IOException e) {
+                throw new DbException("couldn't read aggregate partition: " + e.getMessage());
+            }
+            this.nested.open();
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        this.aggregate_iterator.rewind();
+        // spilled partitions are kept until close, and aggregated again
+        if (this.nested != null) {
+            this.nested.close();
+            this.nested = null;
+        }
+        this.partition = 0;
+        if (this.aggregate_iterator != null) {
+            this.aggregate_iterator.rewind();
+        }
+    }
+
+    private void deleteSpills() {
+        if (this.nested != null) {
+            this.nested.close();
+            this.nested = null;
+        }
+        if (this.spills == null) {
+            return;
+        }
+        for (int i = 0; i < this.spills.length; i++) {
+            if (this.spills[i] != null) {
+                this.spills[i].delete();
+                this.spills[i] = null;
+            }
+        }
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by one column per aggregate (two for SUM_COUNT).
+     *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
      * given in the constructor, and child_td is the TupleDesc of the child
@@ -152,24 +434,39 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	    // some code goes here
-        Type[] types;
-        String[] names;
-        String agg_name = this.child_td.getFieldName(this.agg_index);
-        if (this.groupby_index == Aggregator.NO_GROUPING) {
-            types = new Type[]{Type.INT_TYPE};
-            names = new String[]{agg_name};
-        } else {
-            types = new Type[]{this.groupby_field_type, Type.INT_TYPE}; 
-            names = new String[]{this.child_td.getFieldName(this.groupby_index), agg_name};
+        return resultTupleDesc(this.child_td, this.groupby_indexes, this.agg_indexes, this.agg_ops);
+    }
+
+    /**
+     * @return the TupleDesc of the result of aggregates aops over columns
+     *         afields, grouped by columns gfields, of tuples of child_td
+     */
+    static TupleDesc resultTupleDesc(TupleDesc child_td, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        for (int g : gfields) {
+            types.add(child_td.getFieldType(g));
+            names.add(child_td.getFieldName(g));
         }
-        TupleDesc td = new TupleDesc(types, names);
-        return td;
+        for (int i = 0; i < afields.length; i++) {
+            String agg_name = child_td.getFieldName(afields[i]);
+            for (Type t : resultTypes(child_td.getFieldType(afields[i]), aops[i])) {
+                types.add(t);
+                names.add(agg_name);
+            }
+        }
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
     }
 
     public void close() {
 	    // some code goes here
         super.close();
-        this.aggregate_iterator.close();
+        if (this.aggregate_iterator != null) {
+            this.aggregate_iterator.close();
+            this.aggregate_iterator = null;
+        }
+        deleteSpills();
+        this.child.close();
     }
 
     @Override
@@ -183,5 +480,5 @@ public class Aggregate extends Operator {
 	    // some code goes here
         this.child = children[0];
     }
-    
+
 }
@@ -76,6 +76,21 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate only if its group is already
+     * there; the aggregate is left unchanged otherwise.
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     * @return true if tup was merged
+     */
+    public boolean mergeTupleIntoExistingGroup(Tuple tup);
+
+    /**
+     * @return the number of groups in the aggregate
+     */
+    public int numGroups();
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,653 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree
+ * sorted on one of its fields, the key. Its leaves, {@link BTreeLeafPage}s,
+ * hold the tuples in key order and are chained left to right;
+ * {@link BTreeInternalPage}s above them route a key to the leaf that holds
+ * it, so a point or range lookup reads one page per level of the tree
+ * instead of every page of the file. {@link BTreeHeaderPage}s record the
+ * root and which pages are in use.
+ * <p>
+ * Keys need not be unique. Inserts split full pages and deletes balance or
+ * merge pages less than half full with a sibling, so every page but the
+ * root is at least half full. Pages are read and modified through the
+ * BufferPool, which writes the modified pages back with
+ * {@link #writePage}; only the pages allocated or freed by splits and
+ * merges are initialized on disk directly.
+ * <p>
+ * Like every DbFile, a BTreeFile is registered with
+ * {@link Catalog#addTable} before it is used. An empty file is
+ * initialized with an empty tree when it is first read.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements IndexedFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int key_field;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the tree; an empty or missing file is
+     *            an empty tree
+     * @param td
+     *            the tuple descriptor of the tuples of the file
+     * @param keyField
+     *            the index of the field the tuples are sorted on
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + keyField + " in " + td);
+        }
+        if (BTreeLeafPage.maxTuples(td) < 3) {
+            throw new IllegalArgumentException("tuples of " + td + " are too large for a B+ tree page");
+        }
+        this.file = f;
+        this.td = td;
+        this.key_field = keyField;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of
+     * the absolute path of its file.
+     */
+    public int getId() {
+        return this.file.getAbsolutePath().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public int keyField() {
+        return this.key_field;
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the header
+     * and internal pages and the free pages.
+     */
+    public int numPages() {
+        return (int) (this.file.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) throws IllegalArgumentException {
+        if (!(pid instanceof BTreePageId) || pid.getTableId() != getId()) {
+            throw new IllegalArgumentException("page " + pid + " is not in this file");
+        }
+        int page_size = BufferPool.getPageSize();
+        byte[] data = new byte[page_size];
+        try {
+            ensureCreated();
+            RandomAccessFile r = new RandomAccessFile(this.file, "r");
+            try {
+                long offset = (long) pid.pageNumber() * page_size;
+                if (offset + page_size > r.length()) {
+                    throw new IllegalArgumentException("page " + pid + " is past the end of the file");
+                }
+                r.seek(offset);
+                r.readFully(data);
+            } finally {
+                r.close();
+            }
+            BTreePageId id = (BTreePageId) pid;
+            switch (BTreePage.category(data)) {
+            case BTreePage.LEAF:
+                return new BTreeLeafPage(id, data);
+            case BTreePage.INTERNAL:
+                return new BTreeInternalPage(id, data);
+            case BTreePage.HEADER:
+                return new BTreeHeaderPage(id, data);
+            default:
+                throw new IllegalArgumentException("page " + pid + " is free");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read page " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private synchronized void writePageData(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile w = new RandomAccessFile(this.file, "rw");
+        try {
+            w.seek((long) pgNo * BufferPool.getPageSize());
+            w.write(data);
+        } finally {
+            w.close();
+        }
+    }
+
+    // write the header page and an empty root leaf to an empty file
+    private synchronized void ensureCreated() throws IOException {
+        if (this.file.length() > 0) {
+            return;
+        }
+        byte[] header = BTreePage.createEmptyPageData(BTreePage.HEADER);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(BTreePage.HEADER);
+        // the root is page 1; pages 0 and 1 are in use
+        dos.writeInt(1);
+        dos.writeInt(0);
+        dos.writeByte(0x3);
+        dos.flush();
+        System.arraycopy(baos.toByteArray(), 0, header, 0, baos.size());
+        writePageData(0, header);
+        writePageData(1, BTreePage.createEmptyPageData(BTreePage.LEAF));
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    private BTreeInternalPage getInternalPage(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        return (BTreeInternalPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    private BTreeLeafPage getLeafPage(TransactionId tid, int pgNo)
+            throws DbException, TransactionAbortedException {
+        return (BTreeLeafPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    // mark a page modified by tid and collect it
+    private static void dirty(TransactionId tid, BTreePage page, HashMap<PageId, Page> dirtypages) {
+        page.markDirty(true, tid);
+        dirtypages.put(page.getId(), page);
+    }
+
+    /**
+     * @return the page number of the root of the tree
+     */
+    int rootPage(TransactionId tid, Permissions perm) throws DbException, TransactionAbortedException {
+        return ((BTreeHeaderPage) getPage(tid, 0, perm)).getRoot();
+    }
+
+    private void setRoot(TransactionId tid, int root, HashMap<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+        header.setRoot(root);
+        dirty(tid, header, dirtypages);
+    }
+
+    /**
+     * Find the leftmost leaf that may hold a key.
+     *
+     * @param key
+     *            the key, or null for the leftmost leaf of the tree
+     */
+    BTreeLeafPage findLeaf(TransactionId tid, Field key, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BTreePage page = getPage(tid, rootPage(tid, perm), perm);
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            page = getPage(tid, internal.getChild(internal.findChild(key)), perm);
+        }
+        return (BTreeLeafPage) page;
+    }
+
+    private static int parentOf(BTreePage page) {
+        if (page instanceof BTreeLeafPage) {
+            return ((BTreeLeafPage) page).getParent();
+        }
+        return ((BTreeInternalPage) page).getParent();
+    }
+
+    private void setParent(TransactionId tid, BTreePage page, int parent, HashMap<PageId, Page> dirtypages) {
+        if (page instanceof BTreeLeafPage) {
+            ((BTreeLeafPage) page).setParent(parent);
+        } else {
+            ((BTreeInternalPage) page).setParent(parent);
+        }
+        dirty(tid, page, dirtypages);
+    }
+
+    private void setParent(TransactionId tid, int pgNo, int parent, HashMap<PageId, Page> dirtypages)
+            throws DbException, TransactionAbortedException {
+        setParent(tid, getPage(tid, pgNo, Permissions.READ_WRITE), parent, dirtypages);
+    }
+
+    /**
+     * Allocate an empty page of a category, reusing a free page if there
+     * is one and growing the file otherwise.
+     */
+    private BTreePage allocatePage(TransactionId tid, byte category, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+        int base = 0;
+        while (true) {
+            int slot = header.firstFreeSlot();
+            if (slot >= 0) {
+                header.markSlotUsed(slot, true);
+                dirty(tid, header, dirtypages);
+                return initPage(tid, base + slot, category, dirtypages);
+            }
+            if (header.getNextHeader() == 0) {
+                // every page the headers cover is in use, the next page
+                // starts a new header
+                BTreeHeaderPage next = (BTreeHeaderPage) initPage(tid, base + BTreeHeaderPage.numSlots(),
+                        BTreePage.HEADER, dirtypages);
+                next.markSlotUsed(0, true);
+                header.setNextHeader(next.pageNumber());
+                dirty(tid, header, dirtypages);
+            }
+            header = (BTreeHeaderPage) getPage(tid, header.getNextHeader(), Permissions.READ_WRITE);
+            base += BTreeHeaderPage.numSlots();
+        }
+    }
+
+    // write an empty page of a category to disk and read it in the pool
+    private BTreePage initPage(TransactionId tid, int pgNo, byte category, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        writePageData(pgNo, BTreePage.createEmptyPageData(category));
+        Database.getBufferPool().discardPage(new BTreePageId(getId(), pgNo));
+        BTreePage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+        dirty(tid, page, dirtypages);
+        return page;
+    }
+
+    /**
+     * Return a page to the free pages of the file.
+     */
+    private void freePage(TransactionId tid, BTreePage page, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = page.pageNumber();
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+        int base = 0;
+        while (pgNo >= base + BTreeHeaderPage.numSlots()) {
+            header = (BTreeHeaderPage) getPage(tid, header.getNextHeader(), Permissions.READ_WRITE);
+            base += BTreeHeaderPage.numSlots();
+        }
+        header.markSlotUsed(pgNo - base, false);
+        dirty(tid, header, dirtypages);
+        dirtypages.remove(page.getId());
+        Database.getBufferPool().discardPage(page.getId());
+        writePageData(pgNo, BTreePage.createEmptyPageData(BTreePage.FREE));
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!this.td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple " + t + " does not match the tuple descriptor of the file");
+        }
+        HashMap<PageId, Page> dirtypages = new LinkedHashMap<PageId, Page>();
+        Field key = t.getField(this.key_field);
+        BTreeLeafPage leaf = findLeaf(tid, key, Permissions.READ_WRITE);
+        if (leaf.isFull()) {
+            leaf = splitLeaf(tid, leaf, key, dirtypages);
+        }
+        leaf.insertTuple(t);
+        dirty(tid, leaf, dirtypages);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Return the parent of a page, with room for one more entry. A full
+     * parent is split, and the root gets a new parent.
+     */
+    private BTreeInternalPage parentWithRoom(TransactionId tid, BTreePage child,
+            HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        if (parentOf(child) == 0) {
+            BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid, BTreePage.INTERNAL, dirtypages);
+            root.setOnlyChild(child.pageNumber());
+            setParent(tid, child, root.pageNumber(), dirtypages);
+            setRoot(tid, root.pageNumber(), dirtypages);
+            return root;
+        }
+        BTreeInternalPage parent = getInternalPage(tid, parentOf(child));
+        if (!parent.isFull()) {
+            return parent;
+        }
+        BTreeInternalPage right = splitInternal(tid, parent, dirtypages);
+        return right.childIndex(child.pageNumber()) >= 0 ? right : parent;
+    }
+
+    /**
+     * Move the upper half of the tuples of a full leaf to a new leaf on
+     * its right, and return the one of the two leaves key goes in.
+     */
+    private BTreeLeafPage splitLeaf(TransactionId tid, BTreeLeafPage leaf, Field key,
+            HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = parentWithRoom(tid, leaf, dirtypages);
+        BTreeLeafPage right = (BTreeLeafPage) allocatePage(tid, BTreePage.LEAF, dirtypages);
+        right.append(leaf.removeFrom(leaf.getNumTuples() / 2));
+
+        right.setRightSibling(leaf.getRightSibling());
+        right.setLeftSibling(leaf.pageNumber());
+        if (leaf.getRightSibling() != 0) {
+            BTreeLeafPage next = getLeafPage(tid, leaf.getRightSibling());
+            next.setLeftSibling(right.pageNumber());
+            dirty(tid, next, dirtypages);
+        }
+        leaf.setRightSibling(right.pageNumber());
+
+        Field separator = right.getKey(0);
+        parent.insertEntry(parent.childIndex(leaf.pageNumber()), separator, right.pageNumber());
+        right.setParent(parent.pageNumber());
+        dirty(tid, leaf, dirtypages);
+        dirty(tid, right, dirtypages);
+        dirty(tid, parent, dirtypages);
+        return key.compare(Predicate.Op.LESS_THAN, separator) ? leaf : right;
+    }
+
+    /**
+     * Move the upper half of the entries of a full internal page to a new
+     * page on its right, pushing the middle key up to the parent, and
+     * return the new page.
+     */
+    private BTreeInternalPage splitInternal(TransactionId tid, BTreeInternalPage page,
+            HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = parentWithRoom(tid, page, dirtypages);
+        BTreeInternalPage right = (BTreeInternalPage) allocatePage(tid, BTreePage.INTERNAL, dirtypages);
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> children = new ArrayList<Integer>();
+        page.removeFrom(page.getNumKeys() / 2, keys, children);
+        Field up = keys.remove(0);
+        right.setOnlyChild(children.remove(0));
+        right.append(keys, children);
+        for (int child : right.children()) {
+            setParent(tid, child, right.pageNumber(), dirtypages);
+        }
+
+        parent.insertEntry(parent.childIndex(page.pageNumber()), up, right.pageNumber());
+        right.setParent(parent.pageNumber());
+        dirty(tid, page, dirtypages);
+        dirty(tid, right, dirtypages);
+        dirty(tid, parent, dirtypages);
+        return right;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof BTreePageId) || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple " + t + " is not stored in this file");
+        }
+        BTreePage page;
+        try {
+            page = getPage(tid, rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+        } catch (IllegalArgumentException e) {
+            throw new DbException("tuple " + t + " is not stored in this file");
+        }
+        if (!(page instanceof BTreeLeafPage)) {
+            throw new DbException("tuple " + t + " is not stored in this file");
+        }
+        HashMap<PageId, Page> dirtypages = new LinkedHashMap<PageId, Page>();
+        BTreeLeafPage leaf = (BTreeLeafPage) page;
+        leaf.deleteTuple(t);
+        dirty(tid, leaf, dirtypages);
+        if (leaf.getParent() != 0 && leaf.getNumTuples() < BTreeLeafPage.maxTuples(this.td) / 2) {
+            handleLeafUnderflow(tid, leaf, dirtypages);
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Refill a leaf less than half full with tuples of a sibling, or merge
+     * it with the sibling if the sibling has none to spare.
+     */
+    private void handleLeafUnderflow(TransactionId tid, BTreeLeafPage leaf, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = getInternalPage(tid, leaf.getParent());
+        int i = parent.childIndex(leaf.pageNumber());
+        int half = BTreeLeafPage.maxTuples(this.td) / 2;
+        if (i > 0) {
+            BTreeLeafPage left = getLeafPage(tid, parent.getChild(i - 1));
+            if (left.getNumTuples() > half) {
+                int move = (left.getNumTuples() - leaf.getNumTuples()) / 2;
+                leaf.prepend(left.removeFrom(left.getNumTuples() - move));
+                parent.setKey(i - 1, leaf.getKey(0));
+                dirty(tid, left, dirtypages);
+                dirty(tid, leaf, dirtypages);
+                dirty(tid, parent, dirtypages);
+            } else {
+                mergeLeaves(tid, left, leaf, parent, i - 1, dirtypages);
+            }
+        } else {
+            BTreeLeafPage right = getLeafPage(tid, parent.getChild(1));
+            if (right.getNumTuples() > half) {
+                int move = (right.getNumTuples() - leaf.getNumTuples()) / 2;
+                leaf.append(right.removeFirst(move));
+                parent.setKey(0, right.getKey(0));
+                dirty(tid, right, dirtypages);
+                dirty(tid, leaf, dirtypages);
+                dirty(tid, parent, dirtypages);
+            } else {
+                mergeLeaves(tid, leaf, right, parent, 0, dirtypages);
+            }
+        }
+    }
+
+    // move the tuples of right into left, its left sibling, and remove
+    // right and the key separating them from their parent
+    private void mergeLeaves(TransactionId tid, BTreeLeafPage left, BTreeLeafPage right,
+            BTreeInternalPage parent, int keyIndex, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        left.append(right.removeFirst(right.getNumTuples()));
+        left.setRightSibling(right.getRightSibling());
+        if (right.getRightSibling() != 0) {
+            BTreeLeafPage next = getLeafPage(tid, right.getRightSibling());
+            next.setLeftSibling(left.pageNumber());
+            dirty(tid, next, dirtypages);
+        }
+        parent.deleteEntry(keyIndex);
+        dirty(tid, left, dirtypages);
+        dirty(tid, parent, dirtypages);
+        freePage(tid, right, dirtypages);
+        handleInternalUnderflow(tid, parent, dirtypages);
+    }
+
+    /**
+     * Refill an internal page less than half full with entries of a
+     * sibling, rotated through their parent, or merge it with the sibling
+     * if the sibling has none to spare. A root left with a single child is
+     * replaced by that child.
+     */
+    private void handleInternalUnderflow(TransactionId tid, BTreeInternalPage page,
+            HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
+        if (page.getParent() == 0) {
+            if (page.getNumKeys() == 0) {
+                setParent(tid, page.getChild(0), 0, dirtypages);
+                setRoot(tid, page.getChild(0), dirtypages);
+                freePage(tid, page, dirtypages);
+            }
+            return;
+        }
+        int half = BTreeInternalPage.maxKeys(this.td.getFieldType(this.key_field)) / 2;
+        if (page.getNumKeys() >= half) {
+            return;
+        }
+        BTreeInternalPage parent = getInternalPage(tid, page.getParent());
+        int i = parent.childIndex(page.pageNumber());
+        if (i > 0) {
+            BTreeInternalPage left = getInternalPage(tid, parent.getChild(i - 1));
+            if (left.getNumKeys() > half) {
+                while (left.getNumKeys() > page.getNumKeys() + 1) {
+                    ArrayList<Field> keys = new ArrayList<Field>();
+                    ArrayList<Integer> children = new ArrayList<Integer>();
+                    left.removeFrom(left.getNumKeys() - 1, keys, children);
+                    page.prepend(children.get(0), parent.getKey(i - 1));
+                    parent.setKey(i - 1, keys.get(0));
+                    setParent(tid, children.get(0), page.pageNumber(), dirtypages);
+                }
+                dirty(tid, left, dirtypages);
+                dirty(tid, page, dirtypages);
+                dirty(tid, parent, dirtypages);
+            } else {
+                mergeInternal(tid, left, page, parent, i - 1, dirtypages);
+            }
+        } else {
+            BTreeInternalPage right = getInternalPage(tid, parent.getChild(1));
+            if (right.getNumKeys() > half) {
+                while (right.getNumKeys() > page.getNumKeys() + 1) {
+                    ArrayList<Field> key = new ArrayList<Field>();
+                    int child = right.removeFirstChild(key);
+                    page.append(Collections.singletonList(parent.getKey(0)), Collections.singletonList(child));
+                    parent.setKey(0, key.get(0));
+                    setParent(tid, child, page.pageNumber(), dirtypages);
+                }
+                dirty(tid, right, dirtypages);
+                dirty(tid, page, dirtypages);
+                dirty(tid, parent, dirtypages);
+            } else {
+                mergeInternal(tid, page, right, parent, 0, dirtypages);
+            }
+        }
+    }
+
+    // move the key separating left and right in their parent and the
+    // entries of right into left, and remove right from the parent
+    private void mergeInternal(TransactionId tid, BTreeInternalPage left, BTreeInternalPage right,
+            BTreeInternalPage parent, int keyIndex, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Field> keys = new ArrayList<Field>();
+        keys.add(parent.getKey(keyIndex));
+        for (int k = 0; k < right.getNumKeys(); k++) {
+            keys.add(right.getKey(k));
+        }
+        ArrayList<Integer> children = new ArrayList<Integer>(right.children());
+        left.append(keys, children);
+        for (int child : children) {
+            setParent(tid, child, left.pageNumber(), dirtypages);
+        }
+        parent.deleteEntry(keyIndex);
+        dirty(tid, left, dirtypages);
+        dirty(tid, parent, dirtypages);
+        freePage(tid, right, dirtypages);
+        handleInternalUnderflow(tid, parent, dirtypages);
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the file, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies a predicate,
+     * in key order. Equality and range predicates read only the leaves
+     * that may hold matching keys.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(this, tid, ipred);
+    }
+}
+
+/**
+ * Helper class that iterates over the tuples of the leaves of a BTreeFile
+ * whose keys satisfy a predicate, from the first leaf that may hold a
+ * matching key to the last.
+ */
+class BTreeFileIterator implements DbFileIterator {
+
+    private final BTreeFile f;
+    private final TransactionId tid;
+    private final IndexPredicate ipred;
+    private BTreeLeafPage leaf;
+    private int pos;
+    private Tuple next;
+
+    /**
+     * @param ipred
+     *            the predicate on the key, or null for every tuple
+     */
+    BTreeFileIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        Field start = null;
+        if (this.ipred != null) {
+            switch (this.ipred.getOp()) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                start = this.ipred.getField();
+                break;
+            default:
+                break;
+            }
+        }
+        this.leaf = this.f.findLeaf(this.tid, start, Permissions.READ_ONLY);
+        this.pos = 0;
+        this.next = null;
+    }
+
+    // true if no key after this one can satisfy the predicate
+    private boolean pastEnd(Field key) {
+        switch (this.ipred.getOp()) {
+        case EQUALS:
+        case LESS_THAN_OR_EQ:
+            return key.compare(Predicate.Op.GREATER_THAN, this.ipred.getField());
+        case LESS_THAN:
+            return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, this.ipred.getField());
+        default:
+            return false;
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (this.next == null && this.leaf != null) {
+            if (this.pos < this.leaf.getNumTuples()) {
+                Tuple t = this.leaf.getTuple(this.pos++);
+                Field key = t.getField(this.f.keyField());
+                if (this.ipred == null || this.ipred.matches(key)) {
+                    this.next = t;
+                } else if (pastEnd(key)) {
+                    this.leaf = null;
+                }
+            } else if (this.leaf.getRightSibling() != 0) {
+                this.leaf = (BTreeLeafPage) Database.getBufferPool().getPage(this.tid,
+                        new BTreePageId(this.f.getId(), this.leaf.getRightSibling()), Permissions.READ_ONLY);
+                this.pos = 0;
+            } else {
+                this.leaf = null;
+            }
+        }
+        return this.next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.next;
+        this.next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        this.leaf = null;
+        this.next = null;
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A BTreeHeaderPage records which pages of a {@link BTreeFile} are in use,
+ * so that the pages freed by merges are reused before the file grows.
+ * Header pages form a chain that starts at page 0, each covering the next
+ * {@link #numSlots()} pages of the file; the header at page 0 also holds
+ * the page number of the root of the tree.
+ * <p>
+ * The format is the category byte, the root page number, the page number
+ * of the next header page (0 for none), then a bitmap with a bit set for
+ * each page in use.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 1 + 4 + 4;
+
+    private int root;
+    private int next_header;
+    private final byte[] bitmap;
+
+    /**
+     * Create a BTreeHeaderPage from the bytes of a page read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        this.root = dis.readInt();
+        this.next_header = dis.readInt();
+        this.bitmap = new byte[numSlots() / 8];
+        dis.readFully(this.bitmap);
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of pages a header page keeps track of
+     */
+    public static int numSlots() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 8 * 8;
+    }
+
+    protected byte category() {
+        return HEADER;
+    }
+
+    protected void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(this.root);
+        dos.writeInt(this.next_header);
+        dos.write(this.bitmap);
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            return new BTreeHeaderPage(this.pid, getBeforeData());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the page number of the root; only set on page 0 */
+    public int getRoot() {
+        return this.root;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    /** @return the page number of the next header page, or 0 */
+    public int getNextHeader() {
+        return this.next_header;
+    }
+
+    public void setNextHeader(int next) {
+        this.next_header = next;
+    }
+
+    /** @return true if slot i, a page covered by this header, is in use */
+    public boolean isSlotUsed(int i) {
+        return (this.bitmap[i >> 3] & (1 << (i & 7))) != 0;
+    }
+
+    public void markSlotUsed(int i, boolean used) {
+        if (used) {
+            this.bitmap[i >> 3] |= (byte) (1 << (i & 7));
+        } else {
+            this.bitmap[i >> 3] &= (byte) ~(1 << (i & 7));
+        }
+    }
+
+    /** @return the first slot not in use, or -1 if all are */
+    public int firstFreeSlot() {
+        for (int b = 0; b < this.bitmap.length; b++) {
+            if (this.bitmap[b] != (byte) 0xFF) {
+                for (int i = b << 3; ; i++) {
+                    if (!isSlotUsed(i)) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A BTreeInternalPage routes lookups in a {@link BTreeFile}. It holds n
+ * keys and n + 1 child page numbers; the keys in child i are at least key
+ * i - 1 and at most key i, so equal keys may be found on both sides of a
+ * key that separates them.
+ * <p>
+ * The format is the category byte, the page number of the parent (0 for
+ * the root), the number of keys, the first child, then each key followed
+ * by the child to its right.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 1 + 4 + 4 + 4;
+
+    private final Type key_type;
+    private int parent;
+    private final ArrayList<Field> keys;
+    private final ArrayList<Integer> children;
+
+    /**
+     * Create a BTreeInternalPage from the bytes of a page read from disk.
+     * The key type is that of the key field of the BTreeFile of the page,
+     * found in the catalog.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        BTreeFile f = file();
+        this.key_type = f.getTupleDesc().getFieldType(f.keyField());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        this.parent = dis.readInt();
+        int n = dis.readInt();
+        this.keys = new ArrayList<Field>(n);
+        this.children = new ArrayList<Integer>(n + 1);
+        int first = dis.readInt();
+        // an empty page has no child yet
+        if (first != 0) {
+            this.children.add(first);
+        }
+        try {
+            for (int i = 0; i < n; i++) {
+                this.keys.add(this.key_type.parse(dis));
+                this.children.add(dis.readInt());
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("can't read key of page " + id, e);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of keys an internal page holds for keys of a type
+     */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 4);
+    }
+
+    protected byte category() {
+        return INTERNAL;
+    }
+
+    protected void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(this.parent);
+        dos.writeInt(this.keys.size());
+        dos.writeInt(this.children.isEmpty() ? 0 : this.children.get(0));
+        for (int i = 0; i < this.keys.size(); i++) {
+            this.keys.get(i).serialize(dos);
+            dos.writeInt(this.children.get(i + 1));
+        }
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(this.pid, getBeforeData());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the page number of the parent, or 0 for the root */
+    public int getParent() {
+        return this.parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    public int getNumKeys() {
+        return this.keys.size();
+    }
+
+    public boolean isFull() {
+        return this.keys.size() >= maxKeys(this.key_type);
+    }
+
+    public Field getKey(int i) {
+        return this.keys.get(i);
+    }
+
+    public void setKey(int i, Field key) {
+        this.keys.set(i, key);
+    }
+
+    /** @return the page number of child i, for i from 0 to getNumKeys() */
+    public int getChild(int i) {
+        return this.children.get(i);
+    }
+
+    /** @return the position of a child page, or -1 if it is not a child */
+    public int childIndex(int page) {
+        return this.children.indexOf(page);
+    }
+
+    /**
+     * @return the position of the first child that may hold key, or of the
+     *         first child if key is null
+     */
+    public int findChild(Field key) {
+        if (key == null) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = this.keys.size();
+        // the first key at least as large as key
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.keys.get(mid).compare(Predicate.Op.LESS_THAN, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Make page the only child of this empty page, as a new root.
+     */
+    void setOnlyChild(int page) {
+        if (!this.children.isEmpty()) {
+            throw new IllegalStateException("page " + this.pid + " has children");
+        }
+        this.children.add(page);
+    }
+
+    /**
+     * Insert key at position i and child page at position i + 1, to the
+     * right of the key.
+     *
+     * @throws DbException if the page is full
+     */
+    public void insertEntry(int i, Field key, int child) throws DbException {
+        if (isFull()) {
+            throw new DbException("page " + this.pid + " is full");
+        }
+        this.keys.add(i, key);
+        this.children.add(i + 1, child);
+    }
+
+    /**
+     * Remove key i and the child to its right.
+     */
+    public void deleteEntry(int i) {
+        this.keys.remove(i);
+        this.children.remove(i + 1);
+    }
+
+    /**
+     * Remove the keys from position from on, with the children to their
+     * right; they are returned in removedKeys and removedChildren.
+     */
+    void removeFrom(int from, List<Field> removedKeys, List<Integer> removedChildren) {
+        List<Field> k = this.keys.subList(from, this.keys.size());
+        List<Integer> c = this.children.subList(from + 1, this.children.size());
+        removedKeys.addAll(k);
+        removedChildren.addAll(c);
+        k.clear();
+        c.clear();
+    }
+
+    /**
+     * Remove the first child and the key to its right, and return the
+     * child.
+     */
+    int removeFirstChild(List<Field> removedKey) {
+        removedKey.add(this.keys.remove(0));
+        return this.children.remove(0);
+    }
+
+    /**
+     * Add keys and the children to their right at the end of the page.
+     */
+    void append(List<Field> ks, List<Integer> cs) {
+        this.keys.addAll(ks);
+        this.children.addAll(cs);
+    }
+
+    /**
+     * Add a child and the key to its right at the start of the page.
+     */
+    void prepend(int child, Field key) {
+        this.children.add(0, child);
+        this.keys.add(0, key);
+    }
+
+    /** @return the page numbers of the children, in order */
+    public List<Integer> children() {
+        return Collections.unmodifiableList(this.children);
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A BTreeLeafPage holds the tuples of a {@link BTreeFile}, sorted on the
+ * key field. Leaves are chained to their left and right siblings, so a
+ * range of keys is read by finding its first leaf and following the right
+ * pointers.
+ * <p>
+ * The format is the category byte, the page numbers of the parent, the
+ * left sibling and the right sibling (0 for none), the number of tuples,
+ * then the tuples, each {@link TupleDesc#getSize()} bytes long.
+ */
+public class BTreeLeafPage extends BTreePage implements Iterable<Tuple> {
+
+    private static final int HEADER_SIZE = 1 + 4 + 4 + 4 + 4;
+
+    private final TupleDesc td;
+    private final int key_field;
+    private int parent;
+    private int left_sibling;
+    private int right_sibling;
+    private final ArrayList<Tuple> tuples;
+
+    /**
+     * Create a BTreeLeafPage from the bytes of a page read from disk. The
+     * tuple descriptor and key field are those of the BTreeFile of the
+     * page, found in the catalog.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        BTreeFile f = file();
+        this.td = f.getTupleDesc();
+        this.key_field = f.keyField();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readByte();
+        this.parent = dis.readInt();
+        this.left_sibling = dis.readInt();
+        this.right_sibling = dis.readInt();
+        int n = dis.readInt();
+        this.tuples = new ArrayList<Tuple>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(this.td);
+                for (int j = 0; j < this.td.numFields(); j++) {
+                    t.setField(j, this.td.getFieldType(j).parse(dis));
+                }
+                t.setRecordId(new RecordId(this.pid, i));
+                this.tuples.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("can't read tuple of page " + id, e);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuples a leaf page of a file with tuples of
+     *         this descriptor holds
+     */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    protected byte category() {
+        return LEAF;
+    }
+
+    protected void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(this.parent);
+        dos.writeInt(this.left_sibling);
+        dos.writeInt(this.right_sibling);
+        dos.writeInt(this.tuples.size());
+        for (Tuple t : this.tuples) {
+            for (int j = 0; j < this.td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+        }
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(this.pid, getBeforeData());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the page number of the parent, or 0 for the root */
+    public int getParent() {
+        return this.parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    /** @return the page number of the left sibling, or 0 */
+    public int getLeftSibling() {
+        return this.left_sibling;
+    }
+
+    public void setLeftSibling(int page) {
+        this.left_sibling = page;
+    }
+
+    /** @return the page number of the right sibling, or 0 */
+    public int getRightSibling() {
+        return this.right_sibling;
+    }
+
+    public void setRightSibling(int page) {
+        this.right_sibling = page;
+    }
+
+    public int getNumTuples() {
+        return this.tuples.size();
+    }
+
+    public boolean isFull() {
+        return this.tuples.size() >= maxTuples(this.td);
+    }
+
+    public Tuple getTuple(int i) {
+        return this.tuples.get(i);
+    }
+
+    /** @return the key of the i-th tuple */
+    public Field getKey(int i) {
+        return this.tuples.get(i).getField(this.key_field);
+    }
+
+    /**
+     * Add a tuple after the tuples with a smaller or equal key; the tuple
+     * is updated to reflect that it is now stored on this page.
+     *
+     * @throws DbException if the page is full
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (isFull()) {
+            throw new DbException("page " + this.pid + " is full");
+        }
+        Field key = t.getField(this.key_field);
+        int i = this.tuples.size();
+        while (i > 0 && key.compare(Predicate.Op.LESS_THAN, getKey(i - 1))) {
+            i--;
+        }
+        this.tuples.add(i, t);
+        renumber(i);
+    }
+
+    /**
+     * Delete a tuple with the same fields as t from the page; t is updated
+     * to reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if no such tuple is on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        int i = indexOf(t);
+        if (i < 0) {
+            throw new DbException("tuple " + t + " is not on page " + this.pid);
+        }
+        this.tuples.remove(i);
+        renumber(i);
+        t.setRecordId(null);
+    }
+
+    // the position of a tuple with the fields of t, trying its record id
+    // first
+    private int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && this.pid.equals(rid.getPageId()) && rid.tupleno() < this.tuples.size()
+                && sameFields(t, this.tuples.get(rid.tupleno()))) {
+            return rid.tupleno();
+        }
+        for (int i = 0; i < this.tuples.size(); i++) {
+            if (sameFields(t, this.tuples.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple t1, Tuple t2) {
+        for (int j = 0; j < this.td.numFields(); j++) {
+            if (!t1.getField(j).equals(t2.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the tuples from position from on and return them, in order.
+     */
+    List<Tuple> removeFrom(int from) {
+        List<Tuple> tail = this.tuples.subList(from, this.tuples.size());
+        ArrayList<Tuple> removed = new ArrayList<Tuple>(tail);
+        tail.clear();
+        return removed;
+    }
+
+    /**
+     * Remove the first n tuples and return them, in order.
+     */
+    List<Tuple> removeFirst(int n) {
+        List<Tuple> head = this.tuples.subList(0, n);
+        ArrayList<Tuple> removed = new ArrayList<Tuple>(head);
+        head.clear();
+        renumber(0);
+        return removed;
+    }
+
+    /**
+     * Add tuples, in order, at the end of the page; their keys must not be
+     * smaller than those of the page.
+     */
+    void append(List<Tuple> ts) {
+        int from = this.tuples.size();
+        this.tuples.addAll(ts);
+        renumber(from);
+    }
+
+    /**
+     * Add tuples, in order, at the start of the page; their keys must not
+     * be greater than those of the page.
+     */
+    void prepend(List<Tuple> ts) {
+        this.tuples.addAll(0, ts);
+        renumber(0);
+    }
+
+    // point the record ids of the tuples from position from on at their
+    // slots
+    private void renumber(int from) {
+        for (int i = from; i < this.tuples.size(); i++) {
+            this.tuples.get(i).setRecordId(new RecordId(this.pid, i));
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples of the page, in key order
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(this.tuples).iterator();
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage is the base class of the pages of a {@link BTreeFile}. The
+ * first byte of every page is its category, which tells the file which
+ * page class reads it; page 0 is always a {@link BTreeHeaderPage}.
+ * <p>
+ * Pages refer to each other by page number within their file. Page 0 is
+ * never the parent or sibling of another page, so 0 stands for "no page".
+ */
+public abstract class BTreePage implements Page {
+
+    /** Category of a page that is not part of the tree. */
+    public static final byte FREE = 0;
+    /** Category of {@link BTreeLeafPage}s. */
+    public static final byte LEAF = 1;
+    /** Category of {@link BTreeInternalPage}s. */
+    public static final byte INTERNAL = 2;
+    /** Category of {@link BTreeHeaderPage}s. */
+    public static final byte HEADER = 3;
+
+    protected final BTreePageId pid;
+    private volatile TransactionId dirtier;
+    private byte[] old_data;
+    private final Object old_data_lock = new Object();
+
+    protected BTreePage(BTreePageId id) {
+        this.pid = id;
+    }
+
+    /**
+     * @return the category of a page, read from its first byte
+     */
+    static byte category(byte[] data) {
+        return data[0];
+    }
+
+    /**
+     * @return the data of an empty page of a category, which the page class
+     *         of that category reads as a page with no entries
+     */
+    static byte[] createEmptyPageData(byte category) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = category;
+        return data;
+    }
+
+    /** @return the BTreeFile this page belongs to */
+    protected BTreeFile file() {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(this.pid.getTableId());
+    }
+
+    public BTreePageId getId() {
+        return this.pid;
+    }
+
+    /** @return the number of this page in its file */
+    public int pageNumber() {
+        return this.pid.pageNumber();
+    }
+
+    public TransactionId isDirty() {
+        return this.dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Write the body of the page, after its category byte.
+     */
+    protected abstract void writeBody(DataOutputStream dos) throws IOException;
+
+    /** @return the category of this page */
+    protected abstract byte category();
+
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(category());
+            writeBody(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // writes to a byte array don't fail
+            throw new RuntimeException(e);
+        }
+        byte[] data = baos.toByteArray();
+        if (data.length > len) {
+            throw new IllegalStateException("page " + this.pid + " overflows");
+        }
+        byte[] page = new byte[len];
+        System.arraycopy(data, 0, page, 0, data.length);
+        return page;
+    }
+
+    /** @return the data of this page before it was modified */
+    protected byte[] getBeforeData() {
+        synchronized (this.old_data_lock) {
+            return this.old_data;
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (this.old_data_lock) {
+            this.old_data = getPageData().clone();
+        }
+    }
+}
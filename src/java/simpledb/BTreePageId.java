@@ -0,0 +1,65 @@
+package simpledb;
+
+/** Unique identifier for the pages of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    private final int table_id;
+    private final int pg_no;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.table_id = tableId;
+        this.pg_no = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return this.table_id;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return this.pg_no;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     *   the table number and the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return (this.table_id << 16) + this.pg_no;
+    }
+
+    /**
+     * @return true if o is a BTreePageId of the same page
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId p = (BTreePageId) o;
+        return this.table_id == p.table_id && this.pg_no == p.pg_no;
+    }
+
+    /**
+     * @return the table id and page number, the arguments of the
+     *   constructor
+     */
+    public int[] serialize() {
+        return new int[] { this.table_id, this.pg_no };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + this.table_id + ", " + this.pg_no + ")";
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BloomFilter is a compact set of fields that answers membership tests
+ * with no false negatives and about 1% false positives. A hash join builds
+ * one on the join keys of its build input and gives it to the scan of its
+ * probe input, which then drops the tuples whose key can't match before
+ * they go through the rest of the plan.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bits per expected key; with NUM_HASHES, about 1% false positives. */
+    static final int BITS_PER_KEY = 10;
+    /** Number of bits set per key. */
+    static final int NUM_HASHES = 7;
+
+    private final long[] bits;
+    private final long num_bits;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedKeys
+     *            the number of keys the filter is sized for; more keys
+     *            raise the false positive rate
+     */
+    public BloomFilter(int expectedKeys) {
+        long n = Math.max(64, (long) Math.max(1, expectedKeys) * BITS_PER_KEY);
+        this.bits = new long[(int) ((n + 63) / 64)];
+        this.num_bits = (long) this.bits.length * 64;
+    }
+
+    /** @return the number of bytes of the filter's bits */
+    public long sizeInBytes() {
+        return (long) this.bits.length * 8;
+    }
+
+    /** Add a field to the filter. */
+    public void add(Field f) {
+        add(f.hashCode());
+    }
+
+    /**
+     * @return false if the field was never added, true if it probably was
+     */
+    public boolean mightContain(Field f) {
+        return mightContain(f.hashCode());
+    }
+
+    /** Add a field with the given hash code to the filter. */
+    void add(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % this.num_bits;
+            this.bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long bit = ((h1 + i * h2) & 0xFFFFFFFFL) % this.num_bits;
+            if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // murmur3 64-bit finalizer, spreading a field hash code over 64 bits
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,31 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Broadcast is an exchange that sends every tuple of its producers to
+ * every output, typically the small build side of a join whose probe side
+ * is split between several threads. The outputs share the tuples, which
+ * must not be modified.
+ */
+public class Broadcast extends Exchange {
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the iterators run on the producer threads; they all have
+     *            the same TupleDesc
+     * @param numOutputs
+     *            the number of consumers
+     */
+    public Broadcast(DbIterator[] producers, int numOutputs) {
+        super(producers, numOutputs);
+    }
+
+    void route(Tuple t, ArrayList<Tuple>[] batches) {
+        for (ArrayList<Tuple> batch : batches) {
+            batch.add(t);
+        }
+    }
+}
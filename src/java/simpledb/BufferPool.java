@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -42,6 +43,11 @@ public class BufferPool {
         this.pid2page = new ConcurrentHashMap<PageId, Page>();
     }
     
+    /** @return the maximum number of pages in this buffer pool */
+    public int numPages() {
+        return this.num_page;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -70,7 +76,8 @@ public class BufferPool {
         throws TransactionAbortedException, DbException {
         // some code goes here
 
-        if (!this.pid2page.containsKey(pid)) {
+        Page page = this.pid2page.get(pid);
+        if (page == null) {
             // this page is not in the buffer pool,
             // need to read the page from disk and cache into buffer pool
 
@@ -86,9 +93,14 @@ public class BufferPool {
                 evictPage();
             }
             
-            this.pid2page.put(pid, new_page);
+            // parallel scans may read the same page at once; all of them
+            // get the copy that was cached first
+            page = this.pid2page.putIfAbsent(pid, new_page);
+            if (page == null) {
+                page = new_page;
+            }
         }
-        return this.pid2page.get(pid);
+        return page;
     }
 
     /**
@@ -152,7 +164,22 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-    	// not necessary for this assignment	
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file, file.insertTuple(tid, t));
+    }
+
+    // mark the pages modified by tid dirty, and cache them in place of
+    // any older copy; files that can't be updated, like HeapFile, return
+    // no pages
+    private void cacheDirtyPages(TransactionId tid, DbFile file, ArrayList<Page> pages)
+            throws DbException {
+        if (pages == null) {
+            throw new DbException("table " + file.getId() + " is read-only");
+        }
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            this.pid2page.put(page.getId(), page);
+        }
     }
 
     /**
@@ -170,7 +197,12 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-    	// not necessary for this assignment	
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple " + t + " is not stored in a table");
+        }
+        int table_id = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(table_id);
+        cacheDirtyPages(tid, file, file.deleteTuple(tid, t));
     }
 
     /**
@@ -180,7 +212,9 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-    	// not necessary for this assignment	
+        for (PageId pid : this.pid2page.keySet()) {
+            flushPage(pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -190,7 +224,7 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-    	// not necessary for this assignment	
+        this.pid2page.remove(pid);
     }
 
     /**
@@ -199,14 +233,23 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
-    	// not necessary for this assignment	
+        Page page = this.pid2page.get(pid);
+        if (page == null || page.isDirty() == null) {
+            return;
+        }
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-    	// not necessary for this assignment	
+        for (Page page : this.pid2page.values()) {
+            if (tid.equals(page.isDirty())) {
+                flushPage(page.getId());
+            }
+        }
     }
 
     /**
@@ -35,11 +35,13 @@ public class Catalog {
         public DbFile file;
         public String name;
         public String pkeyField;
+        public final StringDictionary dict;
 
         public Table(DbFile file, String name, String pkeyField) {
             this.file = file;
             this.name = name;
             this.pkeyField = pkeyField;
+            this.dict = new StringDictionary();
         }
 
         public String getPkeyField() {
@@ -53,6 +55,10 @@ public class Catalog {
         public DbFile getFile() {
             return file;
         }
+
+        public StringDictionary getStringDictionary() {
+            return dict;
+        }
     }
 
     /**
@@ -127,6 +133,20 @@ public class Catalog {
         return this.id2table.get(tableid).getFile();
     }
 
+    /**
+     * Returns the dictionary used to intern the string values of the
+     * specified table when its pages are read.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public StringDictionary getStringDictionary(int tableid) throws NoSuchElementException {
+        if (!this.id2table.containsKey(tableid)) {
+            throw new NoSuchElementException();
+        }
+        return this.id2table.get(tableid).getStringDictionary();
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         if (!this.id2table.containsKey(tableid)) {
@@ -157,6 +177,9 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form <tt>name (field type [pk], ...)</tt>, optionally
+     * followed by the keyword <tt>slotted</tt> for tables whose data file
+     * was written with {@link HeapFileEncoder#convertSlotted}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -170,6 +193,7 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                boolean slotted = line.substring(line.indexOf(")") + 1).trim().equalsIgnoreCase("slotted");
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -177,10 +201,9 @@ public class Catalog {
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1]);
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -197,7 +220,7 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, slotted);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
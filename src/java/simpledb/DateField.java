@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Instance of Field that stores a point in time, as milliseconds since the
+ * epoch (1970-01-01T00:00:00 UTC). Dates are written as
+ * <tt>yyyy-MM-dd</tt>, and timestamps as <tt>yyyy-MM-dd HH:mm:ss</tt>.
+ */
+public class DateField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final long millis;
+
+    /**
+     * @return the milliseconds since the epoch
+     */
+    public long getValue() {
+        return millis;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param millis The value of this field, in milliseconds since the epoch.
+     */
+    public DateField(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * Parse a date (<tt>yyyy-MM-dd</tt>) or a timestamp
+     * (<tt>yyyy-MM-dd HH:mm:ss</tt>), both in UTC.
+     *
+     * @throws IllegalArgumentException if s is in neither format
+     */
+    public static DateField parse(String s) {
+        s = s.trim();
+        try {
+            if (s.length() <= 10) {
+                return new DateField(LocalDate.parse(s).toEpochDay() * MILLIS_PER_DAY);
+            }
+            LocalDateTime ts = LocalDateTime.parse(s, TIMESTAMP_FORMAT);
+            return new DateField(ts.toInstant(ZoneOffset.UTC).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid date " + s);
+        }
+    }
+
+    public String toString() {
+        if (millis % MILLIS_PER_DAY == 0) {
+            return LocalDate.ofEpochDay(millis / MILLIS_PER_DAY).toString();
+        }
+        LocalDateTime ts = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+        return ts.format(TIMESTAMP_FORMAT);
+    }
+
+    public int hashCode() {
+        return (int) (millis ^ (millis >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return ((DateField) field).millis == millis;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(millis);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DateField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DateField dVal = (DateField) val;
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return millis == dVal.millis;
+        case NOT_EQUALS:
+            return millis != dVal.millis;
+        case GREATER_THAN:
+            return millis > dVal.millis;
+        case GREATER_THAN_OR_EQ:
+            return millis >= dVal.millis;
+        case LESS_THAN:
+            return millis < dVal.millis;
+        case LESS_THAN_OR_EQ:
+            return millis <= dVal.millis;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
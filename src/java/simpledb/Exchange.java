@@ -0,0 +1,316 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange connects plans running on several threads. Each producer
+ * iterator runs on a thread of its own, and every tuple it returns is
+ * routed to one or more of the exchange's outputs; each output is a
+ * DbIterator, meant to be read by its own consumer thread. Tuples move in
+ * batches through one bounded {@link ExchangeQueue} per output, so
+ * producers only get ahead of a slow consumer by a few batches.
+ * <p>
+ * The producers start when the first output is opened and stop when every
+ * output is closed. An output that is closed early discards its tuples from
+ * then on, but an output that is never opened holds the producers back once
+ * its queue is full, so every output has to be read.
+ *
+ * @see Gather
+ * @see Repartition
+ * @see Broadcast
+ */
+public abstract class Exchange {
+
+    /** Number of tuples handed to an output at a time. */
+    static final int BATCH_SIZE = 1024;
+    // put on every queue once the producers are done
+    private static final ArrayList<Tuple> END = new ArrayList<Tuple>();
+
+    private final DbIterator[] producers;
+    private final Output[] outputs;
+    private final TupleDesc td;
+
+    // state of running producers
+    private ExchangeQueue<ArrayList<Tuple>>[] queues;
+    private AtomicIntegerArray discarded;
+    private AtomicInteger running;
+    private AtomicReference<Throwable> failure;
+    private volatile boolean closed;
+    private Thread[] threads;
+    private int num_closed;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the iterators run on the producer threads; they all have
+     *            the same TupleDesc
+     * @param numOutputs
+     *            the number of outputs tuples are routed to
+     */
+    Exchange(DbIterator[] producers, int numOutputs) {
+        if (producers.length == 0) {
+            throw new IllegalArgumentException("an exchange needs a producer");
+        }
+        if (numOutputs < 1) {
+            throw new IllegalArgumentException("an exchange needs an output");
+        }
+        this.td = producers[0].getTupleDesc();
+        for (DbIterator producer : producers) {
+            if (!producer.getTupleDesc().equals(this.td)) {
+                throw new IllegalArgumentException("producers return tuples of different types");
+            }
+        }
+        this.producers = producers.clone();
+        this.outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            this.outputs[i] = new Output(i);
+        }
+    }
+
+    /**
+     * Add a tuple returned by a producer to the batches of the outputs it
+     * goes to.
+     *
+     * @param t
+     *            the tuple
+     * @param batches
+     *            the batch being filled for each output
+     */
+    abstract void route(Tuple t, ArrayList<Tuple>[] batches);
+
+    /** @return the number of producers */
+    public int numProducers() {
+        return this.producers.length;
+    }
+
+    /** @return the number of outputs */
+    public int numOutputs() {
+        return this.outputs.length;
+    }
+
+    /**
+     * @return output i, the iterator over the tuples routed to it
+     */
+    public DbIterator output(int i) {
+        return this.outputs[i];
+    }
+
+    /** @return the TupleDesc of the producers, and of every output */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // start the producers, unless they are running
+    @SuppressWarnings("unchecked")
+    private synchronized void start() {
+        if (this.threads != null) {
+            return;
+        }
+        final ExchangeQueue<ArrayList<Tuple>>[] queues = new ExchangeQueue[this.outputs.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ExchangeQueue<ArrayList<Tuple>>(2 * this.producers.length);
+        }
+        this.queues = queues;
+        this.discarded = new AtomicIntegerArray(this.outputs.length);
+        this.running = new AtomicInteger(this.producers.length);
+        this.failure = new AtomicReference<Throwable>();
+        this.closed = false;
+        this.num_closed = 0;
+        this.threads = new Thread[this.producers.length];
+        for (int p = 0; p < this.producers.length; p++) {
+            final DbIterator producer = this.producers[p];
+            this.threads[p] = new Thread(new Runnable() {
+                public void run() {
+                    produce(producer, queues);
+                }
+            }, "simpledb-exchange-" + p);
+            this.threads[p].setDaemon(true);
+            this.threads[p].start();
+        }
+    }
+
+    // stop the producers and wait for them to finish
+    private synchronized void stop() {
+        this.closed = true;
+        if (this.threads != null) {
+            for (Thread thread : this.threads) {
+                thread.interrupt();
+            }
+            for (Thread thread : this.threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            this.threads = null;
+        }
+        this.queues = null;
+    }
+
+    // the consumer of output i closed it
+    private synchronized void release(int i) {
+        if (this.discarded == null || this.discarded.getAndSet(i, 1) != 0) {
+            return;
+        }
+        // producers waiting for room in its queue stop waiting
+        if (this.queues != null) {
+            this.queues[i].discard();
+        }
+        if (++this.num_closed == this.outputs.length) {
+            stop();
+        }
+    }
+
+    // run one producer, routing its tuples to the outputs
+    @SuppressWarnings("unchecked")
+    private void produce(DbIterator producer, ExchangeQueue<ArrayList<Tuple>>[] queues) {
+        try {
+            producer.open();
+            ArrayList<Tuple>[] batches = new ArrayList[queues.length];
+            for (int i = 0; i < batches.length; i++) {
+                batches[i] = new ArrayList<Tuple>(BATCH_SIZE);
+            }
+            while (!this.closed && producer.hasNext()) {
+                route(producer.next(), batches);
+                for (int i = 0; i < batches.length; i++) {
+                    if (batches[i].size() >= BATCH_SIZE) {
+                        hand(queues, i, batches[i]);
+                        batches[i] = new ArrayList<Tuple>(BATCH_SIZE);
+                    }
+                }
+            }
+            for (int i = 0; i < batches.length; i++) {
+                if (!batches[i].isEmpty()) {
+                    hand(queues, i, batches[i]);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped by the consumers
+        } catch (Throwable e) {
+            this.failure.compareAndSet(null, e);
+        } finally {
+            producer.close();
+            if (this.running.decrementAndGet() == 0) {
+                try {
+                    for (int i = 0; i < queues.length; i++) {
+                        hand(queues, i, END);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped by the consumers
+                }
+            }
+        }
+    }
+
+    // put a batch on the queue of output i, unless nobody will read it
+    private void hand(ExchangeQueue<ArrayList<Tuple>>[] queues, int i, ArrayList<Tuple> batch)
+            throws InterruptedException {
+        int attempt = 0;
+        while (!queues[i].offer(batch)) {
+            if (this.closed || this.discarded.get(i) != 0) {
+                return;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            queues[i].awaitSpace(attempt++);
+        }
+    }
+
+    /**
+     * The tuples routed to one output, in the order its queue receives
+     * them.
+     */
+    private class Output implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private transient ExchangeQueue<ArrayList<Tuple>> queue;
+        private transient AtomicReference<Throwable> failure;
+        private transient ArrayList<Tuple> batch;
+        private int batch_index;
+
+        Output(int index) {
+            this.index = index;
+        }
+
+        public void open() {
+            synchronized (Exchange.this) {
+                start();
+                if (discarded.get(this.index) != 0) {
+                    throw new IllegalStateException("exchange output reopened before the others were closed");
+                }
+                this.queue = queues[this.index];
+                this.failure = Exchange.this.failure;
+            }
+            this.batch = null;
+            this.batch_index = 0;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (this.queue == null)
+                throw new IllegalStateException("exchange output not open");
+            int attempt = 0;
+            while (this.batch == null || this.batch_index == this.batch.size()) {
+                if (this.batch == END) {
+                    return false;
+                }
+                ArrayList<Tuple> b = this.queue.poll();
+                if (b == null) {
+                    if (Thread.interrupted()) {
+                        throw new DbException("interrupted while reading an exchange");
+                    }
+                    this.queue.awaitElement(attempt++);
+                    continue;
+                }
+                attempt = 0;
+                this.batch = b;
+                this.batch_index = 0;
+                if (b == END && this.failure.get() != null) {
+                    Throwable e = this.failure.get();
+                    if (e instanceof TransactionAbortedException)
+                        throw (TransactionAbortedException) e;
+                    throw new DbException("exchange producer failed: " + e);
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return this.batch.get(this.batch_index++);
+        }
+
+        /**
+         * Restart the producers. Only an exchange with a single output can
+         * be rewound, since the others are still read by their consumers.
+         */
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (outputs.length > 1) {
+                throw new DbException("an exchange with several outputs can't be rewound");
+            }
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /**
+         * Closing an output that was never opened tells the producers that
+         * nobody will read it.
+         */
+        public void close() {
+            release(this.index);
+            this.queue = null;
+            this.batch = null;
+        }
+    }
+}
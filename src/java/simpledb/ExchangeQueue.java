@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ExchangeQueue is a bounded, lock-free queue for any number of producer
+ * and consumer threads. It is an array of slots, each with a sequence
+ * number that says whether the slot is ready to be written or read in the
+ * current lap, so offer() and poll() each take a single compare-and-set in
+ * the common case. Neither blocks: offer() fails when the queue is full and
+ * poll() when it is empty, and callers wait with {@link #awaitSpace} and
+ * {@link #awaitElement}, which spin for a while and then park the thread
+ * until the other side unparks it.
+ */
+class ExchangeQueue<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    // parked threads, unparked by a successful poll() or offer()
+    private final ConcurrentLinkedQueue<Thread> waiting_producers = new ConcurrentLinkedQueue<Thread>();
+    private final ConcurrentLinkedQueue<Thread> waiting_consumers = new ConcurrentLinkedQueue<Thread>();
+    // set once nobody reads the queue any more
+    private volatile boolean discarded;
+
+    /**
+     * Create an empty queue.
+     *
+     * @param capacity
+     *            the least number of elements the queue holds; rounded up
+     *            to a power of two
+     */
+    ExchangeQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<T>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element at the tail of the queue.
+     *
+     * @return false if the queue is full
+     */
+    boolean offer(T item) {
+        while (true) {
+            long pos = this.tail.get();
+            int slot = (int) (pos & this.mask);
+            long dif = this.sequences.get(slot) - pos;
+            if (dif == 0) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.items.set(slot, item);
+                    // publish the slot to consumers
+                    this.sequences.set(slot, pos + 1);
+                    wake(this.waiting_consumers);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the element at the head of the queue.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    T poll() {
+        while (true) {
+            long pos = this.head.get();
+            int slot = (int) (pos & this.mask);
+            long dif = this.sequences.get(slot) - (pos + 1);
+            if (dif == 0) {
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    T item = this.items.get(slot);
+                    this.items.set(slot, null);
+                    // free the slot for the producers of the next lap
+                    this.sequences.set(slot, pos + this.mask + 1);
+                    wake(this.waiting_producers);
+                    return item;
+                }
+            } else if (dif < 0) {
+                return null;
+            }
+        }
+    }
+
+    private boolean isFull() {
+        long pos = this.tail.get();
+        return this.sequences.get((int) (pos & this.mask)) - pos < 0;
+    }
+
+    private boolean isEmpty() {
+        long pos = this.head.get();
+        return this.sequences.get((int) (pos & this.mask)) - (pos + 1) < 0;
+    }
+
+    /**
+     * Wait before retrying a failed offer(): spin at first, then yield,
+     * then park until an element is polled, the queue is discarded or the
+     * thread is interrupted. May return early; callers retry in a loop.
+     *
+     * @param attempt
+     *            the number of failed attempts so far
+     */
+    void awaitSpace(int attempt) {
+        if (spin(attempt)) {
+            return;
+        }
+        Thread me = Thread.currentThread();
+        this.waiting_producers.add(me);
+        // a poll() or discard() after this check sees this thread and
+        // unparks it
+        if (isFull() && !this.discarded) {
+            LockSupport.park(this);
+        }
+        this.waiting_producers.remove(me);
+    }
+
+    /**
+     * Wait before retrying a failed poll(): spin at first, then yield, then
+     * park until an element is offered, wake() is called or the thread is
+     * interrupted. May return early; callers retry in a loop.
+     *
+     * @param attempt
+     *            the number of failed attempts so far
+     */
+    void awaitElement(int attempt) {
+        if (spin(attempt)) {
+            return;
+        }
+        Thread me = Thread.currentThread();
+        this.waiting_consumers.add(me);
+        // an offer() after this check sees this thread and unparks it
+        if (isEmpty()) {
+            LockSupport.park(this);
+        }
+        this.waiting_consumers.remove(me);
+    }
+
+    /**
+     * Tell producers that nobody will read the queue: those waiting for
+     * room return, and awaitSpace() no longer parks.
+     */
+    void discard() {
+        this.discarded = true;
+        wake(this.waiting_producers);
+    }
+
+    private static void wake(ConcurrentLinkedQueue<Thread> waiting) {
+        if (waiting.isEmpty()) {
+            return;
+        }
+        for (Thread t : waiting) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    // spin, then yield, for the first attempts; false once the thread
+    // should park
+    private static boolean spin(int attempt) {
+        if (attempt < 64) {
+            return true;
+        }
+        if (attempt < 128) {
+            Thread.yield();
+            return true;
+        }
+        return false;
+    }
+}
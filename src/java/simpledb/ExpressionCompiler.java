@@ -0,0 +1,421 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+import javassist.bytecode.*;
+
+/**
+ * ExpressionCompiler turns the per-tuple work of {@link Filter} and
+ * {@link Project} into generated classes at plan time, using javassist's
+ * bytecode API. Class files are assembled directly rather than with the
+ * javassist source compiler, so referenced classes never have to be parsed.
+ * <p>
+ * A conjunction of predicates becomes one <tt>filter(Tuple)</tt> method with
+ * a straight-line test per predicate. Comparisons of INT, LONG, DOUBLE and
+ * DATE columns against a constant are emitted as primitive comparisons
+ * against a constant held in a final field; any other predicate calls
+ * {@link Predicate#filter}. A projection becomes one <tt>project()</tt>
+ * method with a setField call per output field.
+ * <p>
+ * Generated classes depend only on the shape of the expression (field
+ * numbers, operators and operand types), not on the constants, so they are
+ * cached by shape and reused across queries.
+ * <p>
+ * If code generation is turned off with <tt>-Dsimpledb.codegen=false</tt>, or
+ * fails for any reason, an interpreted implementation is returned instead.
+ *
+ * @Threadsafe
+ */
+public class ExpressionCompiler {
+
+    /**
+     * A compiled conjunction of predicates. Implementations must be public
+     * types, generated classes live in their own class loader.
+     */
+    public interface TupleFilter {
+        /** @return true if t satisfies every predicate */
+        boolean filter(Tuple t);
+    }
+
+    /**
+     * A compiled projection.
+     */
+    public interface TupleProjector {
+        /** Copy the projected fields of in into out. */
+        void project(Tuple in, Tuple out);
+    }
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("simpledb.codegen"));
+
+    // shape -> constructor of the generated class, or null if generation failed
+    private static final HashMap<String, Constructor<?>> cache = new HashMap<String, Constructor<?>>();
+    private static GeneratedClassLoader loader;
+    private static int classCount = 0;
+    private static int nameCount = 0;
+
+    /**
+     * Compile a conjunction of predicates.
+     *
+     * @param preds the predicates, all of which must hold
+     * @return a filter that tests all of preds
+     */
+    public static TupleFilter compileFilter(Predicate[] preds) {
+        String shape = filterShape(preds);
+        Constructor<?> c = generate(shape, preds);
+        if (c != null) {
+            try {
+                return (TupleFilter) c.newInstance((Object) preds.clone());
+            } catch (Exception e) {
+                Debug.log("couldn't instantiate filter %s: %s", shape, e);
+            }
+        }
+        return new InterpretedFilter(preds.clone());
+    }
+
+    /**
+     * Compile a projection.
+     *
+     * @param fields the field of the input tuple for each output field
+     * @return a projector that copies the given fields
+     */
+    public static TupleProjector compileProjection(int[] fields) {
+        String shape = projectionShape(fields);
+        Constructor<?> c = generate(shape, fields);
+        if (c != null) {
+            try {
+                return (TupleProjector) c.newInstance();
+            } catch (Exception e) {
+                Debug.log("couldn't instantiate projection %s: %s", shape, e);
+            }
+        }
+        return new InterpretedProjector(fields.clone());
+    }
+
+    /**
+     * @return the number of classes generated so far
+     */
+    public static synchronized int numGeneratedClasses() {
+        return classCount;
+    }
+
+    private static synchronized Constructor<?> generate(String shape, Object expr) {
+        if (!ENABLED) {
+            return null;
+        }
+        if (cache.containsKey(shape)) {
+            return cache.get(shape);
+        }
+        Constructor<?> c = null;
+        try {
+            if (loader == null) {
+                loader = new GeneratedClassLoader(ExpressionCompiler.class.getClassLoader());
+            }
+            if (expr instanceof Predicate[]) {
+                Class<?> cls = define(filterClass((Predicate[]) expr));
+                c = cls.getConstructor(Predicate[].class);
+            } else {
+                Class<?> cls = define(projectionClass((int[]) expr));
+                c = cls.getConstructor();
+            }
+        } catch (Exception e) {
+            Debug.log("code generation failed for %s, interpreting: %s", shape, e);
+        } catch (LinkageError e) {
+            Debug.log("code generation failed for %s, interpreting: %s", shape, e);
+        }
+        cache.put(shape, c);
+        return c;
+    }
+
+    private static Class<?> define(ClassFile cf) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        cf.write(dos);
+        dos.flush();
+        classCount++;
+        return loader.define(cf.getName(), baos.toByteArray());
+    }
+
+    // how a predicate's operand is compared: i(nt), l(ong), d(ouble),
+    // t (date, as a long) or g(eneric, through Predicate.filter)
+    private static char kind(Predicate p) {
+        Field f = p.getOperand();
+        if (f instanceof IntField) return 'i';
+        if (f instanceof LongField) return 'l';
+        if (f instanceof DoubleField) return 'd';
+        if (f instanceof DateField) return 't';
+        return 'g';
+    }
+
+    private static String filterShape(Predicate[] preds) {
+        StringBuilder sb = new StringBuilder("F");
+        for (Predicate p : preds) {
+            char k = kind(p);
+            sb.append(';').append(p.getField()).append(k);
+            if (k != 'g') {
+                sb.append(p.getOp());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String projectionShape(int[] fields) {
+        StringBuilder sb = new StringBuilder("P");
+        for (int f : fields) {
+            sb.append(';').append(f);
+        }
+        return sb.toString();
+    }
+
+    private static ClassFile newClass(String prefix, Class<?> iface) {
+        ClassFile cf = new ClassFile(false, "simpledb.generated." + prefix + (nameCount++), "java.lang.Object");
+        // version 49 class files don't need stack map frames
+        cf.setMajorVersion(ClassFile.JAVA_5);
+        cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.FINAL);
+        cf.setInterfaces(new String[]{iface.getName()});
+        return cf;
+    }
+
+    private static void addMethod(ClassFile cf, String name, String desc, Bytecode code) throws DuplicateMemberException {
+        MethodInfo mi = new MethodInfo(cf.getConstPool(), name, desc);
+        mi.setAccessFlags(AccessFlag.PUBLIC);
+        mi.setCodeAttribute(code.toCodeAttribute());
+        cf.addMethod(mi);
+    }
+
+    // the field class, getValue() descriptor and field descriptor of a
+    // constant of the given kind
+    private static String valueClass(char k) {
+        return k == 'i' ? "simpledb.IntField" : k == 'l' ? "simpledb.LongField"
+                : k == 'd' ? "simpledb.DoubleField" : "simpledb.DateField";
+    }
+
+    private static String valueDesc(char k) {
+        return k == 'i' ? "I" : k == 'd' ? "D" : "J";
+    }
+
+    /*
+     * Generates
+     *
+     *   public FilterN(Predicate[] p) {
+     *       this.preds = p;
+     *       this.c0 = ((IntField) p[0].getOperand()).getValue();  // per constant
+     *   }
+     *   public boolean filter(Tuple t) {
+     *       if (!(((IntField) t.getField(f0)).getValue() > this.c0)) return false;
+     *       if (!this.preds[1].filter(t)) return false;             // generic
+     *       return true;
+     *   }
+     */
+    private static ClassFile filterClass(Predicate[] preds) throws DuplicateMemberException {
+        ClassFile cf = newClass("Filter", TupleFilter.class);
+        ConstPool cp = cf.getConstPool();
+        String name = cf.getName();
+        String predsDesc = "[Lsimpledb/Predicate;";
+        addField(cf, "preds", predsDesc);
+
+        Bytecode init = new Bytecode(cp, 4, 2);
+        init.addAload(0);
+        init.addInvokespecial("java.lang.Object", MethodInfo.nameInit, "()V");
+        init.addAload(0);
+        init.addAload(1);
+        init.addPutfield(name, "preds", predsDesc);
+
+        Bytecode body = new Bytecode(cp, 6, 2);
+        ArrayList<Integer> toFalse = new ArrayList<Integer>();
+        for (int i = 0; i < preds.length; i++) {
+            char k = kind(preds[i]);
+            if (k == 'g') {
+                body.addAload(0);
+                body.addGetfield(name, "preds", predsDesc);
+                body.addIconst(i);
+                body.addOpcode(Opcode.AALOAD);
+                body.addAload(1);
+                body.addInvokevirtual("simpledb.Predicate", "filter", "(Lsimpledb/Tuple;)Z");
+                toFalse.add(branch(body, Opcode.IFEQ));
+                continue;
+            }
+            String cls = valueClass(k);
+            String desc = valueDesc(k);
+            addField(cf, "c" + i, desc);
+
+            init.addAload(0);
+            init.addAload(1);
+            init.addIconst(i);
+            init.addOpcode(Opcode.AALOAD);
+            init.addInvokevirtual("simpledb.Predicate", "getOperand", "()Lsimpledb/Field;");
+            init.addCheckcast(cls);
+            init.addInvokevirtual(cls, "getValue", "()" + desc);
+            init.addPutfield(name, "c" + i, desc);
+
+            body.addAload(1);
+            body.addIconst(preds[i].getField());
+            body.addInvokevirtual("simpledb.Tuple", "getField", "(I)Lsimpledb/Field;");
+            body.addCheckcast(cls);
+            body.addInvokevirtual(cls, "getValue", "()" + desc);
+            body.addAload(0);
+            body.addGetfield(name, "c" + i, desc);
+            toFalse.add(compare(body, k, preds[i].getOp()));
+        }
+        init.addOpcode(Opcode.RETURN);
+        addMethod(cf, MethodInfo.nameInit, "(" + predsDesc + ")V", init);
+
+        body.addIconst(1);
+        body.addOpcode(Opcode.IRETURN);
+        int falsePc = body.currentPc();
+        body.addIconst(0);
+        body.addOpcode(Opcode.IRETURN);
+        for (int pc : toFalse) {
+            body.write16bit(pc + 1, falsePc - pc);
+        }
+        addMethod(cf, "filter", "(Lsimpledb/Tuple;)Z", body);
+        return cf;
+    }
+
+    private static void addField(ClassFile cf, String name, String desc) throws DuplicateMemberException {
+        FieldInfo fi = new FieldInfo(cf.getConstPool(), name, desc);
+        fi.setAccessFlags(AccessFlag.PRIVATE | AccessFlag.FINAL);
+        cf.addField(fi);
+    }
+
+    // emit a branch with a placeholder offset, returning its pc
+    private static int branch(Bytecode code, int opcode) {
+        int pc = code.currentPc();
+        code.addOpcode(opcode);
+        code.addIndex(0);
+        return pc;
+    }
+
+    /*
+     * Emit the comparison of the two values on the stack, branching to
+     * "return false" when it does not hold. Doubles are compared the way
+     * javac does it, so that any comparison with NaN other than != fails.
+     */
+    private static int compare(Bytecode code, char k, Predicate.Op op) {
+        if (k == 'i') {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return branch(code, Opcode.IF_ICMPNE);
+            case NOT_EQUALS:
+                return branch(code, Opcode.IF_ICMPEQ);
+            case GREATER_THAN:
+                return branch(code, Opcode.IF_ICMPLE);
+            case GREATER_THAN_OR_EQ:
+                return branch(code, Opcode.IF_ICMPLT);
+            case LESS_THAN:
+                return branch(code, Opcode.IF_ICMPGE);
+            case LESS_THAN_OR_EQ:
+                return branch(code, Opcode.IF_ICMPGT);
+            }
+        } else {
+            if (k == 'd') {
+                boolean less = op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+                code.addOpcode(less ? Opcode.DCMPG : Opcode.DCMPL);
+            } else {
+                code.addOpcode(Opcode.LCMP);
+            }
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return branch(code, Opcode.IFNE);
+            case NOT_EQUALS:
+                return branch(code, Opcode.IFEQ);
+            case GREATER_THAN:
+                return branch(code, Opcode.IFLE);
+            case GREATER_THAN_OR_EQ:
+                return branch(code, Opcode.IFLT);
+            case LESS_THAN:
+                return branch(code, Opcode.IFGE);
+            case LESS_THAN_OR_EQ:
+                return branch(code, Opcode.IFGT);
+            }
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /*
+     * Generates
+     *
+     *   public void project(Tuple in, Tuple out) {
+     *       out.setField(0, in.getField(f0));
+     *       ...
+     *   }
+     */
+    private static ClassFile projectionClass(int[] fields) throws DuplicateMemberException {
+        ClassFile cf = newClass("Projector", TupleProjector.class);
+        ConstPool cp = cf.getConstPool();
+
+        Bytecode init = new Bytecode(cp, 1, 1);
+        init.addAload(0);
+        init.addInvokespecial("java.lang.Object", MethodInfo.nameInit, "()V");
+        init.addOpcode(Opcode.RETURN);
+        addMethod(cf, MethodInfo.nameInit, "()V", init);
+
+        Bytecode body = new Bytecode(cp, 4, 3);
+        for (int i = 0; i < fields.length; i++) {
+            body.addAload(2);
+            body.addIconst(i);
+            body.addAload(1);
+            body.addIconst(fields[i]);
+            body.addInvokevirtual("simpledb.Tuple", "getField", "(I)Lsimpledb/Field;");
+            body.addInvokevirtual("simpledb.Tuple", "setField", "(ILsimpledb/Field;)V");
+        }
+        body.addOpcode(Opcode.RETURN);
+        addMethod(cf, "project", "(Lsimpledb/Tuple;Lsimpledb/Tuple;)V", body);
+        return cf;
+    }
+
+    /**
+     * Loads generated classes. Classes are defined directly from their
+     * bytecode, which works on every JVM without reflective access to
+     * ClassLoader internals.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+
+    /**
+     * Fallback used when code generation is off or fails.
+     */
+    private static class InterpretedFilter implements TupleFilter {
+        private final Predicate[] preds;
+
+        InterpretedFilter(Predicate[] preds) {
+            this.preds = preds;
+        }
+
+        public boolean filter(Tuple t) {
+            for (Predicate p : this.preds) {
+                if (!p.filter(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Fallback used when code generation is off or fails.
+     */
+    private static class InterpretedProjector implements TupleProjector {
+        private final int[] fields;
+
+        InterpretedProjector(int[] fields) {
+            this.fields = fields;
+        }
+
+        public void project(Tuple in, Tuple out) {
+            for (int i = 0; i < this.fields.length; i++) {
+                out.setField(i, in.getField(this.fields[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child ordered by a comparator,
+ * using a bounded amount of memory.
+ * <p>
+ * The child is read into memory until the buffered tuples exceed the memory
+ * budget; the buffer is then sorted and written to a {@link SpillFile} as a
+ * sorted run. If the whole input fits in the budget it is sorted in memory
+ * and nothing is written. Otherwise the runs are merged with a heap, at most
+ * {@link #MAX_FAN_IN} at a time: when there are more runs than that, groups
+ * of them are first merged into longer runs. The sort is stable.
+ * <p>
+ * Each buffer is sorted with {@link ParallelSort}, so with several
+ * processors the in-memory sort and run generation use all of them.
+ * <p>
+ * It is used by OrderBy and the sort-merge join, and can sort the input of
+ * any operator that needs its tuples in order.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of runs merged at once. */
+    static final int MAX_FAN_IN = 64;
+
+    private DbIterator child;
+    private final Comparator<Tuple> comparator;
+    private final long memoryBudget;
+    private final int parallelism;
+
+    // the sorted input when it fits in memory
+    private transient ArrayList<Tuple> inMemory;
+    private transient Iterator<Tuple> it;
+    // otherwise the sorted runs and their merge
+    private transient ArrayList<SpillFile> runs;
+    private transient Merger merger;
+    private int numRunsWritten;
+
+    /**
+     * Constructor. Sorts with the default memory budget.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param comparator
+     *            the order of the output
+     */
+    public ExternalSort(DbIterator child, Comparator<Tuple> comparator) {
+        this(child, comparator, SpillFile.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param comparator
+     *            the order of the output
+     * @param memoryBudget
+     *            bytes of tuples buffered in memory before a sorted run is
+     *            written to disk
+     */
+    public ExternalSort(DbIterator child, Comparator<Tuple> comparator, long memoryBudget) {
+        this(child, comparator, memoryBudget, ParallelSort.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to sort
+     * @param comparator
+     *            the order of the output
+     * @param memoryBudget
+     *            bytes of tuples buffered in memory before a sorted run is
+     *            written to disk
+     * @param parallelism
+     *            the number of threads that sort each buffer
+     */
+    public ExternalSort(DbIterator child, Comparator<Tuple> comparator, long memoryBudget, int parallelism) {
+        this.child = child;
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.parallelism = parallelism;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    /**
+     * @return the number of sorted runs written to disk by the last sort,
+     *         including the runs produced by intermediate merges; 0 if the
+     *         input was sorted in memory
+     */
+    public int numRuns() {
+        return this.numRunsWritten;
+    }
+
+    /**
+     * @return the number of bytes of tuples sorted in memory at a time
+     */
+    public long memoryBudget() {
+        return this.memoryBudget;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        sortOpenChild();
+    }
+
+    /**
+     * Open the sorted output of a child that is already open, read from its
+     * current position; with {@link #release()}, used by operators that
+     * sort an input they keep using.
+     */
+    void sortOpenChild() throws DbException, TransactionAbortedException {
+        super.open();
+        sort();
+    }
+
+    private void sort() throws DbException, TransactionAbortedException {
+        deleteRuns();
+        this.numRunsWritten = 0;
+        TupleDesc td = this.child.getTupleDesc();
+        long tupleBytes = SpillFile.tupleBytes(td);
+
+        ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+        long used = 0;
+        try {
+            while (this.child.hasNext()) {
+                buffer.add(this.child.next());
+                used += tupleBytes;
+                if (used > this.memoryBudget) {
+                    writeRun(buffer, td);
+                    buffer.clear();
+                    used = 0;
+                }
+            }
+            if (this.runs == null) {
+                sortBuffer(buffer);
+                this.inMemory = buffer;
+                this.it = buffer.iterator();
+                return;
+            }
+            if (!buffer.isEmpty()) {
+                writeRun(buffer, td);
+            }
+            buffer = null;
+
+            // merge until the remaining runs can be merged at once
+            while (this.runs.size() > MAX_FAN_IN) {
+                ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < this.runs.size(); i += MAX_FAN_IN) {
+                    List<SpillFile> group = this.runs.subList(i, Math.min(i + MAX_FAN_IN, this.runs.size()));
+                    SpillFile out = new SpillFile(td);
+                    Merger m = new Merger(group);
+                    Tuple t;
+                    while ((t = m.next()) != null) {
+                        out.add(t);
+                    }
+                    m.close();
+                    for (SpillFile f : group) {
+                        f.delete();
+                    }
+                    merged.add(out);
+                    this.numRunsWritten++;
+                }
+                this.runs = merged;
+            }
+            this.merger = new Merger(this.runs);
+        } catch (IOException e) {
+            throw new DbException("couldn't write sorted run: " + e.getMessage());
+        }
+    }
+
+    // sort the buffer stably; with a TupleComparator, an array of key
+    // prefixes and tuple pointers is sorted, comparing the prefixes first and
+    // the tuples only when they are equal
+    private void sortBuffer(ArrayList<Tuple> buffer) {
+        if (!(this.comparator instanceof TupleComparator)) {
+            Tuple[] tuples = buffer.toArray(new Tuple[buffer.size()]);
+            ParallelSort.sort(tuples, this.comparator, this.parallelism);
+            for (int i = 0; i < tuples.length; i++) {
+                buffer.set(i, tuples[i]);
+            }
+            return;
+        }
+        final TupleComparator cmp = (TupleComparator) this.comparator;
+        Keyed[] keyed = new Keyed[buffer.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            Tuple t = buffer.get(i);
+            keyed[i] = new Keyed(cmp.prefix(t), t);
+        }
+        ParallelSort.sort(keyed, new Comparator<Keyed>() {
+            public int compare(Keyed k1, Keyed k2) {
+                int c = Long.compare(k1.prefix, k2.prefix);
+                return c != 0 ? c : cmp.compare(k1.t, k2.t);
+            }
+        }, this.parallelism);
+        for (int i = 0; i < keyed.length; i++) {
+            buffer.set(i, keyed[i].t);
+        }
+    }
+
+    private static class Keyed {
+        final long prefix;
+        final Tuple t;
+
+        Keyed(long prefix, Tuple t) {
+            this.prefix = prefix;
+            this.t = t;
+        }
+    }
+
+    private void writeRun(ArrayList<Tuple> buffer, TupleDesc td) throws IOException {
+        sortBuffer(buffer);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        if (this.runs == null) {
+            this.runs = new ArrayList<SpillFile>();
+        }
+        this.runs.add(run);
+        this.numRunsWritten++;
+    }
+
+    /**
+     * Merges sorted runs by keeping the head of every run in a heap. Ties are
+     * broken by run number, which keeps the merge stable.
+     */
+    private class Merger {
+        private final ArrayList<DbIterator> inputs = new ArrayList<DbIterator>();
+        private final PriorityQueue<Head> heap;
+
+        Merger(List<SpillFile> files) throws IOException, DbException, TransactionAbortedException {
+            this.heap = new PriorityQueue<Head>(Math.max(1, files.size()), new Comparator<Head>() {
+                public int compare(Head h1, Head h2) {
+                    int c = comparator.compare(h1.t, h2.t);
+                    return c != 0 ? c : h1.run - h2.run;
+                }
+            });
+            for (SpillFile f : files) {
+                DbIterator in = f.iterator();
+                in.open();
+                this.inputs.add(in);
+            }
+            for (int i = 0; i < this.inputs.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(int run) throws DbException, TransactionAbortedException {
+            DbIterator in = this.inputs.get(run);
+            if (in.hasNext()) {
+                this.heap.add(new Head(in.next(), run));
+            }
+        }
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head h = this.heap.poll();
+            if (h == null) {
+                return null;
+            }
+            advance(h.run);
+            return h.t;
+        }
+
+        void close() {
+            for (DbIterator in : this.inputs) {
+                in.close();
+            }
+        }
+    }
+
+    private static class Head {
+        final Tuple t;
+        final int run;
+
+        Head(Tuple t, int run) {
+            this.t = t;
+            this.run = run;
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (this.it != null) {
+            return this.it.hasNext() ? this.it.next() : null;
+        }
+        if (this.merger != null) {
+            return this.merger.next();
+        }
+        return null;
+    }
+
+    private void deleteRuns() {
+        if (this.merger != null) {
+            this.merger.close();
+            this.merger = null;
+        }
+        if (this.runs != null) {
+            for (SpillFile f : this.runs) {
+                f.delete();
+            }
+            this.runs = null;
+        }
+        this.inMemory = null;
+        this.it = null;
+    }
+
+    public void close() {
+        release();
+        this.child.close();
+    }
+
+    /**
+     * Close the sorted output and remove its runs, but leave the child
+     * open; used by operators that sort an input they keep using.
+     */
+    void release() {
+        super.close();
+        deleteRuns();
+    }
+
+    /**
+     * Restart the sorted output; the child is not read again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (this.inMemory != null) {
+            this.it = this.inMemory.iterator();
+        } else if (this.runs != null) {
+            this.merger.close();
+            try {
+                this.merger = new Merger(this.runs);
+            } catch (IOException e) {
+                throw new DbException("couldn't read sorted run: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -8,8 +8,10 @@ import java.util.*;
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
-    private Predicate p;
+    private Predicate[] preds;
     private DbIterator child;
+    // the conjunction of preds, compiled by ExpressionCompiler
+    private transient ExpressionCompiler.TupleFilter filter;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -22,13 +24,42 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, DbIterator child) {
         // some code goes here
-        this.p = p;
+        this(new Predicate[]{p}, child);
+    }
+
+    /**
+     * Constructor accepts a conjunction of predicates to apply and a child
+     * operator to read tuples to filter from. The conjunction is compiled
+     * once, here, into a single test per tuple.
+     *
+     * @param preds
+     *            The predicates that tuples must all satisfy
+     * @param child
+     *            The child operator
+     * @see ExpressionCompiler#compileFilter
+     */
+    public Filter(Predicate[] preds, DbIterator child) {
+        if (preds.length == 0) {
+            throw new IllegalArgumentException("a filter needs at least one predicate");
+        }
+        this.preds = preds;
         this.child = child;
+        this.filter = ExpressionCompiler.compileFilter(preds);
     }
 
+    /**
+     * @return the first predicate of this filter
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return this.p;
+        return this.preds[0];
+    }
+
+    /**
+     * @return all predicates of this filter
+     */
+    public Predicate[] getPredicates() {
+        return this.preds;
     }
 
     public TupleDesc getTupleDesc() {
@@ -39,6 +70,10 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        if (this.filter == null) {
+            // deserialized, compile again
+            this.filter = ExpressionCompiler.compileFilter(this.preds);
+        }
         this.child.open();
         super.open();
     }
@@ -70,7 +105,7 @@ public class Filter extends Operator {
         // some code goes here
         while (this.child.hasNext()) {
             Tuple t = this.child.next();
-            if (this.p.filter(t)) {
+            if (this.filter.filter(t)) {
                 return t;
             }
         }
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Gather is an exchange that merges the tuples of several producers, each
+ * run on its own thread, into a single iterator. The tuples of a producer
+ * keep their order, but those of different producers are interleaved as
+ * they arrive.
+ */
+public class Gather extends Exchange implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator out;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the iterators to run in parallel; they all have the same
+     *            TupleDesc
+     */
+    public Gather(DbIterator[] producers) {
+        super(producers, 1);
+        this.out = output(0);
+    }
+
+    void route(Tuple t, ArrayList<Tuple>[] batches) {
+        batches[0].add(t);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.out.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return this.out.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return this.out.next();
+    }
+
+    /**
+     * Restarts every producer.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.out.rewind();
+    }
+
+    public void close() {
+        this.out.close();
+    }
+}
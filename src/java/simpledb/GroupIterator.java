@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * GroupIterator returns the result of an aggregator, one tuple per group.
+ * The aggregators number their groups 0, 1, 2, ... in the order the groups
+ * are first seen, and every result tuple is made from the aggregator's
+ * state when it is returned, so results are never copied into a list.
+ * Groups added after the iterator is opened are returned as well.
+ */
+abstract class GroupIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc td;
+    // the next group to return, -1 if the iterator is closed
+    private int next = -1;
+
+    GroupIterator(TupleDesc td) {
+        this.td = td;
+    }
+
+    /** @return the number of groups */
+    abstract int numGroups();
+
+    /** @return the result tuple of group g */
+    abstract Tuple group(int g);
+
+    public void open() {
+        this.next = 0;
+    }
+
+    public boolean hasNext() {
+        if (this.next < 0)
+            throw new IllegalStateException("iterator not open");
+        return this.next < numGroups();
+    }
+
+    public Tuple next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return group(this.next++);
+    }
+
+    public void rewind() {
+        this.next = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void close() {
+        this.next = -1;
+    }
+}
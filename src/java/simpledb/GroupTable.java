@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * GroupTable assigns dense group numbers 0, 1, 2, ... to long keys, in the
+ * order the keys are first seen. Aggregators keep their per-group state in
+ * arrays indexed by group number.
+ * <p>
+ * It is an open-addressing hash table with linear probing over an int array
+ * of group numbers, so looking up or adding a key allocates nothing except
+ * when the table grows.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // group number + 1 for each slot, 0 for an empty slot; the length is a
+    // power of two and at least twice the number of groups
+    private int[] slots = new int[INITIAL_CAPACITY];
+    // the key of each group
+    private long[] keys = new long[INITIAL_CAPACITY / 2];
+    private int size = 0;
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the group number of key, adding a new group if the key has not
+     *         been seen before
+     */
+    int findOrInsert(long key) {
+        int mask = this.slots.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            int g = this.slots[i] - 1;
+            if (g < 0) {
+                break;
+            }
+            if (this.keys[g] == key) {
+                return g;
+            }
+            i = (i + 1) & mask;
+        }
+        int g = this.size++;
+        if (g == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, this.keys.length * 2);
+        }
+        this.keys[g] = key;
+        this.slots[i] = g + 1;
+        if (this.size * 2 > this.slots.length) {
+            rehash(this.slots.length * 2);
+        }
+        return g;
+    }
+
+    /**
+     * @return the group number of key, or -1 if there is no such group
+     */
+    int find(long key) {
+        int mask = this.slots.length - 1;
+        int i = hash(key) & mask;
+        while (true) {
+            int g = this.slots[i] - 1;
+            if (g < 0) {
+                return -1;
+            }
+            if (this.keys[g] == key) {
+                return g;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int g = 0; g < this.size; g++) {
+            int i = hash(this.keys[g]) & mask;
+            while (newSlots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            newSlots[i] = g + 1;
+        }
+        this.slots = newSlots;
+    }
+
+    /** @return the key of group g */
+    long key(int g) {
+        return this.keys[g];
+    }
+
+    /** @return the number of groups */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if fields of type t have a primitive key, which is equal
+     *         for two fields exactly when the fields are equal
+     */
+    static boolean hasPrimitiveKey(Type t) {
+        return t == Type.INT_TYPE || t == Type.LONG_TYPE || t == Type.DATE_TYPE || t == Type.DOUBLE_TYPE;
+    }
+
+    /**
+     * @return the primitive key of f
+     * @throws IllegalArgumentException if fields of its type have none
+     */
+    static long primitiveKey(Field f) {
+        switch (f.getType()) {
+        case INT_TYPE:
+            return ((IntField) f).getValue();
+        case LONG_TYPE:
+            return ((LongField) f).getValue();
+        case DATE_TYPE:
+            return ((DateField) f).getValue();
+        case DOUBLE_TYPE:
+            // DoubleField equality compares bit patterns as well
+            return Double.doubleToLongBits(((DoubleField) f).getValue());
+        default:
+            throw new IllegalArgumentException("no primitive key for " + f.getType());
+        }
+    }
+
+    /**
+     * @return the field of type t whose primitive key is key
+     */
+    static Field keyField(Type t, long key) {
+        switch (t) {
+        case INT_TYPE:
+            return new IntField((int) key);
+        case LONG_TYPE:
+            return new LongField(key);
+        case DATE_TYPE:
+            return new DateField(key);
+        case DOUBLE_TYPE:
+            return new DoubleField(Double.longBitsToDouble(key));
+        default:
+            throw new IllegalArgumentException("no primitive key for " + t);
+        }
+    }
+
+    /** Remove all groups. */
+    void clear() {
+        this.slots = new int[INITIAL_CAPACITY];
+        this.keys = new long[INITIAL_CAPACITY / 2];
+        this.size = 0;
+    }
+}
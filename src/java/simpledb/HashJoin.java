@@ -0,0 +1,479 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashJoin is a hybrid hash equi-join that works within a memory budget.
+ * <p>
+ * The build input is read into per-partition hash tables. If they grow past
+ * the budget, the largest partition still in memory is written to a
+ * {@link SpillFile} and later build tuples of that partition go straight to
+ * disk. The probe input is then streamed: tuples of in-memory partitions
+ * are joined immediately, tuples of spilled partitions are written to a
+ * probe spill file of the same partition. Finally, each pair of spilled
+ * build and probe files is joined by a nested HashJoin that partitions with
+ * a different hash function, so partitions that are still too large are
+ * split again.
+ * <p>
+ * After {@link #MAX_DEPTH} levels of repartitioning, which only happens
+ * when a few keys have very many duplicates, the remaining partition is
+ * joined in memory regardless of the budget.
+ * <p>
+ * Output tuples are always the fields of child1 followed by the fields of
+ * child2, whichever side is used to build.
+ * <p>
+ * When the probe input is a {@link SeqScan} or {@link ParallelSeqScan},
+ * possibly under some {@link Filter}s, the join gives the scan a
+ * {@link BloomFilter} of the
+ * build keys, so probe tuples that can't match are dropped as soon as they
+ * are read instead of being passed up and looked up in vain. The filter is
+ * sized for the table statistics of the build input, and takes at most
+ * {@link #FILTER_SHARE} of the memory budget, counted against it; when the
+ * build input has more keys than the filter was sized for, no filter is
+ * given to the scan.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the inputs are split into. */
+    static final int NUM_PARTITIONS = 16;
+    /** Maximum number of times a partition is split again. */
+    static final int MAX_DEPTH = 4;
+    /** Fraction of the memory budget the probe scan's Bloom filter may use. */
+    static final double FILTER_SHARE = 1.0 / 8;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final boolean buildLeft;
+    private final long memoryBudget;
+    private final int seed;
+    private final int depth;
+    private TupleDesc td;
+
+    // build side state, per partition
+    private transient ArrayList<HashMap<Field, ArrayList<Tuple>>> tables;
+    private transient long[] partitionBytes;
+    private transient SpillFile[] buildSpills;
+    private transient SpillFile[] probeSpills;
+    private long memoryUsed;
+    private int numSpilled;
+
+    // probe side state: the current probe tuple and its matches
+    private transient Tuple probe;
+    private transient ArrayList<Tuple> matches;
+    private int matchIndex;
+    // join of the spilled partitions, after the probe input is exhausted
+    private int partition;
+    private transient HashJoin nested;
+    // the probe scan given a Bloom filter of the build keys, if any
+    private transient DbIterator filteredScan;
+
+    /**
+     * Constructor. Builds on child1 with the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, true, SpillFile.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param buildLeft
+     *            true to build the hash table on child1, false to build on
+     *            child2; the smaller input should be used to build
+     * @param memoryBudget
+     *            bytes the in-memory hash tables may use before partitions
+     *            are spilled to disk
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft, long memoryBudget) {
+        this(p, child1, child2, buildLeft, memoryBudget, 0, 0);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft,
+            long memoryBudget, int seed, int depth) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash join only works for equality predicates");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.buildLeft = buildLeft;
+        this.memoryBudget = memoryBudget;
+        this.seed = seed;
+        this.depth = depth;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return true if the hash table is built on child1
+     */
+    public boolean buildsLeft() {
+        return this.buildLeft;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    /**
+     * @return the number of partitions written to disk by this join, not
+     *         counting those of nested joins
+     */
+    public int numSpilledPartitions() {
+        return this.numSpilled;
+    }
+
+    /**
+     * @return the number of bytes of the build side kept in memory before
+     *         partitions are written to disk
+     */
+    public long memoryBudget() {
+        return this.memoryBudget;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
+    }
+
+    private DbIterator buildChild() {
+        return this.buildLeft ? this.child1 : this.child2;
+    }
+
+    private DbIterator probeChild() {
+        return this.buildLeft ? this.child2 : this.child1;
+    }
+
+    private int buildField() {
+        return this.buildLeft ? this.p.getField1() : this.p.getField2();
+    }
+
+    private int probeField() {
+        return this.buildLeft ? this.p.getField2() : this.p.getField1();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child1.open();
+        this.child2.open();
+        super.open();
+        this.td = getTupleDesc();
+        build();
+    }
+
+    // the partition of a join key, a different function at every depth
+    private int partitionOf(Field f) {
+        return partitionOf(f.hashCode(), this.seed, NUM_PARTITIONS);
+    }
+
+    /**
+     * @return the partition, out of partitions, of a key with the given hash
+     *         code; every seed gives a different, independent function
+     */
+    static int partitionOf(int hash, int seed, int partitions) {
+        int h = hash ^ (seed * 0x9E3779B9);
+        // murmur3 finalizer
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return (h & 0x7FFFFFFF) % partitions;
+    }
+
+    /**
+     * @return the scan that produces the tuples of an input, if the input
+     *         is a SeqScan or ParallelSeqScan or only filters one, so its
+     *         tuples have the fields of the scan; null otherwise
+     */
+    static DbIterator scanOf(DbIterator it) {
+        while (it instanceof Filter) {
+            it = ((Filter) it).getChildren()[0];
+        }
+        return it instanceof SeqScan || it instanceof ParallelSeqScan ? it : null;
+    }
+
+    // give a scan returned by scanOf a runtime filter
+    private static void setRuntimeFilter(DbIterator scan, int field, BloomFilter filter) {
+        if (scan instanceof SeqScan) {
+            ((SeqScan) scan).setRuntimeFilter(field, filter);
+        } else {
+            ((ParallelSeqScan) scan).setRuntimeFilter(field, filter);
+        }
+    }
+
+    /**
+     * @return the number of keys the Bloom filter of a build input is sized
+     *         for: the number of tuples of the table it scans, if there are
+     *         statistics for it, and no more than fit in FILTER_SHARE of the
+     *         budget
+     */
+    static int filterKeys(DbIterator build, long memoryBudget) {
+        long max = Math.max(1, (long) (memoryBudget * FILTER_SHARE) * 8 / BloomFilter.BITS_PER_KEY);
+        DbIterator scan = scanOf(build);
+        if (scan != null) {
+            String name = scan instanceof SeqScan ? ((SeqScan) scan).getTableName()
+                    : ((ParallelSeqScan) scan).getTableName();
+            TableStats stats = TableStats.getTableStats(name);
+            if (stats != null) {
+                max = Math.min(max, stats.totalTuples());
+            }
+        }
+        return (int) Math.min(max, Integer.MAX_VALUE);
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        this.tables = new ArrayList<HashMap<Field, ArrayList<Tuple>>>(NUM_PARTITIONS);
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            this.tables.add(new HashMap<Field, ArrayList<Tuple>>());
+        }
+        this.partitionBytes = new long[NUM_PARTITIONS];
+        this.buildSpills = new SpillFile[NUM_PARTITIONS];
+        this.probeSpills = new SpillFile[NUM_PARTITIONS];
+        this.memoryUsed = 0;
+        this.numSpilled = 0;
+        this.probe = null;
+        this.matches = null;
+        this.matchIndex = 0;
+        this.partition = 0;
+        this.nested = null;
+
+        DbIterator build = buildChild();
+        long tupleBytes = SpillFile.tupleBytes(build.getTupleDesc());
+        boolean mayGrow = this.depth >= MAX_DEPTH;
+        // the build keys, for the probe scan; the inputs of nested joins are
+        // spill files
+        DbIterator scan = this.depth == 0 ? scanOf(probeChild()) : null;
+        BloomFilter bloom = null;
+        int filterKeys = 0;
+        int numKeys = 0;
+        if (scan != null) {
+            filterKeys = filterKeys(build, this.memoryBudget);
+            bloom = new BloomFilter(filterKeys);
+            if (bloom.sizeInBytes() > this.memoryBudget * FILTER_SHARE) {
+                // even the smallest filter doesn't fit
+                bloom = null;
+            } else {
+                this.memoryUsed += bloom.sizeInBytes();
+            }
+        }
+        try {
+            while (build.hasNext()) {
+                Tuple t = build.next();
+                Field key = t.getField(buildField());
+                if (bloom != null) {
+                    if (++numKeys > filterKeys) {
+                        // too many keys for the filter to drop much
+                        this.memoryUsed -= bloom.sizeInBytes();
+                        bloom = null;
+                    } else {
+                        bloom.add(key);
+                    }
+                }
+                int part = partitionOf(key);
+                if (this.buildSpills[part] != null) {
+                    this.buildSpills[part].add(t);
+                    continue;
+                }
+                HashMap<Field, ArrayList<Tuple>> table = this.tables.get(part);
+                ArrayList<Tuple> bucket = table.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Tuple>();
+                    table.put(key, bucket);
+                }
+                bucket.add(t);
+                this.partitionBytes[part] += tupleBytes;
+                this.memoryUsed += tupleBytes;
+                while (!mayGrow && this.memoryUsed > this.memoryBudget) {
+                    spillLargestPartition(build.getTupleDesc());
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("couldn't write hash join partition: " + e.getMessage());
+        }
+        if (bloom != null) {
+            setRuntimeFilter(scan, probeField(), bloom);
+            this.filteredScan = scan;
+        }
+    }
+
+    // move the largest in-memory partition to disk
+    private void spillLargestPartition(TupleDesc buildTd) throws IOException {
+        int largest = -1;
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            if (this.buildSpills[i] == null
+                    && (largest == -1 || this.partitionBytes[i] > this.partitionBytes[largest])) {
+                largest = i;
+            }
+        }
+        SpillFile spill = new SpillFile(buildTd);
+        for (ArrayList<Tuple> bucket : this.tables.get(largest).values()) {
+            for (Tuple t : bucket) {
+                spill.add(t);
+            }
+        }
+        this.buildSpills[largest] = spill;
+        this.probeSpills[largest] = new SpillFile(probeChild().getTupleDesc());
+        this.tables.set(largest, null);
+        this.memoryUsed -= this.partitionBytes[largest];
+        this.partitionBytes[largest] = 0;
+        this.numSpilled++;
+    }
+
+    private Tuple joinTuples(Tuple build, Tuple probe) {
+        Tuple t1 = this.buildLeft ? build : probe;
+        Tuple t2 = this.buildLeft ? probe : build;
+        Tuple joined_tuple = new Tuple(this.td);
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            joined_tuple.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < n2; i++) {
+            joined_tuple.setField(n1 + i, t2.getField(i));
+        }
+        return joined_tuple;
+    }
+
+    /**
+     * Returns the next joined tuple: first the matches of probe tuples in
+     * in-memory partitions, then the results of joining each spilled
+     * partition.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        DbIterator probeIt = probeChild();
+        try {
+            while (true) {
+                if (this.matches != null && this.matchIndex < this.matches.size()) {
+                    return joinTuples(this.matches.get(this.matchIndex++), this.probe);
+                }
+                if (!probeIt.hasNext()) {
+                    break;
+                }
+                this.probe = probeIt.next();
+                Field key = this.probe.getField(probeField());
+                int part = partitionOf(key);
+                if (this.probeSpills[part] != null) {
+                    this.probeSpills[part].add(this.probe);
+                    this.matches = null;
+                } else {
+                    this.matches = this.tables.get(part).get(key);
+                    this.matchIndex = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("couldn't write hash join partition: " + e.getMessage());
+        }
+        return nextFromSpilled();
+    }
+
+    private Tuple nextFromSpilled() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (this.nested != null) {
+                if (this.nested.hasNext()) {
+                    return this.nested.next();
+                }
+                this.nested.close();
+                this.nested = null;
+                this.buildSpills[this.partition].delete();
+                this.probeSpills[this.partition].delete();
+                this.buildSpills[this.partition] = null;
+                this.probeSpills[this.partition] = null;
+                this.partition++;
+            }
+            while (this.partition < NUM_PARTITIONS && this.buildSpills[this.partition] == null) {
+                this.partition++;
+            }
+            if (this.partition >= NUM_PARTITIONS) {
+                return null;
+            }
+            // the in-memory tables are no longer needed
+            this.tables = null;
+            try {
+                DbIterator b = this.buildSpills[this.partition].iterator();
+                DbIterator pr = this.probeSpills[this.partition].iterator();
+                this.nested = new HashJoin(this.p, this.buildLeft ? b : pr, this.buildLeft ? pr : b,
+                        this.buildLeft, this.memoryBudget, this.seed + 1, this.depth + 1);
+            } catch (IOException e) {
+                throw new DbException("couldn't read hash join partition: " + e.getMessage());
+            }
+            this.nested.open();
+        }
+    }
+
+    private void deleteSpills() {
+        if (this.nested != null) {
+            this.nested.close();
+            this.nested = null;
+        }
+        for (SpillFile[] spills : new SpillFile[][] { this.buildSpills, this.probeSpills }) {
+            if (spills == null) {
+                continue;
+            }
+            for (int i = 0; i < spills.length; i++) {
+                if (spills[i] != null) {
+                    spills[i].delete();
+                    spills[i] = null;
+                }
+            }
+        }
+        this.tables = null;
+    }
+
+    public void close() {
+        super.close();
+        deleteSpills();
+        if (this.filteredScan != null) {
+            setRuntimeFilter(this.filteredScan, 0, null);
+            this.filteredScan = null;
+        }
+        this.child1.close();
+        this.child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpills();
+        this.child1.rewind();
+        this.child2.rewind();
+        build();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -18,6 +18,7 @@ public class HeapFile implements DbFile {
     private final File file;
     private final TupleDesc td;
     private final int num_page;
+    private final boolean slotted;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,13 +28,36 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param slotted
+     *            true if the file is made of variable-length
+     *            {@link SlottedHeapPage}s rather than fixed-width
+     *            {@link HeapPage}s.
+     */
+    public HeapFile(File f, TupleDesc td, boolean slotted) {
         // some code goes here
         this.file = f;
         this.td = td;
+        this.slotted = slotted;
         int page_size = BufferPool.getPageSize(); 
         this.num_page = (int) (f.length() * 1.0 / page_size);
     }
 
+    /**
+     * @return true if this file stores its tuples on SlottedHeapPages.
+     */
+    public boolean isSlotted() {
+        return this.slotted;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -84,6 +108,9 @@ public class HeapFile implements DbFile {
             r.read(data);
             r.close();
 
+            if (this.slotted) {
+                return new SlottedHeapPage((HeapPageId) pid, data);
+            }
             return new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
             throw new IllegalArgumentException();
@@ -152,10 +179,12 @@ class HeapFileIterator implements DbFileIterator {
         this.it = openPage(this.curpgno).iterator();
     }
 
-    private HeapPage openPage(int page_no) throws DbException, TransactionAbortedException {
+    // both HeapPage and SlottedHeapPage can iterate over their tuples
+    @SuppressWarnings("unchecked")
+    private Iterable<Tuple> openPage(int page_no) throws DbException, TransactionAbortedException {
 
         HeapPageId pid = new HeapPageId(this.hf.getId(), page_no);
-        return (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        return (Iterable<Tuple>) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
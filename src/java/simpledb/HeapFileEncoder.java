@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -157,6 +158,13 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                try {
+                    typeAr[fieldNo].parse(s).serialize(pageStream);
+                } catch (IllegalArgumentException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -223,4 +231,73 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file made of
+   * variable-length {@link SlottedHeapPage}s. The input format is the same
+   * as for {@link #convert(File, File, int, int, Type[], char)}. Records are
+   * packed onto a page until the next one no longer fits, so tables with
+   * short strings take far fewer pages than in the fixed-width format.
+   *
+   * @see SlottedHeapPage
+   * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+
+      TupleDesc td = new TupleDesc(typeAr);
+      Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+
+      ArrayList<Tuple> page = new ArrayList<Tuple>();
+      int free = npagebytes - SlottedHeapPage.HEADER_SIZE;
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().length() == 0)
+              continue;
+          String[] values = separator.split(line, -1);
+          if (values.length != numFields) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < numFields; i++) {
+                  t.setField(i, typeAr[i].parse(values[i].trim()));
+              }
+          } catch (IllegalArgumentException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+
+          int size = SlottedHeapPage.recordSize(t);
+          if (!SlottedHeapPage.fits(free, size)) {
+              if (page.isEmpty())
+                  throw new IOException("record does not fit on an empty page: " + line);
+              os.write(SlottedHeapPage.createPageData(page, npagebytes));
+              npages++;
+              page.clear();
+              free = npagebytes - SlottedHeapPage.HEADER_SIZE;
+          }
+          page.add(t);
+          free -= size + SlottedHeapPage.SLOT_SIZE;
+      }
+
+      // flush the last page; an empty file still gets one empty page
+      if (!page.isEmpty() || npages == 0)
+          os.write(SlottedHeapPage.createPageData(page, npagebytes));
+
+      br.close();
+      os.close();
+  }
 }
@@ -11,10 +11,11 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements Page, Iterable<Tuple> {
 
     final HeapPageId pid;
     final TupleDesc td;
+    final StringDictionary dict;
     final byte header[];
     final Tuple tuples[];
     final int numSlots;
@@ -41,6 +42,7 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.dict = Database.getCatalog().getStringDictionary(id.getTableId());
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -128,7 +130,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(dis, dict);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its child with a table indexed on the join
+ * field. Instead of rescanning the table for every outer tuple or block,
+ * as {@link Join} does, it looks up the matching tuples of each outer tuple
+ * in the index of the table, an {@link IndexedFile}. It is the cheapest
+ * join when the outer input is small, typically after a selective filter,
+ * and the table is large.
+ * <p>
+ * The joined tuples are those of a {@link Join} of the child with a
+ * {@link SeqScan} of the table, filtered by the given predicates on the
+ * table.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final TransactionId tid;
+    private final int table_id;
+    private final String table_alias;
+    private final Predicate[] inner_preds;
+    private final TupleDesc inner_td;
+    private final TupleDesc td;
+    // the comparison of the index key with the outer join field
+    private final Predicate.Op key_op;
+    private DbIterator child1;
+    private transient IndexedFile file;
+    // the outer tuple being joined and its matches in the index
+    private transient Tuple t1;
+    private transient DbFileIterator matches;
+    private long num_lookups;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The join predicate; field2 must be the key field of the
+     *            index, and the operator EQUALS or a range comparison
+     * @param child1
+     *            Iterator for the outer tuples
+     * @param tid
+     *            The transaction the index lookups run in
+     * @param tableid
+     *            The inner table; its file must be an IndexedFile
+     * @param tableAlias
+     *            The alias of the inner table, the prefix of its field names
+     * @param innerPreds
+     *            Predicates every joined tuple of the inner table satisfies,
+     *            over the fields of the table
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, TransactionId tid,
+            int tableid, String tableAlias, Predicate[] innerPreds) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof IndexedFile)) {
+            throw new IllegalArgumentException("table " + tableid + " has no index");
+        }
+        if (((IndexedFile) f).keyField() != p.getField2()) {
+            throw new IllegalArgumentException("table " + tableid + " is not indexed on field "
+                    + p.getField2());
+        }
+        this.p = p;
+        this.key_op = keyOp(p.getOperator());
+        this.child1 = child1;
+        this.tid = tid;
+        this.table_id = tableid;
+        this.table_alias = tableAlias;
+        this.inner_preds = innerPreds.clone();
+        this.inner_td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+        this.td = TupleDesc.merge(child1.getTupleDesc(), this.inner_td);
+    }
+
+    /**
+     * @return the comparison of an index key with the outer value that
+     *         selects the inner tuples joining with it
+     */
+    static Predicate.Op keyOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            throw new IllegalArgumentException("an index can't look up " + op + " joins");
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return the alias of the inner table
+     */
+    public String getAlias() {
+        return this.table_alias;
+    }
+
+    /**
+     * @return the predicates on the inner table
+     */
+    public Predicate[] getInnerPredicates() {
+        return this.inner_preds;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return this.inner_td.getFieldName(this.p.getField2());
+    }
+
+    /**
+     * @return the number of index lookups since the operator was created,
+     *         one per outer tuple
+     */
+    public long numLookups() {
+        return this.num_lookups;
+    }
+
+    /**
+     * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc)
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.file = (IndexedFile) Database.getCatalog().getDatabaseFile(this.table_id);
+        this.child1.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        closeMatches();
+        this.t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+        closeMatches();
+        this.t1 = null;
+    }
+
+    private void closeMatches() {
+        if (this.matches != null) {
+            this.matches.close();
+            this.matches = null;
+        }
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.matches == null) {
+                if (!this.child1.hasNext()) {
+                    return null;
+                }
+                this.t1 = this.child1.next();
+                Field key = this.t1.getField(this.p.getField1());
+                this.matches = this.file.indexIterator(this.tid, new IndexPredicate(this.key_op, key));
+                this.matches.open();
+                this.num_lookups++;
+            }
+            while (this.matches.hasNext()) {
+                Tuple t2 = this.matches.next();
+                if (satisfies(t2)) {
+                    return joinTuples(this.t1, t2);
+                }
+            }
+            closeMatches();
+        }
+    }
+
+    private boolean satisfies(Tuple t2) {
+        for (Predicate pred : this.inner_preds) {
+            if (!pred.filter(t2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Tuple joinTuples(Tuple t1, Tuple t2) {
+        Tuple joined_tuple = new Tuple(this.td);
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = this.inner_td.numFields();
+        for (int i = 0; i < n1; i++) {
+            joined_tuple.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < n2; i++) {
+            joined_tuple.setField(n1 + i, t2.getField(i));
+        }
+        return joined_tuple;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index with a constant. It is
+ * what an {@link IndexedFile} is asked to look up.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field field;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            the operation the key is compared with: the matching keys
+     *            are those for which key op fvalue is true
+     * @param fvalue
+     *            the constant the key is compared with
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.field = fvalue;
+    }
+
+    public Field getField() {
+        return this.field;
+    }
+
+    public Predicate.Op getOp() {
+        return this.op;
+    }
+
+    /** @return true if a key satisfies this predicate */
+    public boolean matches(Field key) {
+        return key.compare(this.op, this.field);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate ipd = (IndexPredicate) o;
+        return this.op == ipd.op && this.field.equals(ipd.field);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.op.hashCode() + this.field.hashCode();
+    }
+
+    public String toString() {
+        return "key " + this.op + " " + this.field;
+    }
+}
@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * An IndexedFile is a DbFile that can find the tuples whose key field
+ * satisfies an {@link IndexPredicate} without reading the whole file. The
+ * planner looks for IndexedFiles in the catalog to run joins on their key
+ * field with an {@link IndexNestedLoopJoin}.
+ */
+public interface IndexedFile extends DbFile {
+
+    /**
+     * @return the index of the field the file is indexed on
+     */
+    public int keyField();
+
+    /**
+     * Returns an iterator over the tuples of the file whose key field
+     * satisfies a predicate.
+     *
+     * @param tid
+     *            the transaction the lookup runs in
+     * @param ipred
+     *            the predicate on the key field
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
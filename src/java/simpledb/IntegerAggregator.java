@@ -1,30 +1,42 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
 
 import simpledb.Aggregator.Op;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered by a {@link GroupTable} keyed by the primitive value
+ * of the group-by field, and every group's state is a long accumulator and
+ * a long count in parallel arrays, so merging a tuple allocates nothing.
+ * Group-by fields without a primitive value (strings) are numbered through
+ * a HashMap instead.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
-    
+
     int groupby_index;
-    Field groupby_field;
     Type groupby_fieldtype;
     int agg_index;
     Op agg_op;
-    TupleDesc td; 
-    HashMap<Field, Integer> agg_res;
-    HashMap<Field, Integer[]> agg_avg_res;
-    
+    TupleDesc td;
+
+    // group numbers, by primitive key or by field
+    private final GroupTable groups = new GroupTable();
+    private final HashMap<Field, Integer> field_groups = new HashMap<>();
+    private final ArrayList<Field> group_fields = new ArrayList<>();
+    private int num_groups = 0;
+    // per group: the sum, minimum or maximum, and the number of values
+    private long[] acc = new long[16];
+    private long[] count = new long[16];
+
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -32,7 +44,8 @@ public class IntegerAggregator implements Aggregator {
      *            the type of the group by field (e.g., Type.INT_TYPE), or null
      *            if there is no grouping
      * @param afield
-     *            the 0-based index of the aggregate field in the tuple
+     *            the 0-based index of the aggregate field in the tuple; for
+     *            SC_AVG, the sum, followed by the count in afield + 1
      * @param what
      *            the aggregation operator
      */
@@ -43,91 +56,164 @@ public class IntegerAggregator implements Aggregator {
         this.groupby_fieldtype = gbfieldtype;
         this.agg_index = afield;
         this.agg_op = what;
-        this.agg_res = new HashMap<>();
-        this.agg_avg_res = new HashMap<>();
+        if (gbfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(resultTypes());
+        } else {
+            Type[] agg_types = resultTypes();
+            Type[] types = new Type[agg_types.length + 1];
+            types[0] = gbfieldtype;
+            System.arraycopy(agg_types, 0, types, 1, agg_types.length);
+            this.td = new TupleDesc(types);
+        }
+    }
+
+    // SUM_COUNT produces the sum and the count, the other operators one value
+    private Type[] resultTypes() {
+        if (this.agg_op == Op.SUM_COUNT) {
+            return new Type[]{Type.INT_TYPE, Type.INT_TYPE};
+        }
+        return new Type[]{Type.INT_TYPE};
+    }
+
+    // the number of the group of tup, which is added if it is new and add
+    // is true; -1 if it is new and add is false
+    private int group(Tuple tup, boolean add) {
+        int g;
+        if (this.groupby_index == Aggregator.NO_GROUPING) {
+            g = 0;
+        } else if (GroupTable.hasPrimitiveKey(this.groupby_fieldtype)) {
+            long key = GroupTable.primitiveKey(tup.getField(this.groupby_index));
+            g = add ? this.groups.findOrInsert(key) : this.groups.find(key);
+        } else {
+            Field f = tup.getField(this.groupby_index);
+            Integer known = this.field_groups.get(f);
+            if (known != null) {
+                return known;
+            }
+            if (!add) {
+                return -1;
+            }
+            g = this.group_fields.size();
+            this.field_groups.put(f, g);
+            this.group_fields.add(f);
+        }
+        if (g == this.num_groups) {
+            if (!add) {
+                // the single group when there is no grouping
+                return -1;
+            }
+            this.num_groups++;
+            if (g == this.acc.length) {
+                this.acc = Arrays.copyOf(this.acc, this.acc.length * 2);
+                this.count = Arrays.copyOf(this.count, this.count.length * 2);
+            }
+        }
+        return g;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field to_agg = tup.getField(this.agg_index);
-        int to_agg_val = ((IntField) to_agg).getValue();
-        this.groupby_field = null;
-        if (this.groupby_index != Aggregator.NO_GROUPING) {
-            this.groupby_field = tup.getField(this.groupby_index);
-        }
+        merge(tup, group(tup, true));
+    }
 
-        if (this.agg_op == Op.AVG) {
-            if (this.agg_avg_res.containsKey(this.groupby_field)) {
-                Integer[] count_sum = this.agg_avg_res.get(this.groupby_field);
-                int count = count_sum[0];
-                int sum = count_sum[1];
-                this.agg_avg_res.put(this.groupby_field, new Integer[]{count+1, sum+to_agg_val});
-            } else {
-                this.agg_avg_res.put(this.groupby_field, new Integer[]{1, to_agg_val});
-            }
-            Integer[] count_sum = this.agg_avg_res.get(this.groupby_field);
-            int count = count_sum[0];
-            int sum = count_sum[1];
-            this.agg_res.put(this.groupby_field, sum/count);
-        } else if (this.agg_res.containsKey(this.groupby_field)) {
-                Integer cur_agg = this.agg_res.get(this.groupby_field);
-                Integer new_agg = update_agg(cur_agg, to_agg_val);
-                this.agg_res.put(this.groupby_field, new_agg);
-        } else if (this.agg_op == Op.COUNT) {
-            this.agg_res.put(this.groupby_field, 1);
-        } else {
-            this.agg_res.put(this.groupby_field, to_agg_val);
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int g = group(tup, false);
+        if (g < 0) {
+            return false;
         }
+        merge(tup, g);
+        return true;
     }
 
-    private Integer update_agg(Integer cur_agg, int to_agg_val) {
+    public int numGroups() {
+        return this.num_groups;
+    }
+
+    // merge tup into group g
+    private void merge(Tuple tup, int g) {
+        int to_agg_val = ((IntField) tup.getField(this.agg_index)).getValue();
+        boolean first = this.count[g] == 0;
         switch (this.agg_op) {
             case COUNT:
-                return cur_agg + 1;
-            case MAX:
-                return Math.max(cur_agg, to_agg_val);
+                break;
             case MIN:
-                return Math.min(cur_agg, to_agg_val);
+                this.acc[g] = first ? to_agg_val : Math.min(this.acc[g], to_agg_val);
+                break;
+            case MAX:
+                this.acc[g] = first ? to_agg_val : Math.max(this.acc[g], to_agg_val);
+                break;
             case SUM:
-                return cur_agg + to_agg_val;
+            case AVG:
+            case SUM_COUNT:
+                this.acc[g] += to_agg_val;
+                break;
+            case SC_AVG:
+                // partial sums and counts of SUM_COUNT tuples
+                this.acc[g] += to_agg_val;
+                this.count[g] += ((IntField) tup.getField(this.agg_index + 1)).getValue();
+                return;
             default:
-                throw new IllegalArgumentException();
+                throw new IllegalArgumentException("unsupported aggregate " + this.agg_op);
         }
+        this.count[g]++;
     }
 
     /**
      * Create a DbIterator over group aggregate results.
-     * 
+     *
      * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor; SUM_COUNT produces the sum followed by the
+     *         count.
      */
     public DbIterator iterator() {
         // some code goes here
-        ArrayList<Tuple> agg_tuples = new ArrayList<>();
-        for (Map.Entry<Field, Integer> entry : this.agg_res.entrySet()) {
-            if (this.groupby_index == Aggregator.NO_GROUPING) {
-                this.td = new TupleDesc(new Type[]{Type.INT_TYPE});
-                Tuple t = new Tuple(td);
-                t.setField(0, new IntField(entry.getValue()));
-                agg_tuples.add(t);
-            } else {
-                this.td = new TupleDesc(new Type[]{this.groupby_fieldtype, Type.INT_TYPE});
-                Tuple t = new Tuple(this.td);
-                t.setField(0, entry.getKey());
-                t.setField(1, new IntField(entry.getValue()));
-                agg_tuples.add(t);
+        return new GroupIterator(this.td) {
+            private static final long serialVersionUID = 1L;
+
+            int numGroups() {
+                return num_groups;
             }
+
+            Tuple group(int g) {
+                return result(g);
+            }
+        };
+    }
+
+    // the result tuple of group g
+    private Tuple result(int g) {
+        Tuple t = new Tuple(this.td);
+        int i = 0;
+        if (this.groupby_index != Aggregator.NO_GROUPING) {
+            t.setField(i++, GroupTable.hasPrimitiveKey(this.groupby_fieldtype)
+                    ? GroupTable.keyField(this.groupby_fieldtype, this.groups.key(g)) : this.group_fields.get(g));
+        }
+        switch (this.agg_op) {
+            case COUNT:
+                t.setField(i, new IntField((int) this.count[g]));
+                break;
+            case AVG:
+            case SC_AVG:
+                t.setField(i, new IntField((int) (this.acc[g] / this.count[g])));
+                break;
+            case SUM_COUNT:
+                t.setField(i++, new IntField((int) this.acc[g]));
+                t.setField(i, new IntField((int) this.count[g]));
+                break;
+            default:
+                t.setField(i, new IntField((int) this.acc[g]));
+                break;
         }
-        return new TupleIterator(this.td, agg_tuples);   
+        return t;
     }
 
 }
@@ -1,11 +1,14 @@
 package simpledb;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.io.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Results are produced incrementally: every algorithm keeps its position in
+ * a resumable cursor, so fetchNext() does only the work needed to find the
+ * next matching pair and the first row is returned without computing the
+ * whole join.
  */
 public class Join extends Operator {
 
@@ -13,10 +16,25 @@ public class Join extends Operator {
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
-    private TupleIterator return_tuple;
+    private Algorithm algorithm;
+    private TupleDesc td;
+    // position of the running join, null when closed
+    private transient Cursor cursor;
 
     // https://dev.mysql.com/doc/refman/8.0/en/server-system-variables.html#sysvar_join_buffer_size
-    private final int join_buffer_size = 262144;
+    static final int join_buffer_size = 262144;
+
+    /** The join algorithms implemented by this operator. */
+    public enum Algorithm {
+        /** Rescan child2 for every tuple of child1. */
+        NESTED_LOOP,
+        /** Rescan child2 once per buffer of child1 tuples. */
+        BLOCK_NESTED_LOOP,
+        /** Sort both inputs on the join field and merge them. */
+        SORT_MERGE,
+        /** Build a hash table on child1 and probe it with child2; equality only. */
+        HASH
+    }
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -31,9 +49,34 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+        this(p, child1, child2, Algorithm.BLOCK_NESTED_LOOP);
+    }
+
+    /**
+     * Constructor. Accepts to children to join, the predicate to join them
+     * on and the algorithm to use. HASH is only used for equality
+     * predicates, and SORT_MERGE only for equality and range predicates;
+     * otherwise BLOCK_NESTED_LOOP is used instead.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param algorithm
+     *            The join algorithm
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, Algorithm algorithm) {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        Predicate.Op op = p.getOperator();
+        if ((algorithm == Algorithm.HASH && op != Predicate.Op.EQUALS)
+                || (algorithm == Algorithm.SORT_MERGE && (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE))) {
+            algorithm = Algorithm.BLOCK_NESTED_LOOP;
+        }
+        this.algorithm = algorithm;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -41,6 +84,13 @@ public class Join extends Operator {
         return this.p;
     }
 
+    /**
+     * @return the algorithm this join runs
+     */
+    public Algorithm getAlgorithm() {
+        return this.algorithm;
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -76,17 +126,25 @@ public class Join extends Operator {
         this.child1.open();
         this.child2.open();
         super.open();
-        // if (this.p.getOperator().equals(Predicate.Op.EQUALS)) {
-        //     this.return_tuple = hashJoin();
-        // }
-        // this.return_tuple = sortMergeJoin();
-        // this.return_tuple = nestedLoopJoin();
-        this.return_tuple = blockNestedLoopJoin();
-        this.return_tuple.open();
+        this.td = getTupleDesc();
+        this.cursor = newCursor();
+    }
+
+    private Cursor newCursor() {
+        switch (this.algorithm) {
+        case NESTED_LOOP:
+            return new NestedLoopCursor();
+        case SORT_MERGE:
+            return new SortMergeCursor();
+        case HASH:
+            return new HashCursor();
+        default:
+            return new BlockNestedLoopCursor();
+        }
     }
 
     private Tuple joinTuples(Tuple t1, Tuple t2) {
-        Tuple joined_tuple = new Tuple(getTupleDesc());
+        Tuple joined_tuple = new Tuple(this.td);
         int n1 = t1.getTupleDesc().numFields();
         int n2 = t2.getTupleDesc().numFields();
         for (int i = 0; i < n1; i++) {
@@ -98,254 +156,263 @@ public class Join extends Operator {
         return joined_tuple;
     }
 
-    private TupleIterator hashJoin() throws DbException, TransactionAbortedException {
+    /**
+     * The state of a running join. next() resumes where the previous call
+     * stopped and returns the next joined tuple, or null at the end.
+     */
+    private abstract class Cursor {
+        abstract Tuple next() throws DbException, TransactionAbortedException;
 
-        if (!this.p.getOperator().equals(Predicate.Op.EQUALS)) {
-            throw new DbException("Hash Join only works for equal join");
+        /** Release resources held by the cursor, such as temporary files. */
+        void close() {
         }
+    }
 
-        // hash the smaller table
-        ConcurrentHashMap<Field, ArrayList<Tuple>> child_hash = new ConcurrentHashMap<>();
-        // how to compare the size of child1 and child2 to determine which one to hash?
-        while (this.child1.hasNext()) {
-            Tuple t = this.child1.next();
-            Field t_f = t.getField(this.p.getField1());
-            if (!child_hash.containsKey(t_f)) {
-                child_hash.put(t_f, new ArrayList<>());
-            }
-            child_hash.get(t_f).add(t);
-        }
+    private class NestedLoopCursor extends Cursor {
+        private Tuple t1;
 
-        // probe the larger table
-        LinkedList<Tuple> joined_tuples = new LinkedList<>();
-        while (this.child2.hasNext()) {
-            Tuple t = this.child2.next();
-            Field t_f = t.getField(this.p.getField2());
-            if (child_hash.containsKey(t_f)) {
-                ArrayList<Tuple> matched_tuples = child_hash.get(t_f);
-                for (Tuple m_t : matched_tuples) {
-                    Tuple joined_tuple = joinTuples(m_t, t);
-                    joined_tuples.add(joined_tuple);
+        Tuple next() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (this.t1 == null) {
+                    if (!child1.hasNext()) {
+                        return null;
+                    }
+                    this.t1 = child1.next();
+                    child2.rewind();
                 }
+                while (child2.hasNext()) {
+                    Tuple t2 = child2.next();
+                    if (p.filter(this.t1, t2)) {
+                        return joinTuples(this.t1, t2);
+                    }
+                }
+                this.t1 = null;
             }
         }
-        return new TupleIterator(getTupleDesc(), joined_tuples);
     }
 
-    private TupleIterator sortMergeJoin() throws DbException, TransactionAbortedException {
-        LinkedList<Tuple> joined_tuples = new LinkedList<>();
-        LinkedList<Tuple> l1 = new LinkedList<>();
-        LinkedList<Tuple> l2 = new LinkedList<>();
+    private class BlockNestedLoopCursor extends Cursor {
+        // buffers of tuples from child1, child2 and how many each holds
+        private final Tuple[] buffer1;
+        private final Tuple[] buffer2;
+        private int b1_num = 0;
+        private int b2_num = 0;
+        // the next pair of buffer positions to compare
+        private int i = 0;
+        private int j = 0;
+        private boolean started = false;
+
+        BlockNestedLoopCursor() {
+            int buffer1_num_tuples = Math.max(1, join_buffer_size / child1.getTupleDesc().getSize());
+            int buffer2_num_tuples = Math.max(1, join_buffer_size / child2.getTupleDesc().getSize());
+            this.buffer1 = new Tuple[buffer1_num_tuples];
+            this.buffer2 = new Tuple[buffer2_num_tuples];
+        }
 
-        this.child1.rewind();
-        while (this.child1.hasNext()) {
-            Tuple t1 = this.child1.next();
-            l1.add(t1);
+        private int fill(DbIterator child, Tuple[] buffer) throws DbException, TransactionAbortedException {
+            int n = 0;
+            while (n < buffer.length && child.hasNext()) {
+                buffer[n++] = child.next();
+            }
+            // drop references from the previous block
+            Arrays.fill(buffer, n, buffer.length, null);
+            return n;
         }
-        this.child2.rewind();
-        while (this.child2.hasNext()) {
-            Tuple t2 = this.child2.next();
-            l2.add(t2);
+
+        // read the next block of child1 and restart child2, false at the end
+        private boolean nextOuterBlock() throws DbException, TransactionAbortedException {
+            this.b1_num = fill(child1, this.buffer1);
+            if (this.b1_num == 0) {
+                return false;
+            }
+            child2.rewind();
+            return true;
         }
-        int field_index1 = this.p.getField1();
-        int field_index2 = this.p.getField2();
-        sort_helper(l1, field_index1);
-        sort_helper(l2, field_index2);
-
-        // equal join case
-        if (this.p.getOperator().equals(Predicate.Op.EQUALS)) {
-            int ptr1 = 0; 
-            int ptr2 = 0;
-            JoinPredicate eq = new JoinPredicate(field_index1, Predicate.Op.EQUALS, field_index2);
-            JoinPredicate gt = new JoinPredicate(field_index1, Predicate.Op.GREATER_THAN, field_index2);
-            while (ptr1 < l1.size() && ptr2 < l2.size()) {
-                Tuple t1 = l1.get(ptr1);
-                Tuple t2 = l2.get(ptr2);
-                if (eq.filter(t1, t2)) {
-                    int begin1 = ptr1;
-                    int begin2 = ptr2;
-                    while (ptr1 < l1.size() && eq.filter(l1.get(ptr1), t2)) ptr1++;
-                    while (ptr2 < l2.size() && eq.filter(t1, l2.get(ptr2))) ptr2++;
-                    int end1 = ptr1;
-                    int end2 = ptr2;
-
-                    for (int i = begin1; i < end1; i++) {
-                        for (int j = begin2; j  < end2; j++) {
-                            joined_tuples.add(joinTuples(l1.get(i), l2.get(j)));
-                        }
-                    }
-                } else if (gt.filter(t1, t2)) {
-                    ptr2++;
-                } else {
-                    ptr1++;
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            if (!this.started) {
+                this.started = true;
+                if (!nextOuterBlock()) {
+                    return null;
                 }
+                this.b2_num = fill(child2, this.buffer2);
             }
-        } else if (this.p.getOperator().equals(Predicate.Op.GREATER_THAN_OR_EQ) || this.p.getOperator().equals(Predicate.Op.GREATER_THAN)) {
-            int ptr1 = 0;
-            int ptr2 = 0;
-            while (ptr1 < l1.size()) {
-                Tuple t1 = l1.get(ptr1);
-                ptr2 = 0;
-                while (ptr2 < l2.size()) {
-                    Tuple t2 = l2.get(ptr2++);
-                    if (this.p.filter(t1, t2)) {
-                        joined_tuples.add(joinTuples(t1, t2));
-                    } else {
-                        break;
+            while (true) {
+                // nested loop join the two buffers
+                for (; this.i < this.b1_num; this.i++, this.j = 0) {
+                    Tuple t1 = this.buffer1[this.i];
+                    while (this.j < this.b2_num) {
+                        Tuple t2 = this.buffer2[this.j++];
+                        if (p.filter(t1, t2)) {
+                            return joinTuples(t1, t2);
+                        }
                     }
                 }
-                ptr1++;
-            }
-        } else if (this.p.getOperator().equals(Predicate.Op.LESS_THAN_OR_EQ) || this.p.getOperator().equals(Predicate.Op.LESS_THAN)) {
-            int ptr1 = 0;
-            int ptr2 = 0;
-            while (ptr1 < l1.size()) {
-                Tuple t1 = l1.get(ptr1);
-                ptr2 = l2.size() - 1;
-                while (ptr2 >= 0) {
-                    Tuple t2 = l2.get(ptr2--);
-                    if (this.p.filter(t1, t2)) {
-                        joined_tuples.add(joinTuples(t1, t2));
-                    } else {
-                        break;
+                this.i = 0;
+                this.j = 0;
+                // next block of child2, or the next block of child1 once
+                // child2 is exhausted
+                this.b2_num = fill(child2, this.buffer2);
+                if (this.b2_num == 0) {
+                    if (!nextOuterBlock()) {
+                        return null;
                     }
+                    this.b2_num = fill(child2, this.buffer2);
                 }
-                ptr1++;
-            }         
+            }
         }
-
-        return new TupleIterator(getTupleDesc(), joined_tuples);
     }
 
-
-    private void sort_helper(List<Tuple> l, int field_index) {
-
-        JoinPredicate lt = new JoinPredicate(field_index, Predicate.Op.LESS_THAN, field_index);
-        JoinPredicate gt = new JoinPredicate(field_index, Predicate.Op.GREATER_THAN, field_index);
-
-        Comparator<Tuple> comparator = new Comparator<Tuple>() {
-
-            @Override
-            public int compare(Tuple o1, Tuple o2) {
-                if (lt.filter(o1, o2)) {
-                    return -1;
-                } else if (gt.filter(o1, o2)) {
-                    return 1;
-                } else {
-                    return 0;
+    private class SortMergeCursor extends Cursor {
+        private final Predicate.Op op = p.getOperator();
+        private final JoinPredicate eq = new JoinPredicate(p.getField1(), Predicate.Op.EQUALS, p.getField2());
+        private final JoinPredicate gt = new JoinPredicate(p.getField1(), Predicate.Op.GREATER_THAN, p.getField2());
+        // the inputs sorted on their join field: both for equality, only
+        // the right one for range predicates
+        private ExternalSort s1;
+        private ExternalSort s2;
+        // the current tuple of the left input
+        private Tuple t1;
+        // for equality, the run of s2 tuples with the key of t1, the next
+        // of them to output and the first s2 tuple after the run
+        private final ArrayList<Tuple> run2 = new ArrayList<Tuple>();
+        private int j = 0;
+        private Tuple look2;
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            if (this.s2 == null) {
+                // for > and >= the matches of a tuple are the smallest keys
+                // of s2, for < and <= the largest, so s2 is sorted to put
+                // them first
+                boolean ascending = this.op == Predicate.Op.EQUALS || this.op == Predicate.Op.GREATER_THAN
+                        || this.op == Predicate.Op.GREATER_THAN_OR_EQ;
+                this.s2 = new ExternalSort(child2, new TupleComparator(p.getField2(), ascending));
+                this.s2.sortOpenChild();
+                if (this.op == Predicate.Op.EQUALS) {
+                    this.s1 = new ExternalSort(child1, new TupleComparator(p.getField1(), true));
+                    this.s1.sortOpenChild();
                 }
             }
-        };
-        Collections.sort(l, comparator);
-    }
+            if (this.op == Predicate.Op.EQUALS) {
+                return nextEquals();
+            }
+            return nextRange();
+        }
 
-    private TupleIterator nestedLoopJoin() throws DbException, TransactionAbortedException {
-        LinkedList<Tuple> joined_tuples = new LinkedList<>();
-        this.child1.rewind();
-        while (this.child1.hasNext()) {
-            Tuple t1 = this.child1.next();
-            this.child2.rewind();
-            while (this.child2.hasNext()) {
-                Tuple t2 = this.child2.next();
-                if (this.p.filter(t1, t2)) {
-                    Tuple merged = joinTuples(t1, t2);
-                    joined_tuples.add(merged);
+        // only the run of equal keys of s2 is kept in memory
+        private Tuple nextEquals() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (this.t1 != null && this.j < this.run2.size()) {
+                    return joinTuples(this.t1, this.run2.get(this.j++));
+                }
+                if (!this.s1.hasNext()) {
+                    return null;
+                }
+                this.t1 = this.s1.next();
+                this.j = 0;
+                if (!this.run2.isEmpty() && this.eq.filter(this.t1, this.run2.get(0))) {
+                    // same key as the previous tuple of s1
+                    continue;
+                }
+                this.run2.clear();
+                // skip the s2 tuples with smaller keys
+                while (true) {
+                    if (this.look2 == null) {
+                        if (!this.s2.hasNext()) {
+                            break;
+                        }
+                        this.look2 = this.s2.next();
+                    }
+                    if (!this.gt.filter(this.t1, this.look2)) {
+                        break;
+                    }
+                    this.look2 = null;
+                }
+                while (this.look2 != null && this.eq.filter(this.t1, this.look2)) {
+                    this.run2.add(this.look2);
+                    this.look2 = this.s2.hasNext() ? this.s2.next() : null;
                 }
             }
         }
-        return new TupleIterator(getTupleDesc(), joined_tuples);
-    }
-
-    private TupleIterator blockNestedLoopJoin() throws DbException, TransactionAbortedException {
-        LinkedList<Tuple> joined_tuples = new LinkedList<>();
-
-        // create buffers to store tuples from child1, child2
-        int buffer1_num_tuples = (int) Math.floor(this.join_buffer_size / this.child1.getTupleDesc().getSize());
-        int buffer2_num_tuples = (int) Math.floor(this.join_buffer_size / this.child2.getTupleDesc().getSize());
-        Tuple[] buffer1 = new Tuple[buffer1_num_tuples];
-        Tuple[] buffer2 = new Tuple[buffer2_num_tuples];
-        int b1_index = 0;
-        int b2_index = 0;
 
-        this.child1.rewind();
-        while (this.child1.hasNext()) {
-            Tuple t1 = this.child1.next();
-            buffer1[b1_index] = t1;
-            b1_index += 1;
-            // once buffer1 is full, start to cache tuples from child2 to buffer2
-            if (b1_index >= buffer1_num_tuples) {
-                this.child2.rewind();
-                while (child2.hasNext()) {
-                    Tuple t2 = this.child2.next();
-                    buffer2[b2_index++] = t2;
-                    // once buffer2 is full, nested loop join two buffers
-                    if (b2_index >= buffer2_num_tuples) {
-                        bnlj_helper(joined_tuples, buffer1, buffer2);
-                        // clean buffer2 for the next batch of tuples from child2
-                        Arrays.fill(buffer2, null);
-                        b2_index = 0;
+        // the matches of a tuple of the left input are a prefix of s2, read
+        // from the start for every tuple until the first one that doesn't
+        // match
+        private Tuple nextRange() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (this.t1 == null) {
+                    if (!child1.hasNext()) {
+                        return null;
                     }
+                    this.t1 = child1.next();
+                    this.s2.rewind();
                 }
-                // loop join remaining tuples in buffer2
-                if (b2_index > 0 && b2_index < buffer2_num_tuples) {
-                    bnlj_helper(joined_tuples, buffer1, buffer2);
-                    Arrays.fill(buffer2, null);
-                    b2_index = 0;
+                if (this.s2.hasNext()) {
+                    Tuple t2 = this.s2.next();
+                    if (p.filter(this.t1, t2)) {
+                        return joinTuples(this.t1, t2);
+                    }
                 }
-                // clean buffer1 for the next batch of tuples from child1
-                Arrays.fill(buffer1, null);
-                b1_index = 0;
+                this.t1 = null;
             }
         }
-        // remaining tuples in buffer1
-        if (b1_index > 0 && b1_index < buffer1_num_tuples) {
-            this.child2.rewind();
-            while (child2.hasNext()) {
-                Tuple t2 = this.child2.next();
-                buffer2[b2_index++] = t2;
-                // once buffer2 is full, nested loop join two buffers
-                if (b2_index >= buffer2_num_tuples) {
-                    bnlj_helper(joined_tuples, buffer1, buffer2);
-                    // clean buffer2 for the next batch of tuples from child2
-                    Arrays.fill(buffer2, null);
-                    b2_index = 0;
-                }
+
+        void close() {
+            // the children stay open, they belong to the join
+            if (this.s1 != null) {
+                this.s1.release();
+            }
+            if (this.s2 != null) {
+                this.s2.release();
             }
-            // loop join remaining tuples in buffer2
-            if (b2_index > 0 && b2_index < buffer2_num_tuples) {
-                bnlj_helper(joined_tuples, buffer1, buffer2);
-                Arrays.fill(buffer2, null);
-                b2_index = 0;
-            } 
         }
-        return new TupleIterator(getTupleDesc(), joined_tuples);
     }
 
-    private void bnlj_helper(LinkedList<Tuple> joined_tuples, Tuple[] buffer1, Tuple[] buffer2) {
-        // buffer1 and buffer2 might not be full, include nulls.
-        int b1_num = buffer1.length - 1;
-        int b2_num = buffer2.length - 1;
-        for (; b1_num> 0 && buffer1[b1_num] == null; b1_num--);
-        for (; b2_num > 0 && buffer2[b2_num] == null; b2_num--);
-
-        Tuple[] full_b1 = new Tuple[b1_num+1];
-        Tuple[] full_b2 = new Tuple[b2_num+1];
-
-        System.arraycopy(buffer1, 0, full_b1, 0, full_b1.length);
-        System.arraycopy(buffer2, 0, full_b2, 0, full_b2.length);
-
-        for (Tuple t1: full_b1) {
-            for (Tuple t2: full_b2) {
-                if (this.p.filter(t1, t2)) {
-                    joined_tuples.add(joinTuples(t1, t2));
+    private class HashCursor extends Cursor {
+        private HashMap<Field, ArrayList<Tuple>> child_hash;
+        // the probe tuple from child2 and its matches still to output
+        private Tuple t2;
+        private ArrayList<Tuple> matched_tuples;
+        private int m = 0;
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            if (this.child_hash == null) {
+                // build on child1
+                this.child_hash = new HashMap<>();
+                child1.rewind();
+                while (child1.hasNext()) {
+                    Tuple t = child1.next();
+                    Field t_f = t.getField(p.getField1());
+                    ArrayList<Tuple> bucket = this.child_hash.get(t_f);
+                    if (bucket == null) {
+                        bucket = new ArrayList<>();
+                        this.child_hash.put(t_f, bucket);
+                    }
+                    bucket.add(t);
                 }
             }
+            while (true) {
+                if (this.matched_tuples != null && this.m < this.matched_tuples.size()) {
+                    return joinTuples(this.matched_tuples.get(this.m++), this.t2);
+                }
+                // probe with child2
+                if (!child2.hasNext()) {
+                    return null;
+                }
+                this.t2 = child2.next();
+                this.matched_tuples = this.child_hash.get(this.t2.getField(p.getField2()));
+                this.m = 0;
+            }
         }
     }
 
     public void close() {
         // some code goes here
         super.close();
+        if (this.cursor != null) {
+            this.cursor.close();
+            this.cursor = null;
+        }
         this.child1.close();
         this.child2.close();
     }
@@ -354,9 +421,12 @@ public class Join extends Operator {
     // This could be necessary for implementing e.g. nested loop joins.
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        if (this.cursor != null) {
+            this.cursor.close();
+        }
         this.child1.rewind();
         this.child2.rewind();
-        open();
+        this.cursor = newCursor();
     }
 
     /**
@@ -379,10 +449,7 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.return_tuple.hasNext()) {
-            return this.return_tuple.next();
-        }
-        return null;
+        return this.cursor.next();
     }
 
     @Override
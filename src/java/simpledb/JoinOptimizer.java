@@ -44,6 +44,29 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, Join.Algorithm.BLOCK_NESTED_LOOP, true);
+    }
+
+    /**
+     * Return the iterator for a logical join that runs the given algorithm,
+     * typically the one picked by {@link #chooseJoinAlgorithm}. HASH joins
+     * are run by the spilling {@link HashJoin} operator.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param algorithm
+     *            The join algorithm to use
+     * @param buildLeft
+     *            For HASH joins, true to build the hash table on plan1,
+     *            which should be the smaller input
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, Join.Algorithm algorithm,
+            boolean buildLeft) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,7 +91,14 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj instanceof LogicalSubplanJoinNode
+                && ((LogicalSubplanJoinNode) lj).kind != LogicalSubplanJoinNode.Kind.JOIN) {
+            j = new SemiJoin(p, plan1, plan2, ((LogicalSubplanJoinNode) lj).kind == LogicalSubplanJoinNode.Kind.ANTI);
+        } else if (algorithm == Join.Algorithm.HASH && lj.p == Predicate.Op.EQUALS) {
+            j = new HashJoin(p, plan1, plan2, buildLeft, SpillFile.DEFAULT_MEMORY_BUDGET);
+        } else {
+            j = new Join(p, plan1, plan2, algorithm);
+        }
 
         return j;
 
@@ -111,10 +141,189 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return -1.0;
+            Join.Algorithm a = chooseJoinAlgorithm(j.p, card1, card2, cost1, cost2);
+            double cost = estimateJoinCost(a, j.p, card1, card2, cost1, cost2);
+            if (hasIndex(j.t2Alias, j.f2PureName)) {
+                cost = Math.min(cost, estimateIndexJoinCost(j.p, card1, card2, cost1));
+            }
+            return cost;
         }
     }
 
+    // CPU cost of hashing a tuple into, or probing, a hash table
+    private static final double HASH_CPU_COST = 2.0;
+
+    /**
+     * Estimate the cost of a join run with a particular algorithm, in the
+     * same units as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}:
+     * the I/O cost of the scans plus one per tuple comparison or hash
+     * operation.
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if the algorithm can't
+     *         run a join with operator op
+     */
+    public static double estimateJoinCost(Join.Algorithm a, Predicate.Op op,
+            int card1, int card2, double cost1, double cost2) {
+        switch (a) {
+        case NESTED_LOOP:
+            // the inner plan is rescanned for every outer tuple
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        case BLOCK_NESTED_LOOP: {
+            // ... and for every join buffer of outer pages
+            double pages1 = cost1 / TableStats.IOCOSTPERPAGE;
+            double blockPages = (double) Join.join_buffer_size / BufferPool.getPageSize();
+            double blocks = Math.max(1, Math.ceil(pages1 / blockPages));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+        case SORT_MERGE: {
+            if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+                return Double.MAX_VALUE;
+            }
+            double sort = sortCost(card1) + sortCost(card2);
+            // equality merges in one pass, a range join visits every
+            // matching pair, about half of them
+            double merge = op == Predicate.Op.EQUALS ? card1 + card2 : (double) card1 * card2 / 2;
+            return cost1 + cost2 + sort + merge;
+        }
+        case HASH: {
+            if (op != Predicate.Op.EQUALS) {
+                return Double.MAX_VALUE;
+            }
+            double cost = cost1 + cost2 + HASH_CPU_COST * ((double) card1 + card2);
+            // an input that does not fit in memory is written to partition
+            // files and read back
+            double buildPages = Math.min(cost1, cost2) / TableStats.IOCOSTPERPAGE;
+            if (buildPages * BufferPool.getPageSize() > SpillFile.DEFAULT_MEMORY_BUDGET) {
+                cost += 2 * (cost1 + cost2);
+            }
+            return cost;
+        }
+        }
+        throw new IllegalArgumentException("unknown join algorithm " + a);
+    }
+
+    // true if the table with the given alias is indexed on a field
+    private boolean hasIndex(String alias, String fieldPureName) {
+        Integer tableid = this.p.getTableId(alias);
+        if (tableid == null) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof IndexedFile)) {
+            return false;
+        }
+        try {
+            return f.getTupleDesc().fieldNameToIndex(fieldPureName) == ((IndexedFile) f).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Pages read by an index lookup: the path from the root to a leaf and
+     * the page of the matching tuples.
+     */
+    static final int INDEX_LOOKUP_PAGES = 3;
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin}, which scans the
+     * outer input once and looks up each outer tuple in the index of the
+     * inner table, in the units of
+     * {@link #estimateJoinCost(Join.Algorithm, Predicate.Op, int, int, double, double)}.
+     * The inner table is never scanned, so the cost grows with the outer
+     * cardinality only.
+     *
+     * @param card2
+     *            the cardinality of the inner table, which bounds the
+     *            matches of a range lookup
+     * @return the estimated cost, or Double.MAX_VALUE if an index can't
+     *         look up joins with operator op
+     */
+    public static double estimateIndexJoinCost(Predicate.Op op, int card1, int card2, double cost1) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+            return Double.MAX_VALUE;
+        }
+        double lookups = (double) card1 * INDEX_LOOKUP_PAGES * TableStats.IOCOSTPERPAGE;
+        // like for a merge, a range lookup returns about half of the table
+        double matches = op == Predicate.Op.EQUALS ? card1 : (double) card1 * card2 / 2;
+        return cost1 + lookups + matches;
+    }
+
+    /**
+     * Return an {@link IndexNestedLoopJoin} for a logical join whose inner
+     * side, plan2, scans a table indexed on the join field, possibly under
+     * filters, which the join applies to the tuples it looks up.
+     *
+     * @return the join, or null if plan2 is not such a scan
+     */
+    public static DbIterator instantiateIndexJoin(TransactionId tid, LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
+        if (lj instanceof LogicalSubplanJoinNode || lj.p == Predicate.Op.NOT_EQUALS
+                || lj.p == Predicate.Op.LIKE) {
+            return null;
+        }
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator scan = plan2;
+        while (scan instanceof Filter) {
+            preds.addAll(Arrays.asList(((Filter) scan).getPredicates()));
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        String tableName;
+        String alias;
+        if (scan instanceof SeqScan) {
+            tableName = ((SeqScan) scan).getTableName();
+            alias = ((SeqScan) scan).getAlias();
+        } else if (scan instanceof ParallelSeqScan && ((ParallelSeqScan) scan).getOutFields() == null) {
+            preds.addAll(Arrays.asList(((ParallelSeqScan) scan).getPredicates()));
+            tableName = ((ParallelSeqScan) scan).getTableName();
+            alias = ((ParallelSeqScan) scan).getAlias();
+        } else {
+            return null;
+        }
+        int tableid = Database.getCatalog().getTableId(tableName);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof IndexedFile)) {
+            return null;
+        }
+        int t1id, t2id;
+        try {
+            t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+            t2id = plan2.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in join " + lj.f1QuantifiedName + " "
+                    + lj.f2QuantifiedName);
+        }
+        if (t2id != ((IndexedFile) f).keyField()) {
+            return null;
+        }
+        return new IndexNestedLoopJoin(new JoinPredicate(t1id, lj.p, t2id), plan1, tid, tableid,
+                alias, preds.toArray(new Predicate[0]));
+    }
+
+    private static double sortCost(int card) {
+        return card * (Math.log(Math.max(card, 2)) / Math.log(2));
+    }
+
+    /**
+     * Pick the cheapest join algorithm for a join with operator op between
+     * inputs of the given estimated cardinalities and costs.
+     *
+     * @see #estimateJoinCost(Join.Algorithm, Predicate.Op, int, int, double, double)
+     */
+    public static Join.Algorithm chooseJoinAlgorithm(Predicate.Op op,
+            int card1, int card2, double cost1, double cost2) {
+        Join.Algorithm best = Join.Algorithm.BLOCK_NESTED_LOOP;
+        double bestCost = estimateJoinCost(best, op, card1, card2, cost1, cost2);
+        for (Join.Algorithm a : Join.Algorithm.values()) {
+            double cost = estimateJoinCost(a, op, card1, card2, cost1, cost2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -157,6 +366,25 @@ public class JoinOptimizer {
             Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        double c;
+        if (joinOp == Predicate.Op.EQUALS || joinOp == Predicate.Op.LIKE) {
+            // a key matches at most one tuple of the other side
+            if (t1pkey && t2pkey) {
+                c = Math.min(card1, card2);
+            } else if (t1pkey) {
+                c = card2;
+            } else if (t2pkey) {
+                c = card1;
+            } else {
+                c = Math.max(card1, card2);
+            }
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            c = (double) card1 * card2 - Math.max(card1, card2);
+        } else {
+            // range joins keep a fixed fraction of the cross product
+            c = 0.3 * card1 * card2;
+        }
+        card = (int) Math.min(Integer.MAX_VALUE, c);
         return card <= 0 ? 1 : card;
     }
 
@@ -12,6 +12,8 @@ public class JoinPredicate implements Serializable {
     private int field1;
     private int field2;
     private Predicate.Op op;
+    // specialized on the first call to filter(), once the field types are known
+    private transient Evaluator evaluator;
 
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
@@ -42,9 +44,39 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        Field f1 = t1.getField(this.field1);
-        Field f2 = t2.getField(this.field2);
-        return f1.compare(this.op, f2);
+        Evaluator e = this.evaluator;
+        if (e == null) {
+            e = compile(t1.getTupleDesc().getFieldType(this.field1),
+                    t2.getTupleDesc().getFieldType(this.field2));
+            this.evaluator = e;
+        }
+        return e.eval(t1, t2);
+    }
+
+    /**
+     * Pick the evaluator for the given field types. Joins of two int
+     * columns get a class per operator that compares primitive ints;
+     * everything else goes through Field.compare.
+     */
+    private Evaluator compile(Type type1, Type type2) {
+        if (type1 == Type.INT_TYPE && type2 == Type.INT_TYPE) {
+            switch (this.op) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(this.field1, this.field2);
+            case NOT_EQUALS:
+                return new IntNotEquals(this.field1, this.field2);
+            case GREATER_THAN:
+                return new IntGreaterThan(this.field1, this.field2);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(this.field1, this.field2);
+            case LESS_THAN:
+                return new IntLessThan(this.field1, this.field2);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(this.field1, this.field2);
+            }
+        }
+        return new Generic(this.field1, this.op, this.field2);
     }
     
     public int getField1()
@@ -64,4 +96,75 @@ public class JoinPredicate implements Serializable {
         // some code goes here
         return this.op;
     }
+
+    /**
+     * A join predicate specialized for one operator and pair of field types.
+     */
+    abstract static class Evaluator {
+        abstract boolean eval(Tuple t1, Tuple t2);
+    }
+
+    private static final class Generic extends Evaluator {
+        private final int field1;
+        private final Predicate.Op op;
+        private final int field2;
+
+        Generic(int field1, Predicate.Op op, int field2) {
+            this.field1 = field1;
+            this.op = op;
+            this.field2 = field2;
+        }
+
+        boolean eval(Tuple t1, Tuple t2) {
+            return t1.getField(this.field1).compare(this.op, t2.getField(this.field2));
+        }
+    }
+
+    private abstract static class IntEvaluator extends Evaluator {
+        final int field1;
+        final int field2;
+
+        IntEvaluator(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        final int left(Tuple t1) {
+            return ((IntField) t1.getField(this.field1)).getValue();
+        }
+
+        final int right(Tuple t2) {
+            return ((IntField) t2.getField(this.field2)).getValue();
+        }
+    }
+
+    private static final class IntEquals extends IntEvaluator {
+        IntEquals(int field1, int field2) { super(field1, field2); }
+        boolean eval(Tuple t1, Tuple t2) { return left(t1) == right(t2); }
+    }
+
+    private static final class IntNotEquals extends IntEvaluator {
+        IntNotEquals(int field1, int field2) { super(field1, field2); }
+        boolean eval(Tuple t1, Tuple t2) { return left(t1) != right(t2); }
+    }
+
+    private static final class IntGreaterThan extends IntEvaluator {
+        IntGreaterThan(int field1, int field2) { super(field1, field2); }
+        boolean eval(Tuple t1, Tuple t2) { return left(t1) > right(t2); }
+    }
+
+    private static final class IntGreaterThanOrEq extends IntEvaluator {
+        IntGreaterThanOrEq(int field1, int field2) { super(field1, field2); }
+        boolean eval(Tuple t1, Tuple t2) { return left(t1) >= right(t2); }
+    }
+
+    private static final class IntLessThan extends IntEvaluator {
+        IntLessThan(int field1, int field2) { super(field1, field2); }
+        boolean eval(Tuple t1, Tuple t2) { return left(t1) < right(t2); }
+    }
+
+    private static final class IntLessThanOrEq extends IntEvaluator {
+        IntLessThanOrEq(int field1, int field2) { super(field1, field2); }
+        boolean eval(Tuple t1, Tuple t2) { return left(t1) <= right(t2); }
+    }
 }
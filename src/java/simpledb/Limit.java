@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit returns the first n tuples of its child. Once n tuples have been
+ * returned the child is not read any further, so a pipelined plan below it
+ * stops doing work as soon as the limit is reached.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private final int limit;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, DbIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /**
+     * @return the number of tuples this operator returns at most
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        super.open();
+        this.returned = 0;
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.returned = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (this.returned >= this.limit || !this.child.hasNext()) {
+            return null;
+        }
+        this.returned++;
+        return this.child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -29,12 +29,14 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -81,6 +83,15 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** Return true if pureName is the primary key of the table aliased as alias */
+    private boolean isPrimaryKey(String alias, String pureName) {
+        Integer id = getTableId(alias);
+        if (id == null)
+            return false;
+        String pkey = Database.getCatalog().getPrimaryKey(id);
+        return pkey != null && pkey.equals(pureName);
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -156,6 +167,31 @@ public class LogicalPlan {
         joins.addElement(lj);
     }
 
+    /** Add a semi-join or anti-join between a field and a subquery: the
+     *  tuples with (or without) a match in the subquery are kept, each
+     *  once, and the columns of the subquery are not added.
+     *  @param joinField1 The name of the field tested against the
+     *  subquery, as for {@link #addJoin(String, DbIterator, Predicate.Op)}
+     *  @param subplan the subquery; the field is compared with the
+     *    first field in its result set
+     *  @param pred The join predicate.
+     *  @param anti true to keep the tuples without a match, as for NOT IN
+     *    and NOT EXISTS
+     *  @throws ParsingException if the field is ambiguous, or is not in
+     *      one of the tables added via {@link #addScan}
+     */
+    public void addSemiJoin(String joinField1, DbIterator subplan, Predicate.Op pred, boolean anti) throws ParsingException {
+        joinField1 = disambiguateName(joinField1);
+
+        String table1 = joinField1.split("[.]")[0];
+        String pureField = joinField1.split("[.]")[1];
+
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1, pureField, subplan, pred,
+                anti ? LogicalSubplanJoinNode.Kind.ANTI : LogicalSubplanJoinNode.Kind.SEMI);
+        System.out.println("Added " + (anti ? "anti" : "semi") + "-join on " + joinField1);
+        joins.addElement(lj);
+    }
+
     /** Add a scan to the plan. One scan node needs to be added for each alias of a table
         accessed by the plan.
         @param table the id of the table accessed by the plan (can be resolved to a DbFile using {@link Catalog#getDatabaseFile}
@@ -186,36 +222,62 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Any number of aggregates may be added; they are all
+        computed in one pass, grouped by every field added with
+        {@link #addGroupBy} or passed as gfield.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.add(op);
+        aggFields.add(afield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field.  Groups are formed on the fields in the
+        order they are added, and a field added twice is only used once.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are sorted
+        on in the order they are added, so the first field added is the most significant.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Limit the result of the query to its first n rows, as with a LIMIT clause.
+        @param n the maximum number of rows returned
+     * @throws ParsingException if n is negative
+    */
+    public void setLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("Invalid LIMIT " + n);
+        limit = n;
+    }
+
+    /** @return the LIMIT of the query, or -1 if it has none */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +333,19 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    // the index of field fname in td, which is named in the given clause
+    private static int fieldIndex(TupleDesc td, String fname, String clause) throws ParsingException {
+        try {
+            return td.fieldNameToIndex(fname);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + fname + " in " + clause);
+        }
+    }
+
+    private static Type fieldType(TupleDesc td, String fname, String clause) throws ParsingException {
+        return td.getFieldType(fieldIndex(td, fname, clause));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,6 +381,8 @@ public class LogicalPlan {
 
         }
 
+        // predicates on the same table are applied by a single Filter
+        HashMap<String,ArrayList<Predicate>> filterPreds = new HashMap<String,ArrayList<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +400,11 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parse(lf.c);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException("Invalid constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -334,7 +412,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!filterPreds.containsKey(lf.tableAlias)) {
+                filterPreds.put(lf.tableAlias, new ArrayList<Predicate>());
+            }
+            filterPreds.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,11 +424,40 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        for (LogicalScanNode table : tables) {
+            ArrayList<Predicate> predList = filterPreds.get(table.alias);
+            Predicate[] preds = predList == null ? new Predicate[0] : predList.toArray(new Predicate[0]);
+            // large heap files are scanned and filtered on several threads
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            if (ParallelSeqScan.DEFAULT_PARALLELISM > 1 && file instanceof HeapFile
+                    && ((HeapFile) file).numPages() >= ParallelSeqScan.MIN_PARALLEL_PAGES) {
+                subplanMap.put(table.alias, new ParallelSeqScan(t, table.t, table.alias, preds, null,
+                        ParallelSeqScan.DEFAULT_PARALLELISM));
+                if (explain) {
+                    System.out.println("Scan " + table.alias + ": parallel ("
+                            + ParallelSeqScan.DEFAULT_PARALLELISM + " threads)");
+                }
+            } else if (preds.length > 0) {
+                subplanMap.put(table.alias, new Filter(preds, subplanMap.get(table.alias)));
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality and cost of each subplan, used to pick join
+        // algorithms; tables without statistics get no estimate
+        HashMap<String,Integer> cards = new HashMap<String,Integer>();
+        HashMap<String,Double> costs = new HashMap<String,Double>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s != null) {
+                cards.put(table.alias, s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+                costs.put(table.alias, s.estimateScanCost());
+            }
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,8 +491,51 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
-            DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            DbIterator j = null;
+            Join.Algorithm alg = Join.Algorithm.BLOCK_NESTED_LOOP;
+            boolean buildLeft = true;
+            Integer card1 = cards.get(t1name), card2 = cards.get(t2name);
+            if (!isSubqueryJoin && card1 != null && card2 != null) {
+                double cost1 = costs.get(t1name), cost2 = costs.get(t2name);
+                alg = JoinOptimizer.chooseJoinAlgorithm(lj.p, card1, card2, cost1, cost2);
+                buildLeft = card1 <= card2;
+                boolean t1pkey = isPrimaryKey(lj.t1Alias, lj.f1PureName);
+                boolean t2pkey = isPrimaryKey(lj.t2Alias, lj.f2PureName);
+                int card = JoinOptimizer.estimateTableJoinCardinality(lj.p, lj.t1Alias, lj.t2Alias,
+                        lj.f1PureName, lj.f2PureName, card1, card2, t1pkey, t2pkey, statsMap, getTableAliasToIdMapping());
+                double cost = JoinOptimizer.estimateJoinCost(alg, lj.p, card1, card2, cost1, cost2);
+                // a small outer input is better joined by looking up each
+                // of its tuples in an index on the inner table
+                double indexCost = JoinOptimizer.estimateIndexJoinCost(lj.p, card1, card2, cost1);
+                if (indexCost < cost) {
+                    j = JoinOptimizer.instantiateIndexJoin(t, lj, plan1, plan2);
+                    if (j != null) {
+                        cost = indexCost;
+                    }
+                }
+                if (explain) {
+                    System.out.println("Join " + lj.f1QuantifiedName + " " + lj.p + " " + lj.f2QuantifiedName
+                            + ": " + (j != null ? "INDEX_NESTED_LOOP" : alg)
+                            + " (cost " + cost + ", cardinality " + card + ")");
+                }
+                cards.put(t1name, card);
+                costs.put(t1name, cost);
+            } else if (isSubqueryJoin && ((LogicalSubplanJoinNode) lj).kind != LogicalSubplanJoinNode.Kind.JOIN) {
+                // at most every outer tuple is kept, each once
+                if (explain) {
+                    System.out.println("Join " + lj.f1QuantifiedName + " " + lj.p + " subquery: "
+                            + ((LogicalSubplanJoinNode) lj).kind + " join");
+                }
+            } else {
+                cards.remove(t1name);
+                if (explain) {
+                    System.out.println("Join " + lj.f1QuantifiedName + " " + lj.p + " " + lj.f2QuantifiedName
+                            + ": " + alg + " (no estimate)");
+                }
+            }
+            if (j == null) {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, alg, buildLeft);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -406,7 +559,8 @@ public class LogicalPlan {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
         
-        DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        String rootName = subplanMap.keySet().iterator().next();
+        DbIterator node =  subplanMap.get(rootName);
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -414,30 +568,28 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // aggregates follow the group by fields in the Aggregate output
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                int out = groupByFields.size();
+                int a = 0;
+                for (; a < aggFields.size(); a++) {
+                    if (aggFields.get(a).equals(si.fname) && aggOps.get(a).equalsIgnoreCase(si.aggOp))
+                        break;
+                    out += Aggregate.resultTypes(fieldType(td, aggFields.get(a), "SELECT list"), getAggOp(aggOps.get(a))).length;
+                }
+                if (a == aggFields.size()) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outFields.add(out);
+                outTypes.add(Aggregate.resultType(fieldType(td, si.fname, "SELECT list"), getAggOp(si.aggOp)));
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
-                    TupleDesc td = node.getTupleDesc();
-                    int  id;
-                    try {
-                        id = td.fieldNameToIndex(groupByField);
-                    } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
-                    }
-                    outTypes.add(td.getFieldType(id));
+                    outFields.add(g);
+                    outTypes.add(fieldType(node.getTupleDesc(), si.fname, "GROUP BY statement"));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
                     for ( i = 0; i < td.numFields(); i++) {
@@ -460,12 +612,38 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int[] afields = new int[aggFields.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+            for (int i = 0; i < afields.length; i++) {
+                afields[i] = fieldIndex(td, aggFields.get(i), "SELECT list");
+                aops[i] = getAggOp(aggOps.get(i));
+            }
+            int[] gfields = new int[groupByFields.size()];
+            for (int i = 0; i < gfields.length; i++) {
+                gfields[i] = fieldIndex(td, groupByFields.get(i), "GROUP BY statement");
+            }
+            // input already grouped on the GROUP BY fields is aggregated as
+            // it streams by; otherwise large inputs are aggregated on several
+            // threads, when every aggregate can be merged from partials
+            boolean streaming = gfields.length > 0 && StreamAggregate.isGroupedOn(node, gfields);
+            Integer card = cards.get(rootName);
+            boolean parallel = !streaming && ParallelAggregate.DEFAULT_PARALLELISM > 1
+                    && card != null && card >= ParallelAggregate.MIN_PARALLEL_ROWS;
+            for (int i = 0; parallel && i < afields.length; i++) {
+                parallel = ParallelAggregate.supports(td.getFieldType(afields[i]), aops[i]);
+            }
+            if (explain) {
+                System.out.println("Aggregate: " + (streaming ? "streaming" : parallel
+                        ? "parallel (" + ParallelAggregate.DEFAULT_PARALLELISM + " threads)" : "serial"));
+            }
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                if (streaming)
+                    aggNode = new StreamAggregate(node, afields, gfields, aops);
+                else if (parallel)
+                    aggNode = new ParallelAggregate(node, afields, gfields, aops);
+                else
+                    aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,7 +653,25 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                try {
+                    oByIndexes[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.get(i) + " in ORDER BY");
+                }
+                ascs[i] = oByAscs.get(i);
+            }
+            // a limit too large for the heap of a TopN is sorted on disk
+            if (limit >= 0 && TopN.fits(limit, node.getTupleDesc(), SpillFile.DEFAULT_MEMORY_BUDGET))
+                node = new TopN(oByIndexes, ascs, limit, node);
+            else if (limit >= 0)
+                node = new Limit(limit, new OrderBy(oByIndexes, ascs, node));
+            else
+                node = new OrderBy(oByIndexes, ascs, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -8,8 +8,24 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
     
     /** The subplan (used on the inner) of the join */
     DbIterator subPlan;
+
+    /** How the tuples of the outer are matched against the subplan */
+    public enum Kind {
+        /** a regular join, returning every matching pair */
+        JOIN,
+        /** the outer tuples with a match, as for IN and EXISTS */
+        SEMI,
+        /** the outer tuples without a match, as for NOT IN and NOT EXISTS */
+        ANTI
+    }
+
+    Kind kind;
     
     public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred) {
+        this(table1, joinField1, sp, pred, Kind.JOIN);
+    }
+
+    public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred, Kind kind) {
         t1Alias = table1;
         String[] tmps = joinField1.split("[.]");
         if (tmps.length>1)
@@ -19,10 +35,11 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         f1QuantifiedName=t1Alias+"."+f1PureName;
         subPlan = sp;
         p = pred;
+        this.kind = kind;
     }
     
     @Override public int hashCode() {
-        return t1Alias.hashCode() + f1PureName.hashCode() + subPlan.hashCode();
+        return t1Alias.hashCode() + f1PureName.hashCode() + subPlan.hashCode() + kind.hashCode();
     }
     
     @Override public boolean equals(Object o) {
@@ -30,11 +47,11 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         if (!(o instanceof LogicalSubplanJoinNode))
             return false;
         
-        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan));
+        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan) && ((LogicalSubplanJoinNode)o).kind == kind);
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, kind);
         return j2;
     }
 
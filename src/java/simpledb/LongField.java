@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single 64-bit integer.
+ */
+public class LongField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long value;
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param l The value of this field.
+     */
+    public LongField(long l) {
+        value = l;
+    }
+
+    public String toString() {
+        return Long.toString(value);
+    }
+
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return ((LongField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a LongField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        LongField lVal = (LongField) val;
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == lVal.value;
+        case NOT_EQUALS:
+            return value != lVal.value;
+        case GREATER_THAN:
+            return value > lVal.value;
+        case GREATER_THAN_OR_EQ:
+            return value >= lVal.value;
+        case LESS_THAN:
+            return value < lVal.value;
+        case LESS_THAN_OR_EQ:
+            return value <= lVal.value;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.LONG_TYPE
+     */
+    public Type getType() {
+        return Type.LONG_TYPE;
+    }
+}
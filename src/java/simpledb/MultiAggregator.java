@@ -0,0 +1,264 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Computes several aggregates, grouped by any number of fields, in one pass.
+ * <p>
+ * Every distinct combination of group-by values is given a group number.
+ * Combinations that fit in a long are numbered by a {@link GroupTable}.
+ * This covers a single INT, LONG, DATE or DOUBLE field, or two INT fields.
+ * Other combinations are numbered through a HashMap. Each aggregate is then
+ * computed by the single-aggregate Aggregator for its column type, grouped
+ * by the group number, so all types and operators behave exactly as they do
+ * in a single aggregate.
+ * <p>
+ * Result tuples hold the group-by fields, in the order given, followed by
+ * the result columns of every aggregate.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    int[] groupby_indexes;
+    Type[] groupby_fieldtypes;
+    int[] agg_indexes;
+    Op[] agg_ops;
+    TupleDesc td;
+
+    // how group-by values become group numbers
+    private final boolean packed;
+    private final GroupTable groups = new GroupTable();
+    private final HashMap<List<Field>, Integer> field_groups = new HashMap<>();
+    // the group-by values of every group, and its number as a field
+    private final ArrayList<Field[]> group_values = new ArrayList<>();
+    private final ArrayList<IntField> group_ids = new ArrayList<>();
+
+    // one aggregator per aggregate, fed tuples of (group number, value[s])
+    private final Aggregator[] aggs;
+    private final Tuple[] inputs;
+    private final int[] widths;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple,
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based index of the field of each aggregate
+     * @param afieldtypes
+     *            the type of the field of each aggregate
+     * @param what
+     *            the operator of each aggregate
+     * @throws IllegalArgumentException if an operator is not supported for
+     *            its field type
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] what) {
+        this.groupby_indexes = gbfields.clone();
+        this.groupby_fieldtypes = gbfieldtypes.clone();
+        this.agg_indexes = afields.clone();
+        this.agg_ops = what.clone();
+        this.packed = gbfields.length == 0
+                || (gbfields.length == 1 && GroupTable.hasPrimitiveKey(gbfieldtypes[0]))
+                || (gbfields.length == 2 && gbfieldtypes[0] == Type.INT_TYPE && gbfieldtypes[1] == Type.INT_TYPE);
+
+        ArrayList<Type> types = new ArrayList<>(Arrays.asList(gbfieldtypes));
+        this.aggs = new Aggregator[afields.length];
+        this.inputs = new Tuple[afields.length];
+        this.widths = new int[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            // SC_AVG also reads the count that follows the sum
+            int width = what[i] == Op.SC_AVG ? 2 : 1;
+            Type[] in_types = new Type[1 + width];
+            in_types[0] = Type.INT_TYPE;
+            in_types[1] = afieldtypes[i];
+            if (width == 2) {
+                in_types[2] = Type.INT_TYPE;
+            }
+            this.inputs[i] = new Tuple(new TupleDesc(in_types));
+            this.aggs[i] = Aggregate.newAggregator(0, Type.INT_TYPE, 1, afieldtypes[i], what[i]);
+            Type[] res_types = Aggregate.resultTypes(afieldtypes[i], what[i]);
+            this.widths[i] = res_types.length;
+            types.addAll(Arrays.asList(res_types));
+        }
+        this.td = new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    // the number of the group of tup, which is added if it is new and add
+    // is true; -1 if it is new and add is false
+    private int group(Tuple tup, boolean add) {
+        int n = this.groupby_indexes.length;
+        if (this.packed) {
+            long key;
+            if (n == 0) {
+                key = 0;
+            } else if (n == 1) {
+                key = GroupTable.primitiveKey(tup.getField(this.groupby_indexes[0]));
+            } else {
+                key = ((long) ((IntField) tup.getField(this.groupby_indexes[0])).getValue() << 32)
+                        | (((IntField) tup.getField(this.groupby_indexes[1])).getValue() & 0xFFFFFFFFL);
+            }
+            if (!add) {
+                return this.groups.find(key);
+            }
+            int g = this.groups.findOrInsert(key);
+            if (g == this.group_values.size()) {
+                addGroup(tup);
+            }
+            return g;
+        }
+        Field[] values = new Field[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = tup.getField(this.groupby_indexes[i]);
+        }
+        List<Field> key = Arrays.asList(values);
+        Integer g = this.field_groups.get(key);
+        if (g == null) {
+            if (!add) {
+                return -1;
+            }
+            g = this.group_values.size();
+            this.field_groups.put(key, g);
+            addGroup(tup);
+        }
+        return g;
+    }
+
+    private void addGroup(Tuple tup) {
+        Field[] values = new Field[this.groupby_indexes.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = tup.getField(this.groupby_indexes[i]);
+        }
+        this.group_ids.add(new IntField(this.group_values.size()));
+        this.group_values.add(values);
+    }
+
+    /**
+     * Merge a new tuple into every aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        merge(tup, group(tup, true));
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        int g = group(tup, false);
+        if (g < 0) {
+            return false;
+        }
+        merge(tup, g);
+        return true;
+    }
+
+    public int numGroups() {
+        return this.group_values.size();
+    }
+
+    // merge tup into every aggregate of group g
+    private void merge(Tuple tup, int g) {
+        IntField id = this.group_ids.get(g);
+        for (int i = 0; i < this.aggs.length; i++) {
+            Tuple in = this.inputs[i];
+            in.setField(0, id);
+            in.setField(1, tup.getField(this.agg_indexes[i]));
+            if (this.agg_ops[i] == Op.SC_AVG) {
+                in.setField(2, tup.getField(this.agg_indexes[i] + 1));
+            }
+            this.aggs[i].mergeTupleIntoGroup(in);
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by values followed by
+     *         the result of each aggregate
+     */
+    public DbIterator iterator() {
+        // every aggregator numbers the groups in the order their numbers
+        // were first merged, so group g is row g of each of them
+        final DbIterator[] its = new DbIterator[this.aggs.length];
+        for (int i = 0; i < its.length; i++) {
+            its[i] = this.aggs[i].iterator();
+        }
+        return new GroupIterator(this.td) {
+            private static final long serialVersionUID = 1L;
+
+            public void open() {
+                super.open();
+                for (DbIterator it : its) {
+                    openAggregate(it);
+                }
+            }
+
+            public void rewind() {
+                super.rewind();
+                for (DbIterator it : its) {
+                    it.close();
+                    openAggregate(it);
+                }
+            }
+
+            public void close() {
+                super.close();
+                for (DbIterator it : its) {
+                    it.close();
+                }
+            }
+
+            int numGroups() {
+                return group_values.size();
+            }
+
+            Tuple group(int g) {
+                return result(g, its);
+            }
+        };
+    }
+
+    private static void openAggregate(DbIterator it) {
+        try {
+            it.open();
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the result tuple of group g, from the next row of each aggregator
+    private Tuple result(int g, DbIterator[] its) {
+        Tuple t = new Tuple(this.td);
+        Field[] values = this.group_values.get(g);
+        int offset = 0;
+        for (; offset < values.length; offset++) {
+            t.setField(offset, values[offset]);
+        }
+        for (int i = 0; i < its.length; i++) {
+            Tuple r;
+            try {
+                r = its[i].next();
+            } catch (DbException e) {
+                throw new RuntimeException(e);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+            assert ((IntField) r.getField(0)).getValue() == g;
+            for (int j = 0; j < this.widths[i]; j++) {
+                t.setField(offset + j, r.getField(1 + j));
+            }
+            offset += this.widths[i];
+        }
+        return t;
+    }
+
+}
@@ -0,0 +1,218 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DoubleFields
+ * or DateFields.
+ * <p>
+ * COUNT produces an IntField, like the other aggregators. SUM, AVG, MIN and
+ * MAX produce a field of the same type as the aggregate field; the average
+ * of LONG values is truncated like the average of INT values. SUM is not
+ * defined over dates.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    int groupby_index;
+    Type groupby_fieldtype;
+    int agg_index;
+    Type agg_fieldtype;
+    Op agg_op;
+    TupleDesc td;
+    // group numbers by group-by field, and the field and state of each group
+    private final HashMap<Field, Integer> field_groups = new HashMap<>();
+    private final ArrayList<Field> group_fields = new ArrayList<>();
+    private final ArrayList<Accumulator> accs = new ArrayList<>();
+
+    /**
+     * Running state of one group. Exactly one of l and d is used, depending
+     * on the type of the aggregate field.
+     */
+    private static class Accumulator implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        long count;
+        long l;
+        double d;
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE or
+     *            DATE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if the operator is not supported for
+     *            the aggregate field type
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (afieldtype != Type.LONG_TYPE && afieldtype != Type.DOUBLE_TYPE && afieldtype != Type.DATE_TYPE) {
+            throw new IllegalArgumentException("not a numeric type: " + afieldtype);
+        }
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG || (what == Op.SUM && afieldtype == Type.DATE_TYPE)) {
+            throw new IllegalArgumentException("unsupported aggregate " + what + " over " + afieldtype);
+        }
+        this.groupby_index = gbfield;
+        this.groupby_fieldtype = gbfieldtype;
+        this.agg_index = afield;
+        this.agg_fieldtype = afieldtype;
+        this.agg_op = what;
+        Type res_type = Aggregate.resultType(afieldtype, what);
+        if (gbfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(new Type[]{res_type});
+        } else {
+            this.td = new TupleDesc(new Type[]{gbfieldtype, res_type});
+        }
+    }
+
+    // the average of a date column is kept as a double sum, a long sum of
+    // epoch milliseconds overflows after a few million rows
+    private boolean floating() {
+        return this.agg_fieldtype == Type.DOUBLE_TYPE
+                || (this.agg_fieldtype == Type.DATE_TYPE && this.agg_op == Op.AVG);
+    }
+
+    private static long longValue(Field f) {
+        if (f instanceof DateField) {
+            return ((DateField) f).getValue();
+        }
+        return ((LongField) f).getValue();
+    }
+
+    private static double doubleValue(Field f) {
+        if (f instanceof DoubleField) {
+            return ((DoubleField) f).getValue();
+        }
+        return longValue(f);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field groupby_field = groupField(tup);
+        Integer g = this.field_groups.get(groupby_field);
+        if (g == null) {
+            Accumulator acc = new Accumulator();
+            this.field_groups.put(groupby_field, this.accs.size());
+            this.group_fields.add(groupby_field);
+            this.accs.add(acc);
+            merge(tup, acc, true);
+        } else {
+            merge(tup, this.accs.get(g), false);
+        }
+    }
+
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        Integer g = this.field_groups.get(groupField(tup));
+        if (g == null) {
+            return false;
+        }
+        merge(tup, this.accs.get(g), false);
+        return true;
+    }
+
+    public int numGroups() {
+        return this.accs.size();
+    }
+
+    // the group-by field of tup, null if there is no grouping
+    private Field groupField(Tuple tup) {
+        if (this.groupby_index == Aggregator.NO_GROUPING) {
+            return null;
+        }
+        return tup.getField(this.groupby_index);
+    }
+
+    // merge tup into the state of its group, which is new if first
+    private void merge(Tuple tup, Accumulator acc, boolean first) {
+        Field to_agg = tup.getField(this.agg_index);
+        acc.count++;
+        if (this.agg_op == Op.COUNT) {
+            return;
+        }
+
+        if (floating()) {
+            double v = doubleValue(to_agg);
+            if (first) {
+                acc.d = v;
+            } else if (this.agg_op == Op.MIN) {
+                acc.d = Math.min(acc.d, v);
+            } else if (this.agg_op == Op.MAX) {
+                acc.d = Math.max(acc.d, v);
+            } else {
+                acc.d += v;
+            }
+        } else {
+            long v = longValue(to_agg);
+            if (first) {
+                acc.l = v;
+            } else if (this.agg_op == Op.MIN) {
+                acc.l = Math.min(acc.l, v);
+            } else if (this.agg_op == Op.MAX) {
+                acc.l = Math.max(acc.l, v);
+            } else {
+                acc.l += v;
+            }
+        }
+    }
+
+    private Field result(Accumulator acc) {
+        if (this.agg_op == Op.COUNT) {
+            return new IntField((int) acc.count);
+        }
+        if (this.agg_fieldtype == Type.DOUBLE_TYPE) {
+            return new DoubleField(this.agg_op == Op.AVG ? acc.d / acc.count : acc.d);
+        }
+        if (this.agg_fieldtype == Type.DATE_TYPE) {
+            return new DateField(this.agg_op == Op.AVG ? (long) (acc.d / acc.count) : acc.l);
+        }
+        return new LongField(this.agg_op == Op.AVG ? acc.l / acc.count : acc.l);
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        return new GroupIterator(this.td) {
+            private static final long serialVersionUID = 1L;
+
+            int numGroups() {
+                return accs.size();
+            }
+
+            Tuple group(int g) {
+                Tuple t = new Tuple(td);
+                if (groupby_index == Aggregator.NO_GROUPING) {
+                    t.setField(0, result(accs.get(g)));
+                } else {
+                    t.setField(0, group_fields.get(g));
+                    t.setField(1, result(accs.get(g)));
+                }
+                return t;
+            }
+        };
+    }
+
+}
@@ -3,18 +3,19 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. The child is
+ * sorted by an {@link ExternalSort}, so inputs larger than memory are sorted
+ * in runs on disk.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private boolean[] ascs;
+    private final long memoryBudget;
+    private transient ExternalSort sorter;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,26 +28,113 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, SpillFile.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts within the given memory budget.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBudget
+     *            bytes of tuples held in memory before sorted runs are
+     *            written to disk
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, long memoryBudget) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryBudget);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child) {
+        this(orderbyFields, ascs, child, SpillFile.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields within the
+     * given memory budget.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBudget
+     *            bytes of tuples held in memory before sorted runs are
+     *            written to disk
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child, long memoryBudget) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("need one direction for each of at least one sort field");
+        }
+        this.memoryBudget = memoryBudget;
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
     }
     
+    /**
+     * @return true if the first sort field is in ascending order
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
+    /**
+     * @return the first sort field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
+    /**
+     * @return the name of the first sort field
+     */
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return all sort fields, most significant first
+     */
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if it is in ascending order
+     */
+    public boolean[] getASCs()
+    {
+        return this.ascs.clone();
+    }
+
+    /**
+     * @return the number of bytes of tuples sorted in memory at a time
+     */
+    public long memoryBudget()
+    {
+        return this.memoryBudget;
     }
     
     public TupleDesc getTupleDesc() {
@@ -55,22 +143,21 @@ public class OrderBy extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sorter = new ExternalSort(child, new TupleComparator(orderByFields, ascs), memoryBudget);
+        sorter.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sorter.rewind();
     }
 
     /**
@@ -82,8 +169,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sorter != null && sorter.hasNext()) {
+            return sorter.next();
         } else
             return null;
     }
@@ -99,25 +186,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,516 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelAggregate computes the same result as {@link Aggregate}, with the
+ * aggregation work spread over several threads.
+ * <p>
+ * The child is read in batches by the calling thread. With a GROUP BY,
+ * every tuple is handed to the worker its group hashes to, so the workers
+ * hold disjoint sets of groups; each worker runs an Aggregate with an equal
+ * share of the memory budget, which spills the groups that don't fit, and
+ * the results of the workers are returned one after the other.
+ * <p>
+ * Without a GROUP BY, every batch is merged by one of the worker threads
+ * into that worker's own partial aggregate, a single group. When the child
+ * is exhausted, the partial results are merged into the final one: SUM and
+ * COUNT partials are summed, MIN and MAX partials are combined with the
+ * same operator, and AVG is computed as SUM_COUNT partials that are merged
+ * with SC_AVG. Only MIN, MAX, SUM and COUNT, and AVG over INT columns, can
+ * be split into partials; see {@link #supports}.
+ */
+public class ParallelAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of worker threads used when none is given; set with the
+     * simpledb.agg.parallelism system property, the number of processors
+     * by default.
+     */
+    public static final int DEFAULT_PARALLELISM = Math.max(1,
+            Integer.getInteger("simpledb.agg.parallelism", Runtime.getRuntime().availableProcessors()));
+    /** Number of tuples handed to a worker at a time. */
+    static final int BATCH_SIZE = 1024;
+    /** Inputs estimated to be smaller than this are aggregated serially. */
+    static final int MIN_PARALLEL_ROWS = 100000;
+    // handed to each worker when the child is exhausted
+    private static final ArrayList<Tuple> END = new ArrayList<Tuple>();
+    // seed of the hash that routes groups to workers, independent of the
+    // seeds the workers' Aggregates partition their spilled groups with
+    private static final int ROUTING_SEED = -1;
+
+    private DbIterator child;
+    private final int[] agg_indexes;
+    private final int[] groupby_indexes;
+    private final Aggregator.Op[] agg_ops;
+    private final int parallelism;
+    private final long memory_budget;
+    // the aggregates whose results are returned one after the other, and
+    // the one being read
+    private transient DbIterator[] results;
+    private int current;
+
+    /**
+     * Constructor. Uses {@link #DEFAULT_PARALLELISM} threads.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     */
+    public ParallelAggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @param parallelism
+     *            the number of worker threads
+     * @throws IllegalArgumentException if an aggregate can't be computed
+     *            from partials
+     */
+    public ParallelAggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            int parallelism) {
+        this(child, afields, gfields, aops, parallelism, SpillFile.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @param parallelism
+     *            the number of worker threads
+     * @param memoryBudget
+     *            bytes the in-memory groups of all workers together may use
+     *            before the tuples of new groups are spilled to disk
+     * @throws IllegalArgumentException if an aggregate can't be computed
+     *            from partials
+     */
+    public ParallelAggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            int parallelism, long memoryBudget) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        TupleDesc td = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            if (!supports(td.getFieldType(afields[i]), aops[i])) {
+                throw new IllegalArgumentException("can't compute " + aops[i] + " over "
+                        + td.getFieldType(afields[i]) + " in parallel");
+            }
+        }
+        this.child = child;
+        this.agg_indexes = afields.clone();
+        this.groupby_indexes = gfields.clone();
+        this.agg_ops = aops.clone();
+        this.parallelism = parallelism;
+        this.memory_budget = memoryBudget;
+        // check the operators against the column types
+        newAggregator(td, this.groupby_indexes, this.agg_indexes, this.agg_ops);
+    }
+
+    /**
+     * @return true if aggregate aop over a column of type afieldtype can be
+     *         computed from partial aggregates
+     */
+    public static boolean supports(Type afieldtype, Aggregator.Op aop) {
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case SUM:
+        case COUNT:
+            return true;
+        case AVG:
+            return afieldtype == Type.INT_TYPE;
+        default:
+            return false;
+        }
+    }
+
+    // the operator each worker computes for aop
+    private static Aggregator.Op partialOp(Aggregator.Op aop) {
+        return aop == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : aop;
+    }
+
+    // the operator that merges partials of aop
+    private static Aggregator.Op mergeOp(Aggregator.Op aop) {
+        switch (aop) {
+        case AVG:
+            return Aggregator.Op.SC_AVG;
+        case COUNT:
+            return Aggregator.Op.SUM;
+        default:
+            return aop;
+        }
+    }
+
+    private static Aggregator newAggregator(TupleDesc td, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gtypes[i] = td.getFieldType(gfields[i]);
+        }
+        Type[] atypes = new Type[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            atypes[i] = td.getFieldType(afields[i]);
+        }
+        return new MultiAggregator(gfields, gtypes, afields, atypes, aops);
+    }
+
+    /** @return the number of worker threads */
+    public int parallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @return the number of bytes of groups kept in memory, by all workers
+     *         together, before the others are written to disk
+     */
+    public long memoryBudget() {
+        return this.memory_budget;
+    }
+
+    /**
+     * @return the number of child tuples written to disk by the last
+     *         open()
+     */
+    public long numSpilledTuples() {
+        long n = 0;
+        for (int i = 0; this.results != null && i < this.results.length; i++) {
+            if (this.results[i] instanceof Aggregate) {
+                n += ((Aggregate) this.results[i]).numSpilledTuples();
+            }
+        }
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Aggregate.resultTupleDesc(this.child.getTupleDesc(), this.groupby_indexes,
+                this.agg_indexes, this.agg_ops);
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        this.current = 0;
+        if (this.parallelism == 1) {
+            Aggregate aggregate = new Aggregate(this.child, this.agg_indexes, this.groupby_indexes,
+                    this.agg_ops, this.memory_budget);
+            this.results = new DbIterator[]{aggregate};
+            aggregate.open();
+            return;
+        }
+        this.child.open();
+        TupleDesc td = this.child.getTupleDesc();
+        if (this.groupby_indexes.length > 0) {
+            this.results = aggregatePartitions(td);
+            return;
+        }
+        DbIterator merged = merge(aggregatePartials(td)).iterator();
+        this.results = new DbIterator[]{merged};
+        merged.open();
+    }
+
+    // the work of one worker thread
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    // route the groups of the child to the workers, and return their
+    // aggregates, opened
+    @SuppressWarnings("unchecked")
+    private DbIterator[] aggregatePartitions(TupleDesc td) throws DbException, TransactionAbortedException {
+        final Aggregate[] aggregates = new Aggregate[this.parallelism];
+        BlockingQueue<ArrayList<Tuple>>[] queues = new BlockingQueue[this.parallelism];
+        Work[] work = new Work[this.parallelism];
+        for (int w = 0; w < this.parallelism; w++) {
+            queues[w] = new ArrayBlockingQueue<ArrayList<Tuple>>(2);
+            final Aggregate aggregate = new Aggregate(new BatchIterator(td, queues[w]), this.agg_indexes,
+                    this.groupby_indexes, this.agg_ops, this.memory_budget / this.parallelism);
+            aggregates[w] = aggregate;
+            work[w] = new Work() {
+                public void run() throws Exception {
+                    aggregate.open();
+                }
+            };
+        }
+        // aggregates opened before a failure are closed with the others
+        this.results = aggregates;
+        feed(work, queues, true);
+        return aggregates;
+    }
+
+    // run the workers over the child, and return their partial aggregates
+    @SuppressWarnings("unchecked")
+    private Aggregator[] aggregatePartials(TupleDesc td) throws DbException, TransactionAbortedException {
+        Aggregator.Op[] partial_ops = new Aggregator.Op[this.agg_ops.length];
+        for (int i = 0; i < partial_ops.length; i++) {
+            partial_ops[i] = partialOp(this.agg_ops[i]);
+        }
+        // the workers share a queue, so an idle worker takes the next batch
+        final BlockingQueue<ArrayList<Tuple>> batches = new ArrayBlockingQueue<ArrayList<Tuple>>(2 * this.parallelism);
+        BlockingQueue<ArrayList<Tuple>>[] queues = new BlockingQueue[this.parallelism];
+        final Aggregator[] partials = new Aggregator[this.parallelism];
+        Work[] work = new Work[this.parallelism];
+        for (int w = 0; w < this.parallelism; w++) {
+            final Aggregator partial = newAggregator(td, this.groupby_indexes, this.agg_indexes, partial_ops);
+            partials[w] = partial;
+            queues[w] = batches;
+            work[w] = new Work() {
+                public void run() throws Exception {
+                    while (true) {
+                        ArrayList<Tuple> batch = batches.take();
+                        if (batch == END) {
+                            return;
+                        }
+                        for (Tuple t : batch) {
+                            partial.mergeTupleIntoGroup(t);
+                        }
+                    }
+                }
+            };
+        }
+        feed(work, queues, false);
+        return partials;
+    }
+
+    // start a thread per worker, hand the child to them in batches, either
+    // routed by group or all through the first queue, and wait for them
+    // to finish
+    @SuppressWarnings("unchecked")
+    private void feed(final Work[] work, BlockingQueue<ArrayList<Tuple>>[] queues, boolean routed)
+            throws DbException, TransactionAbortedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[work.length];
+        for (int w = 0; w < work.length; w++) {
+            final Work body = work[w];
+            workers[w] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        body.run();
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "simpledb-aggregate-" + w);
+            workers[w].setDaemon(true);
+            workers[w].start();
+        }
+
+        try {
+            ArrayList<Tuple>[] batches = new ArrayList[routed ? queues.length : 1];
+            while (this.child.hasNext()) {
+                Tuple t = this.child.next();
+                int w = routed ? workerOf(t) : 0;
+                if (batches[w] == null) {
+                    batches[w] = new ArrayList<Tuple>(BATCH_SIZE);
+                }
+                batches[w].add(t);
+                if (batches[w].size() == BATCH_SIZE) {
+                    hand(queues[w], batches[w], failure);
+                    batches[w] = null;
+                }
+            }
+            for (int w = 0; w < batches.length; w++) {
+                if (batches[w] != null) {
+                    hand(queues[w], batches[w], failure);
+                }
+            }
+            for (int w = 0; w < queues.length; w++) {
+                hand(queues[w], END, failure);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while aggregating");
+        } finally {
+            // workers stuck on an empty queue after a failure are stopped
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw new DbException("aggregate worker failed: " + failure.get());
+        }
+    }
+
+    // the worker that aggregates the group of t
+    private int workerOf(Tuple t) {
+        return HashJoin.partitionOf(Aggregate.groupHash(t, this.groupby_indexes), ROUTING_SEED, this.parallelism);
+    }
+
+    // put a batch on the queue, unless a worker has failed
+    private static void hand(BlockingQueue<ArrayList<Tuple>> batches, ArrayList<Tuple> batch,
+            AtomicReference<Throwable> failure) throws InterruptedException, DbException {
+        while (!batches.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                throw new DbException("aggregate worker failed: " + failure.get());
+            }
+        }
+    }
+
+    // merge the partial aggregates into the final result
+    private Aggregator merge(Aggregator[] partials) throws DbException, TransactionAbortedException {
+        TupleDesc td = this.child.getTupleDesc();
+        int ngroups = this.groupby_indexes.length;
+        int[] gfields = new int[ngroups];
+        Type[] gtypes = new Type[ngroups];
+        for (int i = 0; i < ngroups; i++) {
+            gfields[i] = i;
+            gtypes[i] = td.getFieldType(this.groupby_indexes[i]);
+        }
+        // partial tuples hold the group fields, then the partial columns of
+        // every aggregate
+        int[] afields = new int[this.agg_ops.length];
+        Type[] atypes = new Type[this.agg_ops.length];
+        Aggregator.Op[] merge_ops = new Aggregator.Op[this.agg_ops.length];
+        int offset = ngroups;
+        for (int i = 0; i < afields.length; i++) {
+            Type[] partial_types = Aggregate.resultTypes(td.getFieldType(this.agg_indexes[i]), partialOp(this.agg_ops[i]));
+            afields[i] = offset;
+            atypes[i] = partial_types[0];
+            merge_ops[i] = mergeOp(this.agg_ops[i]);
+            offset += partial_types.length;
+        }
+        Aggregator result = new MultiAggregator(gfields, gtypes, afields, atypes, merge_ops);
+        for (Aggregator partial : partials) {
+            DbIterator it = partial.iterator();
+            it.open();
+            while (it.hasNext()) {
+                result.mergeTupleIntoGroup(it.next());
+            }
+            it.close();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the next tuple: the group-by fields, in the order they were
+     * given, followed by the results of the aggregates.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (this.current < this.results.length) {
+            if (this.results[this.current].hasNext()) {
+                return this.results[this.current].next();
+            }
+            this.current++;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        for (DbIterator result : this.results) {
+            result.rewind();
+        }
+        this.current = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (this.results != null) {
+            for (DbIterator result : this.results) {
+                if (result != null) {
+                    result.close();
+                }
+            }
+            this.results = null;
+        }
+        this.child.close();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+    /**
+     * The batches handed to a worker, as the child of its Aggregate, which
+     * reads its child once.
+     */
+    private static class BatchIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+        private final BlockingQueue<ArrayList<Tuple>> batches;
+        private Iterator<Tuple> batch = Collections.<Tuple>emptyList().iterator();
+        private boolean done;
+
+        BatchIterator(TupleDesc td, BlockingQueue<ArrayList<Tuple>> batches) {
+            this.td = td;
+            this.batches = batches;
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            while (!this.batch.hasNext()) {
+                if (this.done) {
+                    return null;
+                }
+                ArrayList<Tuple> next;
+                try {
+                    next = this.batches.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while aggregating");
+                }
+                if (next == END) {
+                    this.done = true;
+                    return null;
+                }
+                this.batch = next.iterator();
+            }
+            return this.batch.next();
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("the batches of a worker are only read once");
+        }
+
+        public TupleDesc getTupleDesc() {
+            return this.td;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+}
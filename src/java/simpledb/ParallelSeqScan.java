@@ -0,0 +1,304 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ParallelSeqScan reads a heap file on several threads. Like
+ * {@link SeqScan}, it returns the tuples of the table in no particular
+ * order.
+ * <p>
+ * The file is split into morsels of {@link #MORSEL_PAGES} pages. Worker
+ * threads take the next morsel from a shared counter until none are left,
+ * so a worker that gets cheap pages simply takes more morsels. Each worker
+ * runs its own pipeline over its morsels: the scan, then an optional
+ * {@link Filter} and {@link Project}. The workers are the producers of a
+ * {@link Gather}, so a selective scan evaluates its predicates on every
+ * core and a slow consumer holds the workers back instead of buffering the
+ * table.
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of worker threads used when none is given; set with the
+     * simpledb.scan.parallelism system property, the number of processors
+     * by default.
+     */
+    public static final int DEFAULT_PARALLELISM = Math.max(1,
+            Integer.getInteger("simpledb.scan.parallelism", Runtime.getRuntime().availableProcessors()));
+    /** Number of pages a worker takes at a time. */
+    static final int MORSEL_PAGES = 16;
+    /** Tables with fewer pages are scanned by the planner with SeqScan. */
+    static final int MIN_PARALLEL_PAGES = 4 * MORSEL_PAGES;
+
+    private final TransactionId tid;
+    private final int table_id;
+    private final String table_alias;
+    private final Predicate[] preds;
+    private final int[] out_fields;
+    private final int parallelism;
+    private final TupleDesc scan_td;
+    private final TupleDesc td;
+    // the first page of the next morsel
+    private final AtomicInteger next_page = new AtomicInteger();
+    private final Gather gather;
+    // tuples whose runtime_field, a field of the table, is not in
+    // runtime_filter are dropped by the workers
+    private transient volatile BloomFilter runtime_filter;
+    private volatile int runtime_field;
+    private final AtomicLong num_filtered = new AtomicLong();
+
+    /**
+     * Creates a parallel scan of every tuple of a table, with
+     * {@link #DEFAULT_PARALLELISM} threads.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, the prefix of the field names
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, new Predicate[0], null, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a parallel scan that filters and projects the tuples of a
+     * table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, the prefix of the field names
+     * @param preds
+     *            the predicates every returned tuple satisfies, over the
+     *            fields of the table
+     * @param outFields
+     *            the fields of the table that are returned, in order, or
+     *            null to return them all
+     * @param parallelism
+     *            the number of worker threads
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] preds,
+            int[] outFields, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not a heap file");
+        }
+        this.tid = tid;
+        this.table_id = tableid;
+        this.table_alias = tableAlias;
+        this.preds = preds.clone();
+        this.out_fields = outFields == null ? null : outFields.clone();
+        this.parallelism = parallelism;
+        this.scan_td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+        DbIterator[] workers = new DbIterator[parallelism];
+        for (int w = 0; w < parallelism; w++) {
+            workers[w] = pipeline(new MorselIterator());
+        }
+        this.gather = new Gather(workers);
+        this.td = this.gather.getTupleDesc();
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.table_id);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.table_alias;
+    }
+
+    /**
+     * @return the predicates every returned tuple satisfies, over the fields
+     *         of the table
+     */
+    public Predicate[] getPredicates() {
+        return this.preds;
+    }
+
+    /**
+     * @return the fields of the table that are returned, or null if they
+     *         all are
+     */
+    public int[] getOutFields() {
+        return this.out_fields;
+    }
+
+    /** @return the number of worker threads */
+    public int parallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Have the workers drop the tuples whose value of a field is not in a
+     * Bloom filter, as soon as they are read from their page, as
+     * {@link SeqScan#setRuntimeFilter} does. Tuples already handed to the
+     * consumer are not filtered.
+     *
+     * @param field
+     *            the index of the field tested, in the tuples of this scan
+     * @param filter
+     *            the filter, or null to return every tuple again
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtime_field = this.out_fields == null ? field : this.out_fields[field];
+        this.runtime_filter = filter;
+    }
+
+    /**
+     * @return the number of tuples dropped by the runtime filter since the
+     *         scan was created, counted as the workers finish
+     */
+    public long numFiltered() {
+        return this.num_filtered.get();
+    }
+
+    // the filter and projection of a worker, over its morsels
+    private DbIterator pipeline(DbIterator morsels) {
+        DbIterator it = morsels;
+        if (this.preds.length > 0) {
+            it = new Filter(this.preds, it);
+        }
+        if (this.out_fields != null) {
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            Type[] types = new Type[this.out_fields.length];
+            for (int i = 0; i < types.length; i++) {
+                fields.add(this.out_fields[i]);
+                types[i] = this.scan_td.getFieldType(this.out_fields[i]);
+            }
+            it = new Project(fields, types, it);
+        }
+        return it;
+    }
+
+    /**
+     * The pages of the morsels a worker takes, in turn, until the file has
+     * no more morsels. The morsels taken are remembered, so that rewind()
+     * reads the same pages again rather than those of the other workers.
+     */
+    private class MorselIterator implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private int page;
+        private int end;
+        // the first pages of the morsels taken since open, and how many of
+        // them have been read since the last rewind
+        private final ArrayList<Integer> taken = new ArrayList<Integer>();
+        private int num_read;
+        private transient Iterator<Tuple> it;
+        private transient Tuple next;
+        // tuples dropped by the runtime filter, added to num_filtered on
+        // close so that the workers don't contend on it
+        private long filtered;
+
+        public void open() {
+            this.taken.clear();
+            rewind();
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (this.next == null) {
+                while (this.it == null || !this.it.hasNext()) {
+                    if (this.page == this.end) {
+                        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(table_id)).numPages();
+                        if (this.num_read < this.taken.size()) {
+                            this.page = this.taken.get(this.num_read++);
+                        } else {
+                            this.page = next_page.getAndAdd(MORSEL_PAGES);
+                            if (this.page >= numPages) {
+                                this.end = this.page;
+                                return false;
+                            }
+                            this.taken.add(this.page);
+                            this.num_read++;
+                        }
+                        this.end = Math.min(this.page + MORSEL_PAGES, numPages);
+                    }
+                    HeapPageId pid = new HeapPageId(table_id, this.page++);
+                    this.it = ((Iterable<Tuple>) Database.getBufferPool().getPage(tid, pid,
+                            Permissions.READ_ONLY)).iterator();
+                }
+                Tuple t = this.it.next();
+                BloomFilter filter = runtime_filter;
+                if (filter == null || filter.mightContain(t.getField(runtime_field))) {
+                    this.next = t;
+                } else {
+                    this.filtered++;
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = this.next;
+            this.next = null;
+            return t;
+        }
+
+        public void rewind() {
+            this.page = 0;
+            this.end = 0;
+            this.num_read = 0;
+            this.it = null;
+            this.next = null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return scan_td;
+        }
+
+        public void close() {
+            this.it = null;
+            this.next = null;
+            num_filtered.addAndGet(this.filtered);
+            this.filtered = 0;
+        }
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.next_page.set(0);
+        this.gather.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return this.gather.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return this.gather.next();
+    }
+
+    /**
+     * Returns the TupleDesc of the table with field names prefixed by the
+     * table alias, as {@link SeqScan} does, projected on the output fields.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void close() {
+        this.gather.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the morsels are handed out again from the first page
+        close();
+        open();
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelSort is a stable fork/join merge sort for arrays.
+ * <p>
+ * The array is split in halves until the pieces have at most
+ * {@link #MIN_PARTITION} elements; the pieces are sorted concurrently with
+ * Arrays.sort and then merged pairwise. Every degree of parallelism gets
+ * its own ForkJoinPool, created on first use and shared by all sorts.
+ * <p>
+ * The default degree of parallelism is the number of processors, and can be
+ * set with <tt>-Dsimpledb.sort.parallelism=n</tt>; 1 sorts on the calling
+ * thread.
+ */
+public class ParallelSort {
+
+    /** Degree of parallelism used when none is given. */
+    public static final int DEFAULT_PARALLELISM = Math.max(1,
+            Integer.getInteger("simpledb.sort.parallelism", Runtime.getRuntime().availableProcessors()));
+    /** Pieces of at most this many elements are sorted sequentially. */
+    static final int MIN_PARTITION = 8192;
+
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    private ParallelSort() {
+    }
+
+    private static ForkJoinPool pool(int parallelism) {
+        ForkJoinPool pool = pools.get(parallelism);
+        if (pool == null) {
+            ForkJoinPool created = new ForkJoinPool(parallelism);
+            pool = pools.putIfAbsent(parallelism, created);
+            if (pool == null) {
+                pool = created;
+            } else {
+                created.shutdown();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Sort an array stably with the default degree of parallelism.
+     */
+    public static <T> void sort(T[] a, Comparator<? super T> c) {
+        sort(a, c, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Sort an array stably.
+     *
+     * @param a
+     *            the array to sort
+     * @param c
+     *            the order of the elements
+     * @param parallelism
+     *            the number of threads to sort with
+     */
+    public static <T> void sort(T[] a, Comparator<? super T> c, int parallelism) {
+        if (parallelism <= 1 || a.length <= MIN_PARTITION) {
+            Arrays.sort(a, c);
+            return;
+        }
+        pool(parallelism).invoke(new SortTask<T>(a, new Object[a.length], 0, a.length, c));
+    }
+
+    private static class SortTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final T[] a;
+        // scratch space for merging, shared by all tasks
+        private final Object[] tmp;
+        private final int lo;
+        private final int hi;
+        private final Comparator<? super T> c;
+
+        SortTask(T[] a, Object[] tmp, int lo, int hi, Comparator<? super T> c) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+            this.c = c;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo <= MIN_PARTITION) {
+                Arrays.sort(this.a, this.lo, this.hi, this.c);
+                return;
+            }
+            int mid = (this.lo + this.hi) >>> 1;
+            invokeAll(new SortTask<T>(this.a, this.tmp, this.lo, mid, this.c),
+                    new SortTask<T>(this.a, this.tmp, mid, this.hi, this.c));
+            merge(mid);
+        }
+
+        // merge the sorted halves [lo, mid) and [mid, hi), taking from the
+        // left half on ties
+        @SuppressWarnings("unchecked")
+        private void merge(int mid) {
+            if (this.c.compare(this.a[mid - 1], this.a[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(this.a, this.lo, this.tmp, this.lo, this.hi - this.lo);
+            int i = this.lo, j = mid, k = this.lo;
+            while (i < mid && j < this.hi) {
+                T left = (T) this.tmp[i];
+                T right = (T) this.tmp[j];
+                if (this.c.compare(right, left) < 0) {
+                    this.a[k++] = right;
+                    j++;
+                } else {
+                    this.a[k++] = left;
+                    i++;
+                }
+            }
+            System.arraycopy(this.tmp, i, this.a, k, mid - i);
+            System.arraycopy(this.tmp, j, this.a, k + (mid - i), this.hi - j);
+        }
+    }
+}
@@ -12,6 +12,36 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    // a trailing LIMIT clause, which Zql does not parse
+    private static final java.util.regex.Pattern LIMIT_PATTERN = java.util.regex.Pattern
+            .compile("(?is)^(.*?)\\s+limit\\s+(\\d+)\\s*(;?)\\s*$");
+    /**
+     * Remove a trailing <tt>LIMIT n</tt> clause from a statement.
+     *
+     * @return the statement without the LIMIT clause
+     */
+    static String stripLimit(String s) {
+        java.util.regex.Matcher m = LIMIT_PATTERN.matcher(s);
+        if (!m.matches())
+            return s;
+        return m.group(1) + m.group(3);
+    }
+
+    /**
+     * @return n for a statement with a trailing <tt>LIMIT n</tt> clause, -1
+     *         if it has none
+     */
+    static int parseLimit(String s) throws simpledb.ParsingException {
+        java.util.regex.Matcher m = LIMIT_PATTERN.matcher(s);
+        if (!m.matches())
+            return -1;
+        try {
+            return Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(2));
+        }
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -50,6 +80,27 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("IN")
+                || wx.getOperator().equals("NOT IN")) {
+            if (wx.nbOperands() != 2
+                    || !(wx.getOperand(0) instanceof ZConstant)
+                    || !(wx.getOperand(1) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "Only IN expressions of the form A IN (subquery) are currently supported.");
+            }
+            lp.addSemiJoin(((ZConstant) wx.getOperand(0)).getValue(),
+                    subqueryPlan(tid, (ZQuery) wx.getOperand(1)),
+                    Predicate.Op.EQUALS, wx.getOperator().equals("NOT IN"));
+        } else if (wx.getOperator().equals("EXISTS")) {
+            processExists(tid, wx, lp, false);
+        } else if (wx.getOperator().equals("NOT")) {
+            if (!(wx.getOperand(0) instanceof ZExpression)
+                    || !((ZExpression) wx.getOperand(0)).getOperator().equals(
+                            "EXISTS")) {
+                throw new simpledb.ParsingException(
+                        "NOT is only supported before EXISTS.");
+            }
+            processExists(tid, (ZExpression) wx.getOperand(0), lp, true);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -94,19 +145,8 @@ public class Parser {
                 }
 
                 if (!op2const) { // right op is a nested query
-                    try {
-                        LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                                (ZQuery) ops.elementAt(1));
-                        DbIterator pp = sublp.physicalPlan(tid,
-                                TableStats.getStatsMap(), explain);
-                        lp.addJoin(tab1field, pp, op);
-                    } catch (IOException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    } catch (Zql.ParseException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    }
+                    lp.addJoin(tab1field,
+                            subqueryPlan(tid, (ZQuery) ops.elementAt(1)), op);
                 } else {
                     tab2field = ((ZConstant) ops.elementAt(1)).getValue();
                     lp.addJoin(tab1field, tab2field, op);
@@ -132,6 +172,146 @@ public class Parser {
 
     }
 
+    /**
+     * @return the physical plan of a subquery
+     */
+    DbIterator subqueryPlan(TransactionId tid, ZQuery q)
+            throws simpledb.ParsingException {
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+            return sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        }
+    }
+
+    /**
+     * Plan an [NOT] EXISTS subquery as a semi-join (anti-join). The
+     * subquery must be correlated with the outer query by exactly one
+     * comparison between a field of the outer query and one of its own
+     * tables; the comparison becomes the join predicate, and the rest of
+     * its WHERE clause is planned with the subquery.
+     */
+    void processExists(TransactionId tid, ZExpression wx, LogicalPlan lp,
+            boolean anti) throws simpledb.ParsingException {
+        if (wx.nbOperands() != 1 || !(wx.getOperand(0) instanceof ZQuery)) {
+            throw new simpledb.ParsingException(
+                    "Only EXISTS expressions of the form EXISTS (subquery) are currently supported.");
+        }
+        ZQuery sq = (ZQuery) wx.getOperand(0);
+        HashSet<String> inner = new HashSet<String>();
+        @SuppressWarnings("unchecked")
+        Vector<ZFromItem> from = sq.getFrom();
+        for (ZFromItem fromIt : from) {
+            inner.add(fromIt.getAlias() != null ? fromIt.getAlias()
+                    : fromIt.getTable());
+        }
+
+        Vector<ZExp> conjuncts = new Vector<ZExp>();
+        ZExp w = sq.getWhere();
+        if (w instanceof ZExpression
+                && ((ZExpression) w).getOperator().equals("AND")) {
+            for (int i = 0; i < ((ZExpression) w).nbOperands(); i++)
+                conjuncts.add(((ZExpression) w).getOperand(i));
+        } else if (w != null) {
+            conjuncts.add(w);
+        }
+
+        // find the comparison with the outer query
+        ZExpression corr = null;
+        int outerSide = -1;
+        Vector<ZExp> rest = new Vector<ZExp>();
+        for (ZExp c : conjuncts) {
+            int side = outerOperand(c, inner);
+            if (side < 0) {
+                rest.add(c);
+            } else if (corr != null) {
+                throw new simpledb.ParsingException(
+                        "EXISTS subqueries correlated by more than one comparison are currently unsupported.");
+            } else {
+                corr = (ZExpression) c;
+                outerSide = side;
+            }
+        }
+        if (corr == null) {
+            throw new simpledb.ParsingException(
+                    "EXISTS subqueries must compare a field of the outer query with one of their own.");
+        }
+        String outerField = ((ZConstant) corr.getOperand(outerSide)).getValue();
+        String innerField = ((ZConstant) corr.getOperand(1 - outerSide)).getValue();
+        Predicate.Op op = getOp(corr.getOperator());
+        if (outerSide == 1)
+            op = reverseOp(op);
+
+        ZQuery decorrelated = new ZQuery();
+        Vector<ZSelectItem> select = new Vector<ZSelectItem>();
+        select.add(new ZSelectItem(innerField));
+        decorrelated.addSelect(select);
+        decorrelated.addFrom(from);
+        if (rest.size() == 1) {
+            decorrelated.addWhere(rest.elementAt(0));
+        } else if (rest.size() > 1) {
+            ZExpression and = new ZExpression("AND");
+            for (ZExp c : rest)
+                and.addOperand(c);
+            decorrelated.addWhere(and);
+        }
+        lp.addSemiJoin(outerField, subqueryPlan(tid, decorrelated), op, anti);
+    }
+
+    /**
+     * @return the index of the operand of a comparison between two fields
+     *         that is a field of the outer query, or -1 if the expression is
+     *         not such a comparison
+     */
+    private static int outerOperand(ZExp e, Set<String> innerAliases)
+            throws simpledb.ParsingException {
+        if (!(e instanceof ZExpression) || ((ZExpression) e).nbOperands() != 2)
+            return -1;
+        ZExpression x = (ZExpression) e;
+        int outer = -1;
+        for (int i = 0; i < 2; i++) {
+            if (!(x.getOperand(i) instanceof ZConstant)
+                    || ((ZConstant) x.getOperand(i)).getType() != ZConstant.COLUMNNAME)
+                return -1;
+            String name = ((ZConstant) x.getOperand(i)).getValue();
+            int dot = name.indexOf('.');
+            if (dot >= 0 && !innerAliases.contains(name.substring(0, dot))) {
+                if (outer >= 0) {
+                    throw new simpledb.ParsingException(
+                            "Only the outer query may compare two of its own fields: "
+                                    + x);
+                }
+                outer = i;
+            }
+        }
+        return outer;
+    }
+
+    /**
+     * @return the operator op' such that b op' a whenever a op b
+     */
+    static Predicate.Op reverseOp(Predicate.Op op)
+            throws simpledb.ParsingException {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case EQUALS:
+        case NOT_EQUALS:
+            return op;
+        default:
+            throw new simpledb.ParsingException("Can't reverse " + op);
+        }
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -182,23 +362,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +383,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +394,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,30 +415,31 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        // all aggregates are computed together, over every GROUP BY field
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), null);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -276,9 +451,21 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * Plan a query that returns at most limit tuples, or all of them if
+     * limit is -1.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.setLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -356,26 +543,28 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type ftype = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (ftype == Type.STRING_TYPE || ftype == Type.DATE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (ftype != Type.STRING_TYPE && ftype != Type.DATE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric fields are supported.");
+                }
+                try {
+                    t.setField(i, ftype.parse(zc.getValue()));
+                } catch (IllegalArgumentException ex) {
+                    throw new simpledb.ParsingException("Value "
+                            + zc.getValue() + " is not a valid " + ftype);
                 }
 
                 i++;
@@ -465,12 +654,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                int limit = parseLimit(s);
+                if (limit >= 0)
+                    lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +695,16 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // only one statement is parsed, read it whole to find its LIMIT
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            String stmt = text.toString("UTF-8");
+            int limit = parseLimit(stmt);
+            stmt = stripLimit(stmt);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(stmt.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -525,7 +726,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
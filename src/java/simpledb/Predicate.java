@@ -12,6 +12,8 @@ public class Predicate implements Serializable {
     private int field_index;
     private Op op;
     private Field operand;
+    // op and operand specialized into a single comparison, see compile()
+    private Evaluator evaluator;
 
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
@@ -63,6 +65,7 @@ public class Predicate implements Serializable {
         this.field_index = field;
         this.op = op;
         this.operand = operand;
+        this.evaluator = compile(field, op, operand);
     }
 
     /**
@@ -104,7 +107,7 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(this.field_index).compare(this.op, this.operand);
+        return this.evaluator.eval(t);
     }
 
     /**
@@ -115,4 +118,108 @@ public class Predicate implements Serializable {
         // some code goes here
         return String.format("f = %s, op = %s, operand = %s", this.field_index, this.op.toString(), this.operand.toString());
     }
+
+    /**
+     * Pick the evaluator for a predicate. Comparisons of an int column
+     * against an int constant get a class per operator that compares
+     * primitive ints; everything else goes through Field.compare.
+     */
+    static Evaluator compile(int field, Op op, Field operand) {
+        if (operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(field, v);
+            case LESS_THAN:
+                return new IntLessThan(field, v);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(field, v);
+            }
+        }
+        return new Generic(field, op, operand);
+    }
+
+    /**
+     * A predicate specialized for one operator and operand type.
+     */
+    abstract static class Evaluator implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        abstract boolean eval(Tuple t);
+    }
+
+    private static final class Generic extends Evaluator {
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final Op op;
+        private final Field operand;
+
+        Generic(int field, Op op, Field operand) {
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        boolean eval(Tuple t) {
+            return t.getField(this.field).compare(this.op, this.operand);
+        }
+    }
+
+    private abstract static class IntEvaluator extends Evaluator {
+        private static final long serialVersionUID = 1L;
+        final int field;
+        final int value;
+
+        IntEvaluator(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        final int valueOf(Tuple t) {
+            return ((IntField) t.getField(this.field)).getValue();
+        }
+    }
+
+    private static final class IntEquals extends IntEvaluator {
+        private static final long serialVersionUID = 1L;
+        IntEquals(int field, int value) { super(field, value); }
+        boolean eval(Tuple t) { return valueOf(t) == this.value; }
+    }
+
+    private static final class IntNotEquals extends IntEvaluator {
+        private static final long serialVersionUID = 1L;
+        IntNotEquals(int field, int value) { super(field, value); }
+        boolean eval(Tuple t) { return valueOf(t) != this.value; }
+    }
+
+    private static final class IntGreaterThan extends IntEvaluator {
+        private static final long serialVersionUID = 1L;
+        IntGreaterThan(int field, int value) { super(field, value); }
+        boolean eval(Tuple t) { return valueOf(t) > this.value; }
+    }
+
+    private static final class IntGreaterThanOrEq extends IntEvaluator {
+        private static final long serialVersionUID = 1L;
+        IntGreaterThanOrEq(int field, int value) { super(field, value); }
+        boolean eval(Tuple t) { return valueOf(t) >= this.value; }
+    }
+
+    private static final class IntLessThan extends IntEvaluator {
+        private static final long serialVersionUID = 1L;
+        IntLessThan(int field, int value) { super(field, value); }
+        boolean eval(Tuple t) { return valueOf(t) < this.value; }
+    }
+
+    private static final class IntLessThanOrEq extends IntEvaluator {
+        private static final long serialVersionUID = 1L;
+        IntLessThanOrEq(int field, int value) { super(field, value); }
+        boolean eval(Tuple t) { return valueOf(t) <= this.value; }
+    }
 }
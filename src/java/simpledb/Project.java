@@ -11,6 +11,8 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    // copies the output fields, compiled by ExpressionCompiler
+    private transient ExpressionCompiler.TupleProjector projector;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -39,6 +41,15 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        projector = compile();
+    }
+
+    private ExpressionCompiler.TupleProjector compile() {
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = outFieldIds.get(i);
+        }
+        return ExpressionCompiler.compileProjection(fields);
     }
 
     public TupleDesc getTupleDesc() {
@@ -47,6 +58,10 @@ public class Project extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        if (projector == null) {
+            // deserialized, compile again
+            projector = compile();
+        }
         child.open();
         super.open();
     }
@@ -72,9 +87,7 @@ public class Project extends Operator {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
+            projector.project(t, newTuple);
             return newTuple;
         }
         return null;
@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * QueryExecutor runs queries concurrently. Each submitted query runs on a
+ * thread of its own: a virtual thread when the JVM has them, so many small
+ * queries don't need as many platform threads, and otherwise a thread of a
+ * bounded pool.
+ * <p>
+ * Queries are admitted one at a time, in the order they start waiting, once
+ * both of these hold:
+ * <ul>
+ * <li>the memory reserved by the running queries, plus the memory the new
+ * query may use, fits in the executor's memory budget. A query may use the
+ * budgets of its hash joins, aggregates and sorts; one that needs more than
+ * the whole budget runs alone.</li>
+ * <li>every running query, including the new one, can have
+ * {@link #DEFAULT_PAGES_PER_QUERY} pages of the buffer pool.</li>
+ * </ul>
+ * A query waiting to be admitted holds back those that start waiting after
+ * it, so a large query is not starved by a stream of small ones. Queries
+ * wait in the executor's own queue and are only handed to a thread once
+ * admitted, so a waiting query never holds a thread of the pool; without
+ * virtual threads, at most as many queries as the pool has threads are
+ * admitted at once.
+ */
+public class QueryExecutor {
+
+    /**
+     * Number of threads of the pool used when the JVM has no virtual
+     * threads; set with the simpledb.executor.threads system property, the
+     * number of processors by default.
+     */
+    public static final int DEFAULT_POOL_SIZE = Math.max(1,
+            Integer.getInteger("simpledb.executor.threads", Runtime.getRuntime().availableProcessors()));
+    /** Memory budget of an executor when none is given, in bytes. */
+    public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+    /** Buffer pool pages each running query can count on. */
+    public static final int DEFAULT_PAGES_PER_QUERY = 4;
+
+    private final long memory_budget;
+    private final int pages_per_query;
+    private final int pool_size;
+    private final ExecutorService threads;
+    private final boolean virtual;
+
+    // admission state, guarded by this
+    private final LinkedList<Admission> waiting = new LinkedList<Admission>();
+    private int running;
+    private long reserved;
+    private boolean shut_down;
+
+    /**
+     * Creates an executor with the default memory budget.
+     */
+    public QueryExecutor() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_PAGES_PER_QUERY, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget
+     *            the number of bytes the running queries may use together
+     * @param pagesPerQuery
+     *            the number of buffer pool pages each running query can
+     *            count on
+     * @param poolSize
+     *            the number of threads running queries if the JVM has no
+     *            virtual threads
+     */
+    public QueryExecutor(long memoryBudget, int pagesPerQuery, int poolSize) {
+        if (memoryBudget < 1 || pagesPerQuery < 1 || poolSize < 1) {
+            throw new IllegalArgumentException("executor limits must be positive");
+        }
+        this.memory_budget = memoryBudget;
+        this.pages_per_query = pagesPerQuery;
+        this.pool_size = poolSize;
+        ExecutorService virtualThreads = newVirtualThreadExecutor();
+        this.virtual = virtualThreads != null;
+        this.threads = this.virtual ? virtualThreads : newPool(poolSize);
+    }
+
+    // a virtual thread per task executor, or null before Java 21
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPool(int size) {
+        return Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private int n = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-query-" + this.n++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** @return true if queries run on virtual threads */
+    public boolean usesVirtualThreads() {
+        return this.virtual;
+    }
+
+    /** @return the number of queries admitted and not yet finished */
+    public synchronized int running() {
+        return this.running;
+    }
+
+    /** @return the number of bytes reserved by the running queries */
+    public synchronized long reservedMemory() {
+        return this.reserved;
+    }
+
+    /**
+     * @return the number of bytes the operators of a plan may keep in
+     *         memory
+     */
+    public static long memoryNeeded(DbIterator plan) {
+        long need = 0;
+        if (plan instanceof HashJoin) {
+            need = ((HashJoin) plan).memoryBudget();
+        } else if (plan instanceof Aggregate) {
+            need = ((Aggregate) plan).memoryBudget();
+        } else if (plan instanceof ParallelAggregate) {
+            need = ((ParallelAggregate) plan).memoryBudget();
+        } else if (plan instanceof OrderBy) {
+            need = ((OrderBy) plan).memoryBudget();
+        } else if (plan instanceof TopN) {
+            need = ((TopN) plan).memoryBudget();
+        } else if (plan instanceof ExternalSort) {
+            need = ((ExternalSort) plan).memoryBudget();
+        }
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (child != null) {
+                    need += memoryNeeded(child);
+                }
+            }
+        }
+        return need;
+    }
+
+    /**
+     * Run a query. Its transaction commits once all its tuples are read,
+     * and aborts if the query fails.
+     *
+     * @param q
+     *            the query, with its physical plan set
+     * @return the result tuples of the query
+     */
+    public Future<List<Tuple>> submit(final Query q) {
+        long need = Math.min(memoryNeeded(q.getPhysicalPlan()), this.memory_budget);
+        Admission a = new Admission(new Callable<List<Tuple>>() {
+            public List<Tuple> call() throws Exception {
+                return run(q);
+            }
+        }, need);
+        synchronized (this) {
+            if (this.shut_down) {
+                throw new RejectedExecutionException("executor is shut down");
+            }
+            this.waiting.add(a);
+            admit();
+        }
+        return a;
+    }
+
+    /**
+     * A submitted query, which reserves its memory while it is admitted
+     * and releases it when its thread is done with it, or when it is
+     * cancelled while still waiting.
+     */
+    private class Admission extends FutureTask<List<Tuple>> {
+        final long need;
+        // guarded by the executor
+        boolean admitted;
+
+        Admission(Callable<List<Tuple>> query, long need) {
+            super(query);
+            this.need = need;
+        }
+
+        /**
+         * Releases the reservation once the query's thread leaves it; a
+         * query cancelled while it runs keeps running until its operators
+         * notice, and keeps its memory until then.
+         */
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                finished(this);
+            }
+        }
+
+        protected void done() {
+            if (isCancelled()) {
+                dequeue(this);
+            }
+        }
+    }
+
+    private List<Tuple> run(Query q) throws IOException, DbException, TransactionAbortedException {
+        boolean done = false;
+        try {
+            ArrayList<Tuple> result = new ArrayList<Tuple>();
+            q.start();
+            while (q.hasNext()) {
+                result.add(q.next());
+            }
+            done = true;
+            return result;
+        } finally {
+            // a failed query is closed too, which stops its threads and
+            // deletes its spill files
+            try {
+                q.close();
+            } finally {
+                Database.getBufferPool().transactionComplete(q.getTransactionId(), done);
+            }
+        }
+    }
+
+    // hand the waiting queries to threads, in order, while there is room
+    // for them
+    private synchronized void admit() {
+        while (!this.waiting.isEmpty() && fits(this.waiting.peek().need)) {
+            Admission a = this.waiting.poll();
+            a.admitted = true;
+            this.running++;
+            this.reserved += a.need;
+            this.threads.execute(a);
+        }
+        if (this.shut_down && this.waiting.isEmpty()) {
+            this.threads.shutdown();
+        }
+    }
+
+    private boolean fits(long need) {
+        if (this.running == 0) {
+            return true;
+        }
+        if (!this.virtual && this.running >= this.pool_size) {
+            return false;
+        }
+        int pages = Database.getBufferPool().numPages();
+        return this.reserved + need <= this.memory_budget
+                && (long) (this.running + 1) * this.pages_per_query <= pages;
+    }
+
+    private synchronized void finished(Admission a) {
+        a.admitted = false;
+        this.running--;
+        this.reserved -= a.need;
+        admit();
+    }
+
+    // drop a query cancelled before it was admitted; one already admitted
+    // is released by its thread
+    private synchronized void dequeue(Admission a) {
+        if (!a.admitted && this.waiting.remove(a)) {
+            admit();
+        }
+    }
+
+    /**
+     * Stop accepting queries; those already submitted still run.
+     */
+    public synchronized void shutdown() {
+        this.shut_down = true;
+        admit();
+    }
+
+    /**
+     * Wait for the submitted queries to finish after shutdown().
+     *
+     * @return false if the timeout expired first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.threads.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Repartition is an exchange that splits the tuples of its producers
+ * between several outputs by the hash of a field, so all the tuples with
+ * the same value of the field are returned by the same output. Consumers
+ * that each join or aggregate one output on that field together compute
+ * the join or aggregate of the whole input.
+ */
+public class Repartition extends Exchange {
+
+    // distinct from the seeds of HashJoin and Aggregate, so that consumers
+    // hashing their output again still spread it over their partitions
+    private static final int SEED = 0x2F;
+
+    private final int field;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the iterators run on the producer threads; they all have
+     *            the same TupleDesc
+     * @param field
+     *            the index of the field tuples are partitioned on
+     * @param numOutputs
+     *            the number of partitions
+     */
+    public Repartition(DbIterator[] producers, int field, int numOutputs) {
+        super(producers, numOutputs);
+        if (field < 0 || field >= getTupleDesc().numFields()) {
+            throw new IllegalArgumentException("no field " + field + " to partition on");
+        }
+        this.field = field;
+    }
+
+    /** @return the index of the field tuples are partitioned on */
+    public int field() {
+        return this.field;
+    }
+
+    /**
+     * @return the output a tuple with the given value of the partitioning
+     *         field goes to
+     */
+    public int outputOf(Field f) {
+        return HashJoin.partitionOf(f.hashCode(), SEED, numOutputs());
+    }
+
+    void route(Tuple t, ArrayList<Tuple>[] batches) {
+        batches[outputOf(t.getField(this.field))].add(t);
+    }
+}
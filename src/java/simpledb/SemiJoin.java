@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SemiJoin returns the tuples of child1 that join with at least one tuple
+ * of child2, each once and with the fields of child1 only; as an anti-join
+ * it returns those that join with none. It answers IN and EXISTS
+ * subqueries without the duplicates and extra columns of a {@link Join}.
+ * <p>
+ * The join field values of child2 are read once, on open(). For an
+ * equality predicate they go into a hash set, so each tuple of child1 is
+ * tested with a single lookup. A range predicate only needs the largest
+ * value of child2 (for &lt; and &lt;=) or the smallest (for &gt; and &gt;=),
+ * so that is all that is kept and each tuple is compared once. For other
+ * predicates the distinct values are kept in a list that is scanned until
+ * the first match; they are usually far fewer than the tuples of child2.
+ */
+public class SemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final boolean anti;
+    private DbIterator child1;
+    private DbIterator child2;
+    // the distinct join field values of child2
+    private transient HashSet<Field> keys;
+    private transient ArrayList<Field> values;
+    // the value of child2 a range predicate is tested against, or null
+    private transient Field bound;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the tuples that are returned
+     * @param child2
+     *            Iterator for the tuples they are matched against
+     * @param anti
+     *            true to return the tuples of child1 that match no tuple of
+     *            child2
+     */
+    public SemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean anti) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /** @return true if this is an anti-join */
+    public boolean isAnti() {
+        return this.anti;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    /**
+     * @return the TupleDesc of child1
+     */
+    public TupleDesc getTupleDesc() {
+        return this.child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child1.open();
+        this.child2.open();
+        Predicate.Op op = this.p.getOperator();
+        Predicate.Op better = boundOp(op);
+        if (better != null) {
+            this.bound = null;
+            while (this.child2.hasNext()) {
+                Field v = this.child2.next().getField(this.p.getField2());
+                if (this.bound == null || v.compare(better, this.bound)) {
+                    this.bound = v;
+                }
+            }
+        } else {
+            this.keys = new HashSet<Field>();
+            while (this.child2.hasNext()) {
+                this.keys.add(this.child2.next().getField(this.p.getField2()));
+            }
+            if (op != Predicate.Op.EQUALS) {
+                this.values = new ArrayList<Field>(this.keys);
+                this.keys = null;
+            }
+        }
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        this.child2.close();
+        this.keys = null;
+        this.values = null;
+        this.bound = null;
+    }
+
+    // the comparison that makes a value of child2 a better bound than
+    // another for a range predicate, or null if op is not one
+    private static Predicate.Op boundOp(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN;
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Rewinds child1 only; the values of child2 are kept.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+    }
+
+    // true if some value of child2 satisfies the predicate against f
+    private boolean matches(Field f) {
+        if (this.keys != null) {
+            return this.keys.contains(f);
+        }
+        if (this.values == null) {
+            return this.bound != null && f.compare(this.p.getOperator(), this.bound);
+        }
+        for (Field v : this.values) {
+            if (f.compare(this.p.getOperator(), v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (this.child1.hasNext()) {
+            Tuple t = this.child1.next();
+            if (matches(t.getField(this.p.getField1())) != this.anti) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -18,6 +18,12 @@ public class SeqScan implements DbIterator {
     private TupleDesc td;
     private DbFileIterator tuple_iterator;
 
+    // tuples whose runtime_field is not in runtime_filter are dropped
+    private transient BloomFilter runtime_filter;
+    private int runtime_field;
+    private transient Tuple next_tuple;
+    private long num_filtered;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -89,6 +95,29 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Drop the tuples whose value of a field is not in a Bloom filter, as
+     * soon as they are read from their page. A hash join sets the filter
+     * of the keys it can match on the scan of its probe input.
+     *
+     * @param field
+     *            the index of the field tested
+     * @param filter
+     *            the filter, or null to return every tuple again
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtime_field = field;
+        this.runtime_filter = filter;
+    }
+
+    /**
+     * @return the number of tuples dropped by the runtime filter since the
+     *         scan was created
+     */
+    public long numFiltered() {
+        return this.num_filtered;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         this.tuple_iterator.open();
@@ -118,7 +147,22 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return this.tuple_iterator.hasNext();
+        if (this.next_tuple != null) {
+            return true;
+        }
+        BloomFilter filter = this.runtime_filter;
+        if (filter == null) {
+            return this.tuple_iterator.hasNext();
+        }
+        while (this.tuple_iterator.hasNext()) {
+            Tuple t = this.tuple_iterator.next();
+            if (filter.mightContain(t.getField(this.runtime_field))) {
+                this.next_tuple = t;
+                return true;
+            }
+            this.num_filtered++;
+        }
+        return false;
     }
 
     public Tuple next() throws NoSuchElementException,
@@ -127,11 +171,17 @@ public class SeqScan implements DbIterator {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
+        if (this.next_tuple != null) {
+            Tuple t = this.next_tuple;
+            this.next_tuple = null;
+            return t;
+        }
         return this.tuple_iterator.next();
     }
 
     public void close() {
         // some code goes here
+        this.next_tuple = null;
         this.tuple_iterator.close();
     }
 
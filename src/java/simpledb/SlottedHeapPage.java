@@ -0,0 +1,361 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SlottedHeapPage is a variant of {@link HeapPage} that stores variable-length
+ * records. Instead of reserving Type.getLen() bytes for every field, strings
+ * are stored with a two byte length followed by only the bytes they use, so
+ * tables with short strings fit many more rows on a page.
+ * <p>
+ * The layout of a page is:
+ * <pre>
+ *   numSlots (2 bytes)
+ *   slot directory: numSlots entries of (record offset, record length),
+ *                   2 bytes each; an offset of 0 marks an empty slot
+ *   free space
+ *   records, packed from the end of the page towards the directory
+ * </pre>
+ * Fields other than strings are written in their fixed-width format.
+ *
+ * @see HeapFile
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedHeapPage implements Page, Iterable<Tuple> {
+
+    /** Bytes used by the page header, which holds the number of slots. */
+    static final int HEADER_SIZE = 2;
+    /** Bytes used by each entry of the slot directory. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final StringDictionary dict;
+    // records by slot number, null for an empty slot
+    final ArrayList<Tuple> tuples;
+    // bytes taken by the header, the slot directory and all records
+    private int usedBytes;
+    private TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @see SlottedHeapPage for the page layout
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.dict = Database.getCatalog().getStringDictionary(id.getTableId());
+
+        ByteArrayInputStream bais = new ByteArrayInputStream(data);
+        DataInputStream dis = new DataInputStream(bais);
+
+        int numSlots = dis.readUnsignedShort();
+        int[] offsets = new int[numSlots];
+        int[] lengths = new int[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            offsets[i] = dis.readUnsignedShort();
+            lengths[i] = dis.readUnsignedShort();
+        }
+
+        this.tuples = new ArrayList<Tuple>(numSlots);
+        this.usedBytes = HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i = 0; i < numSlots; i++) {
+            if (offsets[i] == 0) {
+                this.tuples.add(null);
+                continue;
+            }
+            // jump straight to the record
+            bais.reset();
+            bais.skip(offsets[i]);
+
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, readField(dis, td.getFieldType(j), dict));
+            }
+            this.tuples.add(t);
+            this.usedBytes += lengths[i];
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * Read one field in the variable-length record format.
+     */
+    static Field readField(DataInputStream dis, Type type, StringDictionary dict) throws IOException {
+        if (type != Type.STRING_TYPE) {
+            try {
+                return type.parse(dis);
+            } catch (java.text.ParseException e) {
+                throw new IOException("couldn't parse field of type " + type);
+            }
+        }
+        int len = dis.readUnsignedShort();
+        if (dict != null) {
+            return dict.decode(dis, len);
+        }
+        byte[] bs = new byte[len];
+        dis.readFully(bs);
+        return new StringField(new String(bs, StandardCharsets.ISO_8859_1), Type.STRING_LEN);
+    }
+
+    /**
+     * Write one field in the variable-length record format.
+     */
+    static void writeField(DataOutputStream dos, Field f) throws IOException {
+        if (f.getType() != Type.STRING_TYPE) {
+            f.serialize(dos);
+            return;
+        }
+        String s = ((StringField) f).getValue();
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        dos.writeShort(s.length());
+        dos.writeBytes(s);
+    }
+
+    /**
+     * @return the number of bytes the record for t takes on a slotted page,
+     *         not counting its slot directory entry
+     */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            if (type == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += type.getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Lay out the given records as a slotted page. Record i is placed in
+     * slot i; null entries become empty slots.
+     *
+     * @param tuples the records of the page
+     * @param pageSize the number of bytes in the page
+     * @return the page bytes
+     * @throws IllegalArgumentException if the records do not fit
+     */
+    static byte[] createPageData(List<Tuple> tuples, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        int dirEnd = HEADER_SIZE + tuples.size() * SLOT_SIZE;
+        int recordStart = pageSize;
+        writeShort(data, 0, tuples.size());
+        try {
+            for (int i = 0; i < tuples.size(); i++) {
+                Tuple t = tuples.get(i);
+                int entry = HEADER_SIZE + i * SLOT_SIZE;
+                if (t == null) {
+                    writeShort(data, entry, 0);
+                    writeShort(data, entry + 2, 0);
+                    continue;
+                }
+                baos.reset();
+                for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                    writeField(dos, t.getField(j));
+                }
+                dos.flush();
+                int len = baos.size();
+                recordStart -= len;
+                if (recordStart < dirEnd) {
+                    throw new IllegalArgumentException("records do not fit on a page of " + pageSize + " bytes");
+                }
+                System.arraycopy(baos.toByteArray(), 0, data, recordStart, len);
+                writeShort(data, entry, recordStart);
+                writeShort(data, entry + 2, len);
+            }
+        } catch (IOException e) {
+            // writing to a byte array really shouldn't fail
+            throw new RuntimeException(e);
+        }
+        return data;
+    }
+
+    private static void writeShort(byte[] data, int pos, int v) {
+        data[pos] = (byte) (v >>> 8);
+        data[pos + 1] = (byte) v;
+    }
+
+    /**
+     * @return true if a record of recordSize bytes, plus a new slot
+     *         directory entry, fits in freeBytes
+     */
+    static boolean fits(int freeBytes, int recordSize) {
+        return recordSize + SLOT_SIZE <= freeBytes;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page. Records
+     * are compacted towards the end of the page, so space freed by deletes
+     * is reclaimed.
+     *
+     * @see #SlottedHeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        // trailing empty slots do not need a directory entry
+        int n = this.tuples.size();
+        while (n > 0 && this.tuples.get(n - 1) == null) {
+            n--;
+        }
+        return createPageData(this.tuples.subList(0, n), BufferPool.getPageSize());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage: a page with zero slots.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the number of bytes still available for new records and their
+     *         slot directory entries
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - this.usedBytes;
+    }
+
+    /**
+     * Delete the specified tuple from the page; the tuple's RecordId is
+     * cleared.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !this.pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        this.usedBytes -= recordSize(this.tuples.get(slot));
+        this.tuples.set(slot, null);
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException if the page does not have room for the record or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!this.td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int size = recordSize(t);
+        int slot = this.tuples.indexOf(null);
+        int needed = slot == -1 ? size + SLOT_SIZE : size;
+        if (needed > getFreeSpace()) {
+            throw new DbException("page is full");
+        }
+        if (slot == -1) {
+            slot = this.tuples.size();
+            this.tuples.add(t);
+        } else {
+            this.tuples.set(slot, t);
+        }
+        this.usedBytes += needed;
+        t.setRecordId(new RecordId(this.pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirtier;
+    }
+
+    /**
+     * @return the number of slots in the slot directory
+     */
+    public int getNumSlots() {
+        return this.tuples.size();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < this.tuples.size() && this.tuples.get(i) != null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, skipping empty slots
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> used = new ArrayList<Tuple>(this.tuples.size());
+        for (Tuple t : this.tuples) {
+            if (t != null) {
+                used.add(t);
+            }
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+}
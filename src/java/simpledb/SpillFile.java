@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write when their
+ * working set does not fit in memory. Tuples are appended in the same
+ * fixed-width format HeapPage uses for its records, and read back in order
+ * through {@link #iterator()}. The file is removed by {@link #delete()}, or
+ * when the JVM exits.
+ */
+public class SpillFile {
+
+    /**
+     * Memory budget of the operators that spill, in bytes, when none is
+     * given.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 1 << 22;
+    // approximate memory of a buffered tuple beyond its field bytes: the
+    // Tuple, its field list and the entry of the buffer or hash table
+    private static final int TUPLE_OVERHEAD = 64;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples = 0;
+
+    /**
+     * @return the approximate number of bytes a tuple of td takes when an
+     *         operator keeps it in memory
+     */
+    static long tupleBytes(TupleDesc td) {
+        return td.getSize() + TUPLE_OVERHEAD;
+    }
+
+    /**
+     * Create an empty spill file for tuples of the given schema.
+     *
+     * @throws IOException if the temporary file can't be created
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb", ".spill");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+    }
+
+    /**
+     * Append a tuple to the file. Must not be called once iterator() has been
+     * called.
+     */
+    public void add(Tuple t) throws IOException {
+        for (int i = 0; i < this.td.numFields(); i++) {
+            t.getField(i).serialize(this.out);
+        }
+        this.numTuples++;
+    }
+
+    /** @return the number of tuples in the file */
+    public int numTuples() {
+        return this.numTuples;
+    }
+
+    /** @return the number of bytes the tuples take on disk */
+    public long sizeBytes() {
+        return (long) this.numTuples * this.td.getSize();
+    }
+
+    /**
+     * Finish writing and return an iterator over the tuples, in the order
+     * they were added.
+     */
+    public DbIterator iterator() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+            this.out = null;
+        }
+        return new SpillIterator();
+    }
+
+    /** Remove the file from disk. */
+    public void delete() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException e) {
+                // the file is removed anyway
+            }
+            this.out = null;
+        }
+        this.file.delete();
+    }
+
+    private class SpillIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+        private transient DataInputStream in;
+        private int read = 0;
+
+        public void open() throws DbException {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file is gone: " + e.getMessage());
+            }
+            this.read = 0;
+        }
+
+        public boolean hasNext() {
+            if (this.in == null)
+                throw new IllegalStateException("iterator not open");
+            return this.read < numTuples;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(this.in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("couldn't read spill file: " + e.getMessage());
+            }
+            this.read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (this.in != null) {
+                try {
+                    this.in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                this.in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same result as {@link Aggregate} over a child
+ * whose tuples arrive grouped, that is with all tuples of a group next to
+ * each other, as they do when the child is sorted on the group-by fields.
+ * <p>
+ * Only the group being read is kept: when the group-by values change its
+ * result is returned right away, so memory use does not depend on the
+ * number of groups and the first groups are returned before the child is
+ * exhausted. Groups are returned in the order they arrive. If the child is
+ * not grouped, a group that arrives in several pieces is returned once per
+ * piece.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int[] agg_indexes;
+    private final int[] groupby_indexes;
+    private final Aggregator.Op[] agg_ops;
+    private TupleDesc td;
+    // the first tuple of the next group, read while finishing the last one
+    private transient Tuple pending;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, grouped on gfields
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     */
+    public StreamAggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate");
+        }
+        this.child = child;
+        this.agg_indexes = afields.clone();
+        this.groupby_indexes = gfields.clone();
+        this.agg_ops = aops.clone();
+        // check the operators against the column types
+        newGroupAggregator();
+    }
+
+    // a new aggregator for the tuples of one group
+    private Aggregator newGroupAggregator() {
+        TupleDesc child_td = this.child.getTupleDesc();
+        Type[] atypes = new Type[this.agg_indexes.length];
+        for (int i = 0; i < atypes.length; i++) {
+            atypes[i] = child_td.getFieldType(this.agg_indexes[i]);
+        }
+        if (atypes.length == 1) {
+            return Aggregate.newAggregator(Aggregator.NO_GROUPING, null, this.agg_indexes[0], atypes[0],
+                    this.agg_ops[0]);
+        }
+        return new MultiAggregator(new int[0], new Type[0], this.agg_indexes, atypes, this.agg_ops);
+    }
+
+    /**
+     * @return true if the tuples of it are known to arrive grouped on the
+     *         fields gfields, because it sorts them or reads them from an
+     *         operator that does
+     */
+    static boolean isGroupedOn(DbIterator it, int[] gfields) {
+        // a prefix of the sort order whose columns are all group fields,
+        // and which covers every group field
+        HashSet<Integer> groups = new HashSet<Integer>();
+        for (int g : gfields) {
+            groups.add(g);
+        }
+        HashSet<Integer> covered = new HashSet<Integer>();
+        for (Set<Integer> key : sortOrder(it)) {
+            if (covered.containsAll(groups)) {
+                break;
+            }
+            Set<Integer> in_groups = new HashSet<Integer>(key);
+            in_groups.retainAll(groups);
+            if (in_groups.isEmpty()) {
+                break;
+            }
+            covered.addAll(in_groups);
+        }
+        return covered.containsAll(groups);
+    }
+
+    /**
+     * @return the known sort order of the tuples of it, most significant
+     *         key first; every key is a set of columns that hold equal
+     *         values, as both join fields do after an equi-join
+     */
+    static List<Set<Integer>> sortOrder(DbIterator it) {
+        List<Set<Integer>> order = new ArrayList<Set<Integer>>();
+        int[] fields = null;
+        if (it instanceof OrderBy) {
+            fields = ((OrderBy) it).getOrderByFields();
+        } else if (it instanceof TopN) {
+            fields = ((TopN) it).getOrderByFields();
+        } else if (it instanceof Filter || it instanceof Limit) {
+            return sortOrder(((Operator) it).getChildren()[0]);
+        } else if (it instanceof Join && ((Join) it).getAlgorithm() == Join.Algorithm.SORT_MERGE) {
+            // the output follows the order of child1 on its join field
+            JoinPredicate p = ((Join) it).getJoinPredicate();
+            Set<Integer> key = new HashSet<Integer>();
+            key.add(p.getField1());
+            if (p.getOperator() == Predicate.Op.EQUALS) {
+                int n1 = ((Join) it).getChildren()[0].getTupleDesc().numFields();
+                key.add(n1 + p.getField2());
+            }
+            order.add(key);
+        }
+        if (fields != null) {
+            for (int f : fields) {
+                order.add(Collections.singleton(f));
+            }
+        }
+        return order;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return Aggregate.resultTupleDesc(this.child.getTupleDesc(), this.groupby_indexes,
+                this.agg_indexes, this.agg_ops);
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        this.child.open();
+        super.open();
+        this.td = getTupleDesc();
+        this.pending = null;
+    }
+
+    // true if t belongs to the group of first
+    private boolean sameGroup(Tuple first, Tuple t) {
+        for (int g : this.groupby_indexes) {
+            if (!first.getField(g).equals(t.getField(g))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the result of the next group: the group-by fields, in the
+     * order they were given, followed by the results of the aggregates.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        Tuple first = this.pending;
+        this.pending = null;
+        if (first == null) {
+            if (!this.child.hasNext()) {
+                return null;
+            }
+            first = this.child.next();
+        }
+        Aggregator agg = newGroupAggregator();
+        agg.mergeTupleIntoGroup(first);
+        while (this.child.hasNext()) {
+            Tuple t = this.child.next();
+            if (!sameGroup(first, t)) {
+                this.pending = t;
+                break;
+            }
+            agg.mergeTupleIntoGroup(t);
+        }
+
+        Tuple result = new Tuple(this.td);
+        int i = 0;
+        for (int g : this.groupby_indexes) {
+            result.setField(i++, first.getField(g));
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        Tuple values = it.next();
+        it.close();
+        for (int j = 0; j < values.getTupleDesc().numFields(); j++) {
+            result.setField(i++, values.getField(j));
+        }
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.pending = null;
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.pending = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
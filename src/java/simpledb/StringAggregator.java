@@ -1,8 +1,8 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -12,12 +12,14 @@ public class StringAggregator implements Aggregator {
     private static final long serialVersionUID = 1L;
 
     int groupby_index;
-    Field groupby_field;
     Type groupby_fieldtype;
     int agg_index;
     Op agg_op;
-    TupleDesc td; 
-    HashMap<Field, Integer> agg_res;
+    TupleDesc td;
+    // group numbers by group-by field, and the field and count of each group
+    private final HashMap<Field, Integer> field_groups = new HashMap<>();
+    private final ArrayList<Field> group_fields = new ArrayList<>();
+    private int[] counts = new int[16];
 
     /**
      * Aggregate constructor
@@ -34,7 +36,11 @@ public class StringAggregator implements Aggregator {
         this.groupby_fieldtype = gbfieldtype;
         this.agg_index = afield;
         this.agg_op = what;
-        this.agg_res = new HashMap<>();
+        if (gbfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(new Type[]{Type.INT_TYPE});
+        } else {
+            this.td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+        }
     }
 
     /**
@@ -43,20 +49,38 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        Field to_agg = tup.getField(this.agg_index);
-
-        this.groupby_field = null;
-        if (this.groupby_index != Aggregator.NO_GROUPING) {
-            this.groupby_field = tup.getField(this.groupby_index);
+        Field groupby_field = groupField(tup);
+        Integer g = this.field_groups.get(groupby_field);
+        if (g == null) {
+            g = this.group_fields.size();
+            this.field_groups.put(groupby_field, g);
+            this.group_fields.add(groupby_field);
+            if (g == this.counts.length) {
+                this.counts = Arrays.copyOf(this.counts, this.counts.length * 2);
+            }
         }
+        this.counts[g]++;
+    }
 
-        if (this.agg_res.containsKey(this.groupby_field)) {
-            Integer cur_agg = this.agg_res.get(this.groupby_field);
-            this.agg_res.put(this.groupby_field, cur_agg +1);
-        } else {
-            this.agg_res.put(this.groupby_field, 1);
+    public boolean mergeTupleIntoExistingGroup(Tuple tup) {
+        Integer g = this.field_groups.get(groupField(tup));
+        if (g == null) {
+            return false;
         }
+        this.counts[g]++;
+        return true;
+    }
 
+    public int numGroups() {
+        return this.group_fields.size();
+    }
+
+    // the group-by field of tup, null if there is no grouping
+    private Field groupField(Tuple tup) {
+        if (this.groupby_index == Aggregator.NO_GROUPING) {
+            return null;
+        }
+        return tup.getField(this.groupby_index);
     }
 
     /**
@@ -69,22 +93,24 @@ public class StringAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        ArrayList<Tuple> agg_tuples = new ArrayList<>();
-        for (Map.Entry<Field, Integer> entry : this.agg_res.entrySet()) {
-            if (this.groupby_index == Aggregator.NO_GROUPING) {
-                this.td = new TupleDesc(new Type[]{Type.INT_TYPE});
+        return new GroupIterator(this.td) {
+            private static final long serialVersionUID = 1L;
+
+            int numGroups() {
+                return group_fields.size();
+            }
+
+            Tuple group(int g) {
                 Tuple t = new Tuple(td);
-                t.setField(0, new IntField(entry.getValue()));
-                agg_tuples.add(t);
-            } else {
-                this.td = new TupleDesc(new Type[]{this.groupby_fieldtype, Type.INT_TYPE});
-                Tuple t = new Tuple(this.td);
-                t.setField(0, entry.getKey());
-                t.setField(1, new IntField(entry.getValue()));
-                agg_tuples.add(t);
+                if (groupby_index == Aggregator.NO_GROUPING) {
+                    t.setField(0, new IntField(counts[g]));
+                } else {
+                    t.setField(0, group_fields.get(g));
+                    t.setField(1, new IntField(counts[g]));
+                }
+                return t;
             }
-        }
-        return new TupleIterator(this.td, agg_tuples);   
+        };
     }
 
 }
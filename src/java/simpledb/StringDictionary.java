@@ -0,0 +1,254 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * StringDictionary interns the STRING_TYPE values of a single table. While a
+ * page is decoded, every string field is looked up by its raw bytes, so a
+ * value that has been seen before is returned as the same shared
+ * {@link StringField} instance instead of a fresh byte[] and String.
+ * <p>
+ * Every distinct value is also assigned a dense integer code. Two fields
+ * interned by the same dictionary are equal exactly when their codes are
+ * equal, which lets equality predicates, GROUP BY and hash joins compare
+ * them without touching the characters.
+ * <p>
+ * The dictionary stops growing after {@link #MAX_ENTRIES} distinct values;
+ * values beyond that are decoded as plain, un-interned StringFields so that
+ * near-unique columns do not pin an unbounded amount of memory.
+ * <p>
+ * Values that are already interned are found without taking a lock, so the
+ * workers of a parallel scan can decode pages of the same table at once;
+ * only adding a value is serialized.
+ *
+ * @Threadsafe
+ */
+public class StringDictionary {
+
+    /** Maximum number of distinct values interned per table. */
+    public static final int MAX_ENTRIES = 1 << 16;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // reusable buffer that a field is read into before it is looked up, one
+    // per thread so that decoding does not take the lock
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[Type.STRING_LEN];
+        }
+    };
+
+    /**
+     * A value and the code it was assigned. Its fields are final, so a
+     * reader that finds an entry without the lock sees it fully built.
+     */
+    private static class Entry {
+        final byte[] bytes;
+        final int hash;
+        final StringField field;
+
+        Entry(byte[] bytes, int hash, StringField field) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.field = field;
+        }
+    }
+
+    /**
+     * The open addressing table of codes (-1 marks an empty bucket) and the
+     * entries by code. Slots are only ever filled, never cleared, and a
+     * table that is resized is replaced by a new one; a reader that sees an
+     * empty slot, or a code whose entry it can't see yet, retries under the
+     * lock.
+     */
+    private static class Table {
+        final int[] buckets;
+        final Entry[] entries;
+
+        Table(int[] buckets, Entry[] entries) {
+            this.buckets = buckets;
+            this.entries = entries;
+        }
+    }
+
+    private volatile Table table;
+    private volatile int size;
+
+    /** Constructor. Creates an empty dictionary. */
+    public StringDictionary() {
+        this.table = new Table(newBuckets(INITIAL_CAPACITY), new Entry[INITIAL_CAPACITY]);
+    }
+
+    /**
+     * Read a STRING_TYPE field in the on-disk format written by
+     * {@link StringField#serialize} and return the interned instance for it.
+     *
+     * @param dis the stream positioned at the start of the field
+     * @return the shared StringField for the value read
+     * @throws IOException if the field can't be read
+     */
+    public StringField decode(DataInputStream dis) throws IOException {
+        int len = dis.readInt();
+        byte[] scratch = SCRATCH.get();
+        dis.readFully(scratch);
+        if (len < 0 || len > Type.STRING_LEN) {
+            throw new IOException("invalid string length " + len);
+        }
+        return lookup(scratch, len);
+    }
+
+    /**
+     * Read exactly len bytes of string data, without any length prefix or
+     * padding, and return the interned instance for them. Used by the
+     * variable-length record format of {@link SlottedHeapPage}.
+     *
+     * @param dis the stream positioned at the first byte of the string
+     * @param len the number of bytes in the string
+     * @return the shared StringField for the value read
+     * @throws IOException if the field can't be read
+     */
+    public StringField decode(DataInputStream dis, int len) throws IOException {
+        if (len < 0 || len > Type.STRING_LEN) {
+            throw new IOException("invalid string length " + len);
+        }
+        byte[] scratch = SCRATCH.get();
+        dis.readFully(scratch, 0, len);
+        return lookup(scratch, len);
+    }
+
+    /**
+     * Return the interned instance for the given value, adding it to the
+     * dictionary if it has not been seen yet. The value is encoded as
+     * ISO-8859-1, one byte per character, as pages store it.
+     */
+    public StringField intern(String s) {
+        if (s.length() > Type.STRING_LEN) {
+            s = s.substring(0, Type.STRING_LEN);
+        }
+        byte[] bs = s.getBytes(StandardCharsets.ISO_8859_1);
+        return lookup(bs, bs.length);
+    }
+
+    /**
+     * @return the field that was assigned the given code
+     * @throws IndexOutOfBoundsException if no value has that code
+     */
+    public StringField getField(int code) {
+        if (code < 0 || code >= this.size) {
+            throw new IndexOutOfBoundsException("no value has code " + code);
+        }
+        // size is written after the entry, so the entry is visible here
+        return this.table.entries[code].field;
+    }
+
+    /** @return the number of distinct values interned so far */
+    public int size() {
+        return this.size;
+    }
+
+    private StringField lookup(byte[] bs, int len) {
+        int h = hash(bs, len);
+        StringField f = find(this.table, bs, len, h);
+        return f != null ? f : add(bs, len, h);
+    }
+
+    // the field for the value, or null if it isn't in the table or was added
+    // by another thread too recently to be seen
+    private static StringField find(Table t, byte[] bs, int len, int h) {
+        int mask = t.buckets.length - 1;
+        int pos = h & mask;
+        while (true) {
+            int code = t.buckets[pos];
+            if (code == -1) {
+                return null;
+            }
+            Entry e = code < t.entries.length ? t.entries[code] : null;
+            if (e == null) {
+                return null;
+            }
+            if (e.hash == h && sameBytes(e.bytes, bs, len)) {
+                return e.field;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private synchronized StringField add(byte[] bs, int len, int h) {
+        Table t = this.table;
+        StringField found = find(t, bs, len, h);
+        if (found != null) {
+            return found;
+        }
+
+        String value = new String(bs, 0, len, StandardCharsets.ISO_8859_1);
+        int code = this.size;
+        if (code >= MAX_ENTRIES) {
+            // dictionary is full, fall back to an un-interned value
+            return new StringField(value, Type.STRING_LEN);
+        }
+
+        if (code >= t.entries.length) {
+            t = new Table(t.buckets, Arrays.copyOf(t.entries, t.entries.length * 2));
+            this.table = t;
+        }
+        byte[] copy = Arrays.copyOf(bs, len);
+        StringField f = new StringField(value, Type.STRING_LEN, this, code);
+        // the entry goes in before its bucket points at it
+        t.entries[code] = new Entry(copy, h, f);
+        int mask = t.buckets.length - 1;
+        int pos = h & mask;
+        while (t.buckets[pos] != -1) {
+            pos = (pos + 1) & mask;
+        }
+        t.buckets[pos] = code;
+        this.size = code + 1;
+
+        // keep the load factor at or below one half
+        if (this.size * 2 > t.buckets.length) {
+            rehash(t, t.buckets.length * 2);
+        }
+        return f;
+    }
+
+    private void rehash(Table t, int capacity) {
+        int[] newBuckets = newBuckets(capacity);
+        int mask = capacity - 1;
+        for (int code = 0; code < this.size; code++) {
+            int pos = t.entries[code].hash & mask;
+            while (newBuckets[pos] != -1) {
+                pos = (pos + 1) & mask;
+            }
+            newBuckets[pos] = code;
+        }
+        this.table = new Table(newBuckets, t.entries);
+    }
+
+    private static int[] newBuckets(int capacity) {
+        int[] b = new int[capacity];
+        Arrays.fill(b, -1);
+        return b;
+    }
+
+    private static int hash(byte[] bs, int len) {
+        int h = len;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + bs[i];
+        }
+        // spread the low bits, the table is indexed with a power of two mask
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameBytes(byte[] a, byte[] b, int len) {
+        if (a.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
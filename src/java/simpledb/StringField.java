@@ -12,6 +12,10 @@ public class StringField implements Field {
 	private final String value;
 	private final int maxSize;
 
+	// set when this value was interned by a table's StringDictionary
+	private final transient StringDictionary dict;
+	private final int code;
+
 	public String getValue() {
 		return value;
 	}
@@ -25,7 +29,21 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, null, -1);
+	}
+
+	/**
+	 * Constructor for values interned by a {@link StringDictionary}.
+	 * 
+	 * @param dict
+	 *            the dictionary that owns this value
+	 * @param code
+	 *            the code the dictionary assigned to this value
+	 */
+	StringField(String s, int maxSize, StringDictionary dict, int code) {
 		this.maxSize = maxSize;
+		this.dict = dict;
+		this.code = code;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -33,6 +51,29 @@ public class StringField implements Field {
 			value = s;
 	}
 
+	/**
+	 * @return the dictionary code of this value, or -1 if it was not
+	 *         interned by a StringDictionary
+	 */
+	public int getCode() {
+		return dict == null ? -1 : code;
+	}
+
+	/**
+	 * @return the dictionary that interned this value, or null
+	 */
+	public StringDictionary getDictionary() {
+		return dict;
+	}
+
+	/**
+	 * @return true if both values were interned by the same dictionary, in
+	 *         which case they are equal iff their codes are equal
+	 */
+	private boolean sameDictionary(StringField other) {
+		return dict != null && other.dict == dict;
+	}
+
 	public String toString() {
 		return value;
 	}
@@ -42,7 +83,12 @@ public class StringField implements Field {
 	}
 
 	public boolean equals(Object field) {
-		return ((StringField) field).value.equals(value);
+		if (this == field)
+			return true;
+		StringField other = (StringField) field;
+		if (sameDictionary(other))
+			return code == other.code;
+		return other.value.equals(value);
 	}
 
 	/**
@@ -77,6 +123,15 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
+
+		// equality between values of the same dictionary only needs the codes
+		if (sameDictionary(iVal)) {
+			if (op == Predicate.Op.EQUALS)
+				return code == iVal.code;
+			if (op == Predicate.Op.NOT_EQUALS)
+				return code != iVal.code;
+		}
+
 		int cmpVal = value.compareTo(iVal.value);
 
 		switch (op) {
@@ -85,8 +85,40 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            this.numPages = ((HeapFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            this.numPages = ((BTreeFile) file).numPages();
+        } else {
+            this.numPages = 0;
+        }
+
+        // count the tuples with a scan, pages of variable-length records
+        // don't hold a fixed number of them
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        int count = 0;
+        try {
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.close();
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+        }
+        this.numTuples = count;
     }
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private final int numTuples;
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -101,7 +133,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) this.numPages * this.ioCostPerPage;
     }
 
     /**
@@ -115,7 +147,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.ceil(this.numTuples * selectivityFactor);
     }
 
     /**
@@ -156,7 +188,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return this.numTuples;
     }
 
 }
@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n: it returns the first n tuples of its
+ * child in sorted order without sorting the whole input.
+ * <p>
+ * The n best tuples seen so far are kept in a heap whose root is the worst
+ * of them; every further tuple either replaces the root or is dropped. This
+ * takes O(N log n) time and O(n) memory for an input of N tuples. Ties are
+ * kept in input order, as with {@link OrderBy}. The heap grows with the
+ * tuples kept, so a large limit only costs memory on a large input; a
+ * limit whose tuples don't fit in the sort memory budget (see
+ * {@link #fits}) is better planned as a {@link Limit} over an OrderBy, which
+ * sorts on disk.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    // the most entries the heap is created with; it grows from there
+    private static final int INITIAL_CAPACITY = 1024;
+    private DbIterator child;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int limit;
+    private transient ArrayList<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * Creates a new TopN node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if its sort order is ascending.
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] ascs, int limit, DbIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("need one direction for each of at least one sort field");
+        }
+        this.child = child;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.limit = limit;
+    }
+
+    /**
+     * @return true if the first sort field is in ascending order
+     */
+    public boolean isASC() {
+        return this.ascs[0];
+    }
+
+    /**
+     * @return the first sort field
+     */
+    public int getOrderByField() {
+        return this.orderByFields[0];
+    }
+
+    /**
+     * @return the name of the first sort field
+     */
+    public String getOrderFieldName() {
+        return this.child.getTupleDesc().getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return all sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if it is in ascending order
+     */
+    public boolean[] getASCs() {
+        return this.ascs.clone();
+    }
+
+    /**
+     * @return the number of tuples this operator returns at most
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @return the number of bytes the kept tuples take at most
+     */
+    public long memoryBudget() {
+        return heapBytes(this.limit, this.child.getTupleDesc());
+    }
+
+    /**
+     * @return true if the limit tuples of type td kept by a TopN fit in a
+     *         memory budget of the given number of bytes
+     */
+    public static boolean fits(int limit, TupleDesc td, long memoryBudget) {
+        return heapBytes(limit, td) <= memoryBudget;
+    }
+
+    private static long heapBytes(int limit, TupleDesc td) {
+        return limit * SpillFile.tupleBytes(td);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    // a tuple and its position in the input, which breaks ties
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        super.open();
+
+        final TupleComparator cmp = new TupleComparator(this.orderByFields, this.ascs);
+        Comparator<Entry> order = new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                int c = cmp.compare(e1.t, e2.t);
+                return c != 0 ? c : Long.compare(e1.seq, e2.seq);
+            }
+        };
+        // the root of the heap is the worst tuple kept
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(this.limit, INITIAL_CAPACITY)),
+                Collections.reverseOrder(order));
+        long seq = 0;
+        while (this.limit > 0 && this.child.hasNext()) {
+            Entry e = new Entry(this.child.next(), seq++);
+            if (heap.size() < this.limit) {
+                heap.add(e);
+            } else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+
+        ArrayList<Entry> entries = new ArrayList<Entry>(heap);
+        Collections.sort(entries, order);
+        this.top = new ArrayList<Tuple>(entries.size());
+        for (Entry e : entries) {
+            this.top.add(e.t);
+        }
+        this.it = this.top.iterator();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.top = null;
+        this.it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.it = this.top.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (this.it != null && this.it.hasNext()) {
+            return this.it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Orders tuples by a list of sort keys, each a field and a direction.
+ * <p>
+ * Fields are compared by their primitive values with a single comparison
+ * per key. For large sorts, {@link #prefix} additionally normalizes the
+ * first key of a tuple into a long whose signed order is the sort order, so
+ * most comparisons are decided by comparing two longs; see
+ * {@link ExternalSort}.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    final int[] fields;
+    final boolean[] asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * @param fields
+     *            the sort keys, most significant first
+     * @param asc
+     *            for every key, true if it is sorted in ascending order
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException("need one direction for each of at least one sort key");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < this.fields.length; i++) {
+            int c = compareFields(o1.getField(this.fields[i]), o2.getField(this.fields[i]));
+            if (c != 0) {
+                return this.asc[i] ? c : -c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two fields of the same type by value.
+     */
+    static int compareFields(Field f1, Field f2) {
+        switch (f1.getType()) {
+        case INT_TYPE:
+            return Integer.compare(((IntField) f1).getValue(), ((IntField) f2).getValue());
+        case LONG_TYPE:
+            return Long.compare(((LongField) f1).getValue(), ((LongField) f2).getValue());
+        case DATE_TYPE:
+            return Long.compare(((DateField) f1).getValue(), ((DateField) f2).getValue());
+        case DOUBLE_TYPE:
+            return Double.compare(((DoubleField) f1).getValue(), ((DoubleField) f2).getValue());
+        case STRING_TYPE:
+            return ((StringField) f1).getValue().compareTo(((StringField) f2).getValue());
+        }
+        throw new IllegalArgumentException("can't compare fields of type " + f1.getType());
+    }
+
+    /**
+     * Normalize the first sort key of t into a long. If prefix(t1) &lt;
+     * prefix(t2) then t1 sorts before t2; if the prefixes are equal, the
+     * tuples must be compared with {@link #compare}. Numeric keys are
+     * encoded exactly, strings by their first four characters.
+     */
+    long prefix(Tuple t) {
+        Field f = t.getField(this.fields[0]);
+        long p;
+        switch (f.getType()) {
+        case INT_TYPE:
+            p = ((IntField) f).getValue();
+            break;
+        case LONG_TYPE:
+            p = ((LongField) f).getValue();
+            break;
+        case DATE_TYPE:
+            p = ((DateField) f).getValue();
+            break;
+        case DOUBLE_TYPE: {
+            // flip the magnitude bits of negative numbers, the order of the
+            // bit patterns as signed longs is then the order of the doubles
+            long bits = Double.doubleToLongBits(((DoubleField) f).getValue());
+            p = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+            break;
+        }
+        case STRING_TYPE: {
+            String s = ((StringField) f).getValue();
+            p = 0;
+            for (int i = 0; i < 4; i++) {
+                p = (p << 16) | (i < s.length() ? s.charAt(i) : 0);
+            }
+            // unsigned to signed order
+            p ^= Long.MIN_VALUE;
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("can't sort fields of type " + f.getType());
+        }
+        return this.asc[0] ? p : ~p;
+    }
+}
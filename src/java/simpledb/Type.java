@@ -24,6 +24,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(String s) {
+            return new IntField(Integer.parseInt(s.trim()));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -35,13 +40,91 @@ public enum Type implements Serializable {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
-                dis.read(bs);
+                dis.readFully(bs);
                 dis.skipBytes(STRING_LEN-strLen);
                 return new StringField(new String(bs), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(DataInputStream dis, StringDictionary dict) throws ParseException {
+            if (dict == null) {
+                return parse(dis);
+            }
+            try {
+                return dict.decode(dis);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new LongField(Long.parseLong(s.trim()));
+        }
+
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new DoubleField(Double.parseDouble(s.trim()));
+        }
+
+    }, DATE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return DateField.parse(s);
+        }
+
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +143,45 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Like {@link #parse(DataInputStream)}, but string values are interned in
+   * the given dictionary so that repeated values share one Field instance.
+   * @param dis The input stream to read from
+   * @param dict The dictionary of the table being read, or null
+   * @throws ParseException if the data read from the input stream is not
+   *   of the appropriate type.
+   */
+    public Field parse(DataInputStream dis, StringDictionary dict) throws ParseException {
+        return parse(dis);
+    }
+
+  /**
+   * @return a Field object of the same type as this object holding the value
+   *   written as text in s, e.g. a constant in a query or a column of a
+   *   text file being converted.
+   * @param s The text to parse
+   * @throws IllegalArgumentException if s is not a value of this type
+   */
+    public abstract Field parse(String s);
+
+  /**
+   * @return the Type with the given name as used in catalog files and on the
+   *   command line ("int", "string", "long", "double" or "date"), or null
+   *   if there is no such type.
+   */
+    public static Type forName(String name) {
+        name = name.trim().toLowerCase();
+        if (name.equals("int"))
+            return INT_TYPE;
+        else if (name.equals("string"))
+            return STRING_TYPE;
+        else if (name.equals("long"))
+            return LONG_TYPE;
+        else if (name.equals("double"))
+            return DOUBLE_TYPE;
+        else if (name.equals("date"))
+            return DATE_TYPE;
+        return null;
+    }
+
 }
@@ -3,6 +3,8 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -176,6 +178,132 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  // the number of tuples left in it
+  private static int countRows(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for several aggregates computed in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1, 0 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.MAX, Aggregator.Op.MIN });
+    assertEquals(5, op.getTupleDesc().numFields());
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 12, 3, 6, 1,
+                    3, 12, 3, 6, 3,
+                    5, 7, 1, 7, 5 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    assertEquals(3, countRows(op));
+  }
+
+  /**
+   * Unit test for aggregates grouped by two int fields
+   */
+  @Test public void compositeIntGroups() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    1, 1, 6,
+                    2, 1, 2,
+                    -1, 1, 8,
+                    -1, 1, 4 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.SUM_COUNT });
+    assertEquals(new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE,
+        Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE }), op.getTupleDesc());
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 1, 4, 8, 2,
+                    1, 2, 4, 4, 1,
+                    2, 1, 2, 2, 1,
+                    -1, 1, 6, 12, 2 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    assertEquals(4, countRows(op));
+  }
+
+  /**
+   * Unit test for aggregates over string and int columns, grouped by a
+   * string and an int field
+   */
+  @Test public void compositeStringGroups() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 2,
+                       "a", 1, 4,
+                       "a", 2, 6,
+                       "b", 1, 2,
+                       "b", 1, 5 });
+    Aggregate op = new Aggregate(scan, new int[] { 0, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.MAX });
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(4,
+        new Object[] { "a", 1, 2, 4,
+                       "a", 2, 1, 6,
+                       "b", 1, 2, 5 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    assertEquals(3, countRows(op));
+  }
+
+  /**
+   * Groups that don't fit in the memory budget are spilled and aggregated
+   * in later passes, with the same result
+   */
+  @Test public void spillingAggregate() throws Exception {
+    int rows = 3000;
+    int[] data = new int[rows * 3];
+    for (int i = 0; i < rows; i++) {
+      data[3 * i] = i * 7 % 1000;
+      data[3 * i + 1] = i % 2;
+      data[3 * i + 2] = i;
+    }
+    int[] afields = new int[] { 2, 2, 2 };
+    int[] gfields = new int[] { 0, 1 };
+    Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(3, data), afields, gfields, aops);
+    inMemory.open();
+    Map<String, Integer> expected = TestUtil.countTuples(inMemory);
+    assertEquals(0, inMemory.numSpilledPartitions());
+    inMemory.close();
+    assertEquals(1000, expected.size());
+
+    Aggregate spilling = new Aggregate(TestUtil.createTupleList(3, data), afields, gfields, aops, 4096);
+    spilling.open();
+    assertTrue(spilling.numSpilledPartitions() > 0);
+    assertTrue(spilling.numSpilledTuples() > rows / 2);
+    assertEquals(expected, TestUtil.countTuples(spilling));
+    spilling.rewind();
+    assertEquals(expected, TestUtil.countTuples(spilling));
+    spilling.close();
+
+    // a single group field, spilled as well
+    Aggregate single = new Aggregate(TestUtil.createTupleList(3, data), 2, 0, Aggregator.Op.MAX);
+    single.open();
+    expected = TestUtil.countTuples(single);
+    single.close();
+    single = new Aggregate(TestUtil.createTupleList(3, data), new int[] { 2 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.MAX }, 4096);
+    single.open();
+    assertTrue(single.numSpilledPartitions() > 0);
+    assertEquals(expected, TestUtil.countTuples(single));
+    single.close();
+  }
+
   /**
    * JUnit suite target
    */
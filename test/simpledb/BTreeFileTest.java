@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private BTreeFile f;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        // small pages make deep trees out of a few thousand tuples
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        File file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        this.f = new BTreeFile(file, Utility.getTupleDesc(2), 0);
+        Database.getCatalog().addTable(this.f, "btree");
+        this.tid = new TransactionId();
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.setPageSize(BufferPool.PAGE_SIZE);
+    }
+
+    private ArrayList<ArrayList<Integer>> insertRandom(int rows, int maxKey) throws Exception {
+        Random r = new Random(rows);
+        ArrayList<ArrayList<Integer>> rowsInserted = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            int key = r.nextInt(maxKey);
+            Database.getBufferPool().insertTuple(this.tid, this.f.getId(), Utility.getHeapTuple(new int[] { key, i }));
+            rowsInserted.add(new ArrayList<Integer>(Arrays.asList(key, i)));
+        }
+        return rowsInserted;
+    }
+
+    private static ArrayList<ArrayList<Integer>> rows(DbFileIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            res.add(new ArrayList<Integer>(Arrays.asList(((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue())));
+        }
+        it.close();
+        return res;
+    }
+
+    private static void assertSameRows(List<ArrayList<Integer>> expected, List<ArrayList<Integer>> actual) {
+        Comparator<ArrayList<Integer>> c = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int d = Integer.compare(a.get(0), b.get(0));
+                return d != 0 ? d : Integer.compare(a.get(1), b.get(1));
+            }
+        };
+        ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+        Collections.sort(e, c);
+        Collections.sort(a, c);
+        assertEquals(e, a);
+    }
+
+    /**
+     * Check the structure of the tree: keys in order and between the keys
+     * of the parent, parent pointers and sibling links right, and every
+     * page but the root at least half full.
+     *
+     * @return the depth of the tree
+     */
+    private int checkTree() throws Exception {
+        int root = this.f.rootPage(this.tid, Permissions.READ_ONLY);
+        ArrayList<BTreeLeafPage> leaves = new ArrayList<BTreeLeafPage>();
+        int depth = checkPage(root, 0, null, null, leaves);
+        for (int i = 0; i < leaves.size(); i++) {
+            BTreeLeafPage leaf = leaves.get(i);
+            assertEquals(i == 0 ? 0 : leaves.get(i - 1).pageNumber(), leaf.getLeftSibling());
+            assertEquals(i == leaves.size() - 1 ? 0 : leaves.get(i + 1).pageNumber(), leaf.getRightSibling());
+        }
+        return depth;
+    }
+
+    private int checkPage(int pgNo, int parent, Field lower, Field upper, List<BTreeLeafPage> leaves)
+            throws Exception {
+        BTreePage page = (BTreePage) Database.getBufferPool().getPage(this.tid,
+                new BTreePageId(this.f.getId(), pgNo), Permissions.READ_ONLY);
+        if (page instanceof BTreeLeafPage) {
+            BTreeLeafPage leaf = (BTreeLeafPage) page;
+            assertEquals(parent, leaf.getParent());
+            if (parent != 0)
+                assertTrue(leaf.getNumTuples() >= BTreeLeafPage.maxTuples(this.f.getTupleDesc()) / 2);
+            for (int i = 0; i < leaf.getNumTuples(); i++) {
+                checkKey(leaf.getKey(i), i == 0 ? lower : leaf.getKey(i - 1), upper);
+                assertEquals(new RecordId(leaf.getId(), i), leaf.getTuple(i).getRecordId());
+            }
+            leaves.add(leaf);
+            return 1;
+        }
+        BTreeInternalPage internal = (BTreeInternalPage) page;
+        assertEquals(parent, internal.getParent());
+        if (parent != 0)
+            assertTrue(internal.getNumKeys() >= BTreeInternalPage.maxKeys(Type.INT_TYPE) / 2);
+        else
+            assertTrue(internal.getNumKeys() > 0);
+        int depth = -1;
+        for (int i = 0; i <= internal.getNumKeys(); i++) {
+            Field lo = i == 0 ? lower : internal.getKey(i - 1);
+            Field hi = i == internal.getNumKeys() ? upper : internal.getKey(i);
+            checkKey(hi, lo, upper);
+            int d = checkPage(internal.getChild(i), pgNo, lo, hi, leaves);
+            assertTrue(depth == -1 || depth == d);
+            depth = d;
+        }
+        return depth + 1;
+    }
+
+    private static void checkKey(Field key, Field lower, Field upper) {
+        if (key == null)
+            return;
+        assertTrue(lower == null || !key.compare(Predicate.Op.LESS_THAN, lower));
+        assertTrue(upper == null || !key.compare(Predicate.Op.GREATER_THAN, upper));
+    }
+
+    /**
+     * Inserts split pages into a balanced tree that returns every tuple in
+     * key order
+     */
+    @Test public void insert() throws Exception {
+        ArrayList<ArrayList<Integer>> inserted = insertRandom(5000, 1000);
+        assertTrue(checkTree() >= 3);
+        ArrayList<ArrayList<Integer>> scanned = rows(this.f.iterator(this.tid));
+        assertSameRows(inserted, scanned);
+        for (int i = 1; i < scanned.size(); i++)
+            assertTrue(scanned.get(i - 1).get(0) <= scanned.get(i).get(0));
+    }
+
+    /**
+     * Equality and range lookups return the tuples with matching keys,
+     * duplicates included
+     */
+    @Test public void lookups() throws Exception {
+        ArrayList<ArrayList<Integer>> inserted = insertRandom(3000, 200);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (op == Predicate.Op.LIKE)
+                continue;
+            for (int v : new int[] { -1, 0, 57, 199, 250 }) {
+                IndexPredicate ipred = new IndexPredicate(op, new IntField(v));
+                ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+                for (ArrayList<Integer> row : inserted) {
+                    if (ipred.matches(new IntField(row.get(0))))
+                        expected.add(row);
+                }
+                assertSameRows(expected, rows(this.f.indexIterator(this.tid, ipred)));
+            }
+        }
+    }
+
+    /**
+     * Deletes merge and rebalance pages down to an empty root, and freed
+     * pages are reused
+     */
+    @Test public void delete() throws Exception {
+        ArrayList<ArrayList<Integer>> inserted = insertRandom(4000, 500);
+        int pages = this.f.numPages();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = this.f.iterator(this.tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        Collections.shuffle(tuples, new Random(1));
+
+        HashSet<ArrayList<Integer>> remaining = new HashSet<ArrayList<Integer>>(inserted);
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            Database.getBufferPool().deleteTuple(this.tid, t);
+            remaining.remove(new ArrayList<Integer>(Arrays.asList(((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue())));
+            if (i % 500 == 0) {
+                checkTree();
+                assertSameRows(new ArrayList<ArrayList<Integer>>(remaining), rows(this.f.iterator(this.tid)));
+            }
+        }
+        assertEquals(1, checkTree());
+        assertTrue(rows(this.f.iterator(this.tid)).isEmpty());
+
+        insertRandom(4000, 500);
+        checkTree();
+        assertEquals(pages, this.f.numPages());
+    }
+
+    /**
+     * Deleting a tuple that is not in the file fails
+     */
+    @Test(expected = DbException.class) public void deleteMissing() throws Exception {
+        insertRandom(10, 10);
+        Tuple t = Utility.getHeapTuple(new int[] { 5, 100 });
+        t.setRecordId(new RecordId(new BTreePageId(this.f.getId(), 1), 0));
+        Database.getBufferPool().deleteTuple(this.tid, t);
+    }
+
+    /**
+     * Flushed pages are read back by a new BTreeFile on the same file
+     */
+    @Test public void persistence() throws Exception {
+        ArrayList<ArrayList<Integer>> inserted = insertRandom(2000, 300);
+        Database.getBufferPool().flushAllPages();
+        File file = this.f.getFile();
+        Database.reset();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        this.f = new BTreeFile(file, Utility.getTupleDesc(2), 0);
+        Database.getCatalog().addTable(this.f, "btree");
+        checkTree();
+        assertSameRows(inserted, rows(this.f.iterator(this.tid)));
+    }
+
+    /**
+     * An IndexNestedLoopJoin looks up the outer tuples in a BTreeFile
+     */
+    @Test public void indexJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> inserted = insertRandom(2000, 300);
+        int[] outer = { 5, 0, 17, 1, 299, 2, 400, 3 };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < outer.length; i += 2) {
+            for (ArrayList<Integer> row : inserted) {
+                if (row.get(0) == outer[i])
+                    expected.add(new ArrayList<Integer>(Arrays.asList(outer[i], outer[i + 1], row.get(0), row.get(1))));
+            }
+        }
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, outer), this.tid, this.f.getId(), "b", new Predicate[0]);
+        simpledb.systemtest.SystemTestUtil.matchTuples(j, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
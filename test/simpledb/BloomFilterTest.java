@@ -0,0 +1,35 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+    /**
+     * A Bloom filter has no false negatives and few false positives
+     */
+    @Test public void bloomFilter() throws Exception {
+        BloomFilter f = new BloomFilter(1000);
+        for (int i = 0; i < 1000; i++)
+            f.add(new IntField(i * 3));
+        int positives = 0;
+        for (int i = 0; i < 3000; i++) {
+            boolean in = f.mightContain(new IntField(i));
+            if (i % 3 == 0)
+                assertTrue(in);
+            else if (in)
+                positives++;
+        }
+        assertTrue(positives < 100);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
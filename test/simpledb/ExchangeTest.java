@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    // producers returning (key, producer, i) for i < rows, key = i % keys
+    private static DbIterator[] producers(int n, int rows, int keys, ArrayList<ArrayList<Integer>> all) {
+        DbIterator[] its = new DbIterator[n];
+        for (int p = 0; p < n; p++) {
+            int[] data = new int[3 * rows];
+            for (int i = 0; i < rows; i++) {
+                data[3 * i] = i % keys;
+                data[3 * i + 1] = p;
+                data[3 * i + 2] = i;
+                all.add(new ArrayList<Integer>(Arrays.asList(i % keys, p, i)));
+            }
+            its[p] = TestUtil.createTupleList(3, data);
+        }
+        return its;
+    }
+
+    // read every output of an exchange on a thread of its own
+    private static ArrayList<ArrayList<Tuple>> readAll(final Exchange ex) throws Exception {
+        final ArrayList<ArrayList<Tuple>> results = new ArrayList<ArrayList<Tuple>>();
+        final Exception[] failures = new Exception[ex.numOutputs()];
+        Thread[] consumers = new Thread[ex.numOutputs()];
+        for (int i = 0; i < consumers.length; i++) {
+            final int o = i;
+            final ArrayList<Tuple> out = new ArrayList<Tuple>();
+            results.add(out);
+            consumers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        DbIterator it = ex.output(o);
+                        it.open();
+                        while (it.hasNext())
+                            out.add(it.next());
+                        it.close();
+                    } catch (Exception e) {
+                        failures[o] = e;
+                    }
+                }
+            });
+            consumers[i].start();
+        }
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i].join();
+            if (failures[i] != null)
+                throw failures[i];
+        }
+        return results;
+    }
+
+    /**
+     * Gather returns the tuples of every producer, and starts over when
+     * rewound
+     */
+    @Test public void gather() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        Gather g = new Gather(producers(3, 5000, 100, all));
+        assertEquals(3, g.numProducers());
+        SystemTestUtil.matchTuples(g, all);
+
+        g.open();
+        assertTrue(g.hasNext());
+        g.next();
+        g.rewind();
+        int n = 0;
+        while (g.hasNext()) {
+            g.next();
+            n++;
+        }
+        assertEquals(all.size(), n);
+        g.close();
+    }
+
+    /**
+     * Every tuple goes to exactly one output, the one its key hashes to
+     */
+    @Test public void repartition() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        Repartition r = new Repartition(producers(2, 5000, 100, all), 0, 3);
+        ArrayList<ArrayList<Tuple>> results = readAll(r);
+        int n = 0;
+        for (int o = 0; o < results.size(); o++) {
+            assertFalse(results.get(o).isEmpty());
+            for (Tuple t : results.get(o)) {
+                assertEquals(o, r.outputOf(t.getField(0)));
+            }
+            n += results.get(o).size();
+        }
+        assertEquals(all.size(), n);
+
+        try {
+            r.output(0).open();
+            r.output(0).rewind();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // an output can't be rewound while the others are read
+        } finally {
+            for (int o = 0; o < r.numOutputs(); o++)
+                r.output(o).close();
+        }
+    }
+
+    /**
+     * Every output returns every tuple
+     */
+    @Test public void broadcast() throws Exception {
+        ArrayList<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        Broadcast b = new Broadcast(producers(2, 3000, 10, all), 3);
+        for (ArrayList<Tuple> out : readAll(b)) {
+            assertEquals(all.size(), out.size());
+            HashSet<String> seen = new HashSet<String>();
+            for (Tuple t : out)
+                assertTrue(seen.add(t.toString()));
+        }
+    }
+
+    /**
+     * The queue loses and duplicates nothing under concurrent producers
+     * and consumers, and parked threads are always woken
+     */
+    @Test(timeout = 60000) public void queue() throws Exception {
+        final ExchangeQueue<Integer> q = new ExchangeQueue<Integer>(8);
+        final int perProducer = 100000;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final boolean producer = t % 2 == 0;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    int attempt = 0;
+                    for (int i = 1; i <= perProducer; i++) {
+                        if (producer) {
+                            while (!q.offer(i))
+                                q.awaitSpace(attempt++);
+                        } else {
+                            Integer v;
+                            while ((v = q.poll()) == null)
+                                q.awaitElement(attempt++);
+                            sum.addAndGet(v);
+                            count.incrementAndGet();
+                        }
+                        attempt = 0;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(2L * perProducer, count.get());
+        assertEquals(2L * perProducer * (perProducer + 1) / 2, sum.get());
+        assertNull(q.poll());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
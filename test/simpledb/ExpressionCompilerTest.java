@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExpressionCompilerTest extends SimpleDbTestBase {
+
+    private static Tuple tuple(int a, long b, double c, String d) {
+        TupleDesc td = new TupleDesc(new Type[] {
+            Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.STRING_TYPE });
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new LongField(b));
+        t.setField(2, new DoubleField(c));
+        t.setField(3, new StringField(d, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * A compiled conjunction agrees with the predicates it was built from
+     */
+    @Test public void filter() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate[] preds = new Predicate[] {
+                new Predicate(0, op, new IntField(2)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new LongField(-5)),
+                new Predicate(3, Predicate.Op.NOT_EQUALS, new StringField("x", Type.STRING_LEN)),
+            };
+            ExpressionCompiler.TupleFilter f = ExpressionCompiler.compileFilter(preds);
+            assertTrue(f.getClass().getName().startsWith("simpledb.generated."));
+            for (int a = 0; a < 5; a++) {
+                for (String d : new String[] { "x", "y" }) {
+                    Tuple t = tuple(a, a - 6, a / 2.0, d);
+                    boolean expected = preds[0].filter(t) && preds[1].filter(t) && preds[2].filter(t);
+                    assertEquals(expected, f.filter(t));
+                }
+            }
+        }
+    }
+
+    /**
+     * Classes are shared by expressions of the same shape, whatever the
+     * constants
+     */
+    @Test public void cachedByShape() {
+        Predicate p1 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new DoubleField(1.5));
+        ExpressionCompiler.TupleFilter f1 = ExpressionCompiler.compileFilter(new Predicate[] { p1 });
+        int generated = ExpressionCompiler.numGeneratedClasses();
+
+        Predicate p2 = new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new DoubleField(0.5));
+        ExpressionCompiler.TupleFilter f2 = ExpressionCompiler.compileFilter(new Predicate[] { p2 });
+        assertEquals(generated, ExpressionCompiler.numGeneratedClasses());
+        assertSame(f1.getClass(), f2.getClass());
+
+        Tuple t = tuple(0, 0, 1.0, "");
+        assertTrue(f1.filter(t));
+        assertFalse(f2.filter(t));
+    }
+
+    /**
+     * Unit test for compiled projections
+     */
+    @Test public void projection() {
+        ExpressionCompiler.TupleProjector p = ExpressionCompiler.compileProjection(new int[] { 3, 0, 0 });
+        Tuple in = tuple(7, 8, 9.0, "z");
+        Tuple out = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE }));
+        p.project(in, out);
+        assertEquals("z", out.getField(0).toString());
+        assertEquals(new IntField(7), out.getField(1));
+        assertEquals(new IntField(7), out.getField(2));
+    }
+
+    /**
+     * A Filter with several predicates returns only the matching tuples
+     */
+    @Test public void conjunctionFilter() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 20; i++)
+            tuples.add(tuple(i, i, i, "s" + (i % 3)));
+        Filter f = new Filter(new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(5)),
+            new Predicate(3, Predicate.Op.EQUALS, new StringField("s1", Type.STRING_LEN)),
+        }, new TupleIterator(tuples.get(0).getTupleDesc(), tuples));
+        assertEquals(2, f.getPredicates().length);
+        f.open();
+        int count = 0;
+        while (f.hasNext()) {
+            Tuple t = f.next();
+            assertTrue(((IntField) t.getField(0)).getValue() >= 5);
+            assertEquals("s1", t.getField(3).toString());
+            count++;
+        }
+        f.close();
+        assertEquals(5, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExpressionCompilerTest.class);
+    }
+}
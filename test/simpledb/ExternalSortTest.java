@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+    private static List<Tuple> drain(DbIterator it) throws Exception {
+        List<Tuple> res = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            res.add(it.next());
+        }
+        return res;
+    }
+
+    // tuples are ordered by key, and by the original row within a key
+    private static void checkSorted(List<Tuple> tuples, int rows) {
+        assertEquals(rows, tuples.size());
+        for (int i = 1; i < tuples.size(); i++) {
+            int k1 = ((IntField) tuples.get(i - 1).getField(0)).getValue();
+            int k2 = ((IntField) tuples.get(i).getField(0)).getValue();
+            assertTrue(k1 <= k2);
+            if (k1 == k2) {
+                int r1 = ((IntField) tuples.get(i - 1).getField(1)).getValue();
+                int r2 = ((IntField) tuples.get(i).getField(1)).getValue();
+                assertTrue(r1 < r2);
+            }
+        }
+    }
+
+    /**
+     * Input that fits in the budget is sorted without writing runs
+     */
+    @Test public void inMemory() throws Exception {
+        ExternalSort s = new ExternalSort(TestUtil.createKeyedTupleList(2, 1000, 100, 7919),
+                new TupleComparator(0, true));
+        s.open();
+        checkSorted(drain(s), 1000);
+        assertEquals(0, s.numRuns());
+        s.close();
+    }
+
+    /**
+     * A small budget writes runs and merges them stably
+     */
+    @Test public void spilled() throws Exception {
+        ExternalSort s = new ExternalSort(TestUtil.createKeyedTupleList(2, 1000, 100, 7919),
+                new TupleComparator(0, true), 4096);
+        s.open();
+        checkSorted(drain(s), 1000);
+        assertTrue(s.numRuns() > 1);
+
+        s.rewind();
+        checkSorted(drain(s), 1000);
+        s.close();
+    }
+
+    /**
+     * More runs than can be merged at once are merged in several passes
+     */
+    @Test public void multiPass() throws Exception {
+        int rows = ExternalSort.MAX_FAN_IN * 3;
+        ExternalSort s = new ExternalSort(TestUtil.createKeyedTupleList(2, rows, 50, 7919),
+                new TupleComparator(0, true), 1);
+        s.open();
+        checkSorted(drain(s), rows);
+        assertTrue(s.numRuns() > rows);
+        s.close();
+    }
+
+    /**
+     * OrderBy returns the same order whether or not it spills
+     */
+    @Test public void orderBy() throws Exception {
+        OrderBy inMemory = new OrderBy(0, false, TestUtil.createKeyedTupleList(2, 500, 37, 7919));
+        OrderBy spilled = new OrderBy(0, false, TestUtil.createKeyedTupleList(2, 500, 37, 7919), 1024);
+        inMemory.open();
+        spilled.open();
+        List<Tuple> expected = drain(inMemory);
+        List<Tuple> actual = drain(spilled);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+        }
+        inMemory.close();
+        spilled.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+    private static void check(int rows1, int keys1, int rows2, int keys2, boolean buildLeft,
+            long budget, boolean spills) throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Map<String, Integer> expected = TestUtil.resultMultiset(new Join(p,
+                TestUtil.createKeyedTupleList(2, rows1, keys1, 1),
+                TestUtil.createKeyedTupleList(2, rows2, keys2, 1), Join.Algorithm.HASH));
+        HashJoin hj = new HashJoin(p, TestUtil.createKeyedTupleList(2, rows1, keys1, 1),
+                TestUtil.createKeyedTupleList(2, rows2, keys2, 1), buildLeft, budget);
+        assertEquals(expected, TestUtil.resultMultiset(hj));
+
+        hj.open();
+        assertEquals(spills, hj.numSpilledPartitions() > 0);
+        hj.close();
+    }
+
+    /**
+     * Without memory pressure nothing is spilled
+     */
+    @Test public void inMemory() throws Exception {
+        check(500, 50, 800, 80, true, SpillFile.DEFAULT_MEMORY_BUDGET, false);
+        check(500, 50, 800, 80, false, SpillFile.DEFAULT_MEMORY_BUDGET, false);
+    }
+
+    /**
+     * A small budget spills partitions and still produces every row
+     */
+    @Test public void spilling() throws Exception {
+        check(3000, 700, 2000, 1000, true, 8192, true);
+        check(3000, 700, 2000, 1000, false, 8192, true);
+    }
+
+    /**
+     * Heavily duplicated keys can't be split, they end up joined in memory
+     */
+    @Test public void skewed() throws Exception {
+        check(400, 2, 300, 3, true, 2048, true);
+    }
+
+    /**
+     * rewind() restarts the join, including spilled partitions
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashJoin hj = new HashJoin(p, TestUtil.createKeyedTupleList(2, 1000, 300, 1),
+                TestUtil.createKeyedTupleList(2, 1000, 300, 1), true, 4096);
+        hj.open();
+        int n = 0;
+        while (hj.hasNext()) {
+            hj.next();
+            n++;
+        }
+        hj.rewind();
+        int m = 0;
+        while (hj.hasNext()) {
+            hj.next();
+            m++;
+        }
+        hj.close();
+        assertEquals(n, m);
+        assertTrue(n > 0);
+    }
+
+    /**
+     * The probe scan drops the tuples that can't match, for the same
+     * result, with a spilling join too
+     */
+    @Test public void runtimeFilter() throws Exception {
+        ArrayList<ArrayList<Integer>> probeRows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, probeRows);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (long budget : new long[] { SpillFile.DEFAULT_MEMORY_BUDGET, 4096 }) {
+            Map<String, Integer> expected = TestUtil.resultMultiset(new Join(p,
+                    TestUtil.createKeyedTupleList(2, 200, 50, 1), new SeqScan(tid, f.getId(), "t"),
+                    Join.Algorithm.HASH));
+            SeqScan scan = new SeqScan(tid, f.getId(), "t");
+            DbIterator probe = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), scan);
+            HashJoin hj = new HashJoin(p, TestUtil.createKeyedTupleList(2, 200, 50, 1), probe, true, budget);
+            assertEquals(expected, TestUtil.resultMultiset(hj));
+            // keys 0..49 out of 0..999 match
+            assertTrue(scan.numFiltered() > 5000 * 9 / 10 - 200);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The Bloom filter is sized from the build table's statistics within a
+     * share of the budget, and isn't pushed down when the build input has
+     * more keys than it holds
+     */
+    @Test public void runtimeFilterSize() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, rows);
+        TransactionId tid = new TransactionId();
+        String name = Database.getCatalog().getTableName(f.getId());
+        // an eighth of 4096 bytes, at 10 bits per key
+        assertEquals(409, HashJoin.filterKeys(new SeqScan(tid, f.getId(), "t"), 4096));
+        TableStats.setTableStats(name, new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+        assertEquals(5000, HashJoin.filterKeys(new SeqScan(tid, f.getId(), "t"),
+                SpillFile.DEFAULT_MEMORY_BUDGET));
+        assertEquals(409, HashJoin.filterKeys(new SeqScan(tid, f.getId(), "t"), 4096));
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        Map<String, Integer> expected = TestUtil.resultMultiset(new Join(p,
+                TestUtil.createKeyedTupleList(2, 2000, 50, 1), new SeqScan(tid, f.getId(), "t"),
+                Join.Algorithm.HASH));
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        HashJoin hj = new HashJoin(p, TestUtil.createKeyedTupleList(2, 2000, 50, 1), scan, true, 4096);
+        assertEquals(expected, TestUtil.resultMultiset(hj));
+        assertEquals(0, scan.numFiltered());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
@@ -187,6 +187,14 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Heap files are read-only, so the buffer pool refuses to update them
+     */
+    @Test(expected = DbException.class)
+    public void insertReadOnly() throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    /**
+     * A heap file whose "index" scans the file and returns the tuples with
+     * a matching key
+     */
+    private static class ScanIndexedFile extends HeapFile implements IndexedFile {
+        private final int key;
+
+        ScanIndexedFile(HeapFile f, int key) {
+            super(f.getFile(), f.getTupleDesc());
+            this.key = key;
+        }
+
+        public int keyField() {
+            return this.key;
+        }
+
+        public DbFileIterator indexIterator(TransactionId tid, final IndexPredicate ipred) {
+            final DbFileIterator it = iterator(tid);
+            return new DbFileIterator() {
+                private Tuple next;
+
+                public void open() throws DbException, TransactionAbortedException {
+                    it.open();
+                }
+
+                public boolean hasNext() throws DbException, TransactionAbortedException {
+                    while (this.next == null && it.hasNext()) {
+                        Tuple t = it.next();
+                        if (ipred.matches(t.getField(key)))
+                            this.next = t;
+                    }
+                    return this.next != null;
+                }
+
+                public Tuple next() throws DbException, TransactionAbortedException {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    Tuple t = this.next;
+                    this.next = null;
+                    return t;
+                }
+
+                public void rewind() throws DbException, TransactionAbortedException {
+                    it.rewind();
+                    this.next = null;
+                }
+
+                public void close() {
+                    it.close();
+                    this.next = null;
+                }
+            };
+        }
+    }
+
+    private static ScanIndexedFile indexedTable(int rows, int maxValue, String colPrefix, String name,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, tuples, colPrefix);
+        ScanIndexedFile indexed = new ScanIndexedFile(f, 0);
+        Database.getCatalog().addTable(indexed, name);
+        return indexed;
+    }
+
+    /**
+     * The join returns the tuples of a Join with a scan of the table, for
+     * equality and range joins, with and without predicates on the table
+     */
+    @Test public void sameAsJoin() throws Exception {
+        ScanIndexedFile f = indexedTable(500, 100, "i", "inner_t", new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        Predicate[] none = new Predicate[0];
+        Predicate[] preds = { new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)) };
+        int[] outer = { 3, 0, 17, 1, 3, 2, 99, 3, 1000, 4 };
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            for (Predicate[] innerPreds : new Predicate[][] { none, preds }) {
+                JoinPredicate p = new JoinPredicate(0, op, 0);
+                DbIterator inner = new SeqScan(tid, f.getId(), "i");
+                if (innerPreds.length > 0)
+                    inner = new Filter(innerPreds, inner);
+                Map<String, Integer> expected = TestUtil.resultMultiset(new Join(p,
+                        TestUtil.createTupleList(2, outer), inner));
+                IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, TestUtil.createTupleList(2, outer), tid,
+                        f.getId(), "i", innerPreds);
+                assertEquals(expected, TestUtil.resultMultiset(j));
+                assertEquals(5, j.numLookups());
+                assertEquals("i.i0", j.getJoinField2Name());
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * rewind() restarts the lookups
+     */
+    @Test public void rewind() throws Exception {
+        ScanIndexedFile f = indexedTable(300, 20, "i", "inner_t", new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, new int[] { 1, 0, 2, 1, 3, 2 }), tid, f.getId(), "i",
+                new Predicate[0]);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.rewind();
+        int m = 0;
+        while (j.hasNext()) {
+            j.next();
+            m++;
+        }
+        j.close();
+        assertEquals(n, m);
+        assertTrue(n > 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The table must be indexed on the join field
+     */
+    @Test(expected = IllegalArgumentException.class) public void notIndexedField() throws Exception {
+        ScanIndexedFile f = indexedTable(10, 20, "i", "inner_t", new ArrayList<ArrayList<Integer>>());
+        new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                TestUtil.createTupleList(2, new int[] { 1, 0 }), new TransactionId(), f.getId(), "i",
+                new Predicate[0]);
+    }
+
+    /**
+     * The planner looks up the few tuples of a small outer table in the
+     * index of a large table, applying the filters of the large table to
+     * the tuples found
+     */
+    @Test public void planned() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> inner = new ArrayList<ArrayList<Integer>>();
+        HeapFile o = SystemTestUtil.createRandomHeapFile(2, 5, 1000, null, outer, "o");
+        Database.getCatalog().addTable(o, "outer_t");
+        indexedTable(20000, 1000, "i", "inner_t", inner);
+        TableStats.computeStatistics();
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : outer) {
+            for (ArrayList<Integer> t2 : inner) {
+                if (t1.get(0).equals(t2.get(0)) && t2.get(1) > 500) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    expected.add(t);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        String sql = "SELECT * FROM outer_t o, inner_t i WHERE i.i1 > 500 AND o.o0 = i.i0;";
+        ZQuery q = (ZQuery) new ZqlParser(new java.io.ByteArrayInputStream(sql.getBytes("UTF-8"))).readStatement();
+        LogicalPlan lp = new Parser().parseQueryLogicalPlan(tid, q);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(find(plan, IndexNestedLoopJoin.class));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static boolean find(DbIterator it, Class<?> c) {
+        if (c.isInstance(it))
+            return true;
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren()) {
+                if (find(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.NoSuchElementException;
 
@@ -178,6 +179,116 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test SUM_COUNT, and SC_AVG over its output
+   */
+  @Test public void mergeSumCount() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 12, 3, 3, 12, 3, 5, 7, 1 }), it);
+
+    // averaging partial results gives the average of all values
+    IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    it.rewind();
+    while (it.hasNext())
+      avg.mergeTupleIntoGroup(it.next());
+    avg.mergeTupleIntoGroup(TestUtil.createTupleList(3, new int[] { 1, 16, 1 }).next());
+    DbIterator res = avg.iterator();
+    res.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 7, 3, 4, 5, 7 }), res);
+  }
+
+  /**
+   * Only tuples of the groups already in the aggregator are merged into
+   * existing groups
+   */
+  @Test public void mergeIntoExistingGroup() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    for (int i = 0; i < 3; i++)
+      agg.mergeTupleIntoGroup(scan1.next());
+    assertEquals(1, agg.numGroups());
+    int merged = 0;
+    while (scan1.hasNext())
+      merged += agg.mergeTupleIntoExistingGroup(scan1.next()) ? 1 : 0;
+    assertEquals(0, merged);
+    assertEquals(1, agg.numGroups());
+    assertTrue(agg.mergeTupleIntoExistingGroup(TestUtil.createTupleList(width1, new int[] { 1, 5 }).next()));
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, 17 }), it);
+  }
+
+  /**
+   * The iterator reads results off the aggregator as they are returned, so
+   * one created before merging sees every group
+   */
+  @Test public void iteratorReadsCurrentState() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    DbIterator it = agg.iterator();
+    it.open();
+    assertEquals(false, it.hasNext());
+    scan1.open();
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+    it.rewind();
+    DbIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 1, 12, 3, 12, 5, 7 });
+    expected.open();
+    TestUtil.compareDbIterators(expected, it);
+  }
+
+  /**
+   * Test grouping by many distinct keys, and by a string field
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 10000;
+    int[] data = new int[groups * 2 * 2];
+    int[] expected = new int[groups * 2];
+    for (int i = 0; i < groups * 2; i++) {
+      data[2 * i] = (i % groups) * 7 - 5000;
+      data[2 * i + 1] = i;
+    }
+    for (int g = 0; g < groups; g++) {
+      expected[2 * g] = g * 7 - 5000;
+      expected[2 * g + 1] = 2;
+    }
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    DbIterator in = TestUtil.createTupleList(width1, data);
+    in.open();
+    while (in.hasNext())
+      agg.mergeTupleIntoGroup(in.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected), it);
+
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    IntegerAggregator byName = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.MAX);
+    for (int i = 0; i < 10; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("g" + (i % 3), Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      byName.mergeTupleIntoGroup(t);
+    }
+    it = byName.iterator();
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      String name = ((StringField) t.getField(0)).getValue();
+      int max = name.equals("g0") ? 9 : name.equals("g1") ? 7 : 8;
+      assertEquals(max, ((IntField) t.getField(1)).getValue());
+      n++;
+    }
+    assertEquals(3, n);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,87 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    private static final double PAGE = TableStats.IOCOSTPERPAGE;
+
+    /**
+     * Equi-joins of large inputs are hashed, other predicates fall back to
+     * algorithms that support them
+     */
+    @Test public void chooseAlgorithm() {
+        assertEquals(Join.Algorithm.HASH, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.EQUALS, 100000, 50000, 1000 * PAGE, 500 * PAGE));
+        assertEquals(Join.Algorithm.SORT_MERGE, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.LESS_THAN, 100000, 50000, 1000 * PAGE, 500 * PAGE));
+        Join.Algorithm ne = JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.NOT_EQUALS, 100000, 50000, 1000 * PAGE, 500 * PAGE);
+        assertTrue(ne == Join.Algorithm.BLOCK_NESTED_LOOP || ne == Join.Algorithm.NESTED_LOOP);
+    }
+
+    /**
+     * Algorithms that can't run a predicate are never cheapest
+     */
+    @Test public void unsupportedCost() {
+        assertEquals(Double.MAX_VALUE, JoinOptimizer.estimateJoinCost(Join.Algorithm.HASH,
+                Predicate.Op.GREATER_THAN, 10, 10, PAGE, PAGE), 0);
+        assertEquals(Double.MAX_VALUE, JoinOptimizer.estimateJoinCost(Join.Algorithm.SORT_MERGE,
+                Predicate.Op.NOT_EQUALS, 10, 10, PAGE, PAGE), 0);
+        // the outer relation is scanned once per join buffer, not per tuple
+        assertTrue(JoinOptimizer.estimateJoinCost(Join.Algorithm.BLOCK_NESTED_LOOP,
+                Predicate.Op.EQUALS, 1000, 1000, 10 * PAGE, 10 * PAGE)
+                < JoinOptimizer.estimateJoinCost(Join.Algorithm.NESTED_LOOP,
+                Predicate.Op.EQUALS, 1000, 1000, 10 * PAGE, 10 * PAGE));
+    }
+
+    /**
+     * Equi-join cardinality follows the primary keys
+     */
+    @Test public void joinCardinality() {
+        assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 400, true, true, null, null));
+        assertEquals(400, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 400, true, false, null, null));
+        assertEquals(100, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "x", "y", 100, 400, false, true, null, null));
+        assertEquals(3000, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.LESS_THAN,
+                "a", "b", "x", "y", 100, 100, false, false, null, null));
+        assertEquals(Integer.MAX_VALUE, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.LESS_THAN,
+                "a", "b", "x", "y", 1000000, 1000000, false, false, null, null));
+    }
+
+    /**
+     * instantiateJoin builds the operator for the chosen algorithm
+     */
+    @Test public void instantiate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c0", "b.c0", Predicate.Op.EQUALS);
+
+        DbIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, f.getId(), "a"),
+                new SeqScan(tid, f.getId(), "b"), Join.Algorithm.HASH, false);
+        assertTrue(j instanceof HashJoin);
+        assertFalse(((HashJoin) j).buildsLeft());
+
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, f.getId(), "a"),
+                new SeqScan(tid, f.getId(), "b"), Join.Algorithm.SORT_MERGE, true);
+        assertEquals(Join.Algorithm.SORT_MERGE, ((Join) j).getAlgorithm());
+
+        j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, f.getId(), "a"),
+                new SeqScan(tid, f.getId(), "b"));
+        assertEquals(Join.Algorithm.BLOCK_NESTED_LOOP, ((Join) j).getAlgorithm());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
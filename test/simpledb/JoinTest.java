@@ -3,6 +3,9 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Random;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +108,88 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    it.rewind();
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Every join algorithm produces the same result
+   */
+  @Test public void algorithms() throws Exception {
+    for (Join.Algorithm a : Join.Algorithm.values()) {
+      Join eq = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2, a);
+      assertEquals(a, eq.getAlgorithm());
+      eq.open();
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, eq);
+      assertEquals(3, count(eq));
+      eq.close();
+      eqJoin.close();
+
+      Join gt = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2, a);
+      gt.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, gt);
+      assertEquals(11, count(gt));
+      gt.close();
+      gtJoin.close();
+
+      Join le = new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN_OR_EQ, 2), scan1, scan2, a);
+      le.open();
+      assertEquals(11, count(le));
+      le.close();
+    }
+    assertEquals(Join.Algorithm.BLOCK_NESTED_LOOP, new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+        scan1, scan2, Join.Algorithm.HASH).getAlgorithm());
+  }
+
+  // a two column input of random keys, counting how often it is opened
+  private static TupleIterator countingInput(int rows, int seed, final int[] opens) {
+    Random r = new Random(seed);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < rows; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { r.nextInt(20), i }));
+    return new TupleIterator(Utility.getTupleDesc(2), tuples) {
+      private static final long serialVersionUID = 1L;
+
+      public void open() {
+        opens[0]++;
+        super.open();
+      }
+    };
+  }
+
+  /**
+   * The sort-merge join sorts the inputs the join opened without opening
+   * them again, and matches the nested loop join on every predicate it
+   * supports
+   */
+  @Test public void sortMergeOpensOnce() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      int[] opens = new int[1];
+      Join sm = new Join(new JoinPredicate(0, op, 0), countingInput(40, 1, opens),
+          countingInput(30, 2, opens), Join.Algorithm.SORT_MERGE);
+      Join nl = new Join(new JoinPredicate(0, op, 0), countingInput(40, 1, new int[1]),
+          countingInput(30, 2, new int[1]), Join.Algorithm.NESTED_LOOP);
+      sm.open();
+      nl.open();
+      sm.hasNext();
+      assertEquals(2, opens[0]);
+      TestUtil.matchAllTuples(nl, sm);
+      assertEquals(count(nl), count(sm));
+      sm.close();
+      nl.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
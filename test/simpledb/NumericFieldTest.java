@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class NumericFieldTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] {
+        Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE };
+
+    /**
+     * Values survive serialize() / Type.parse()
+     */
+    @Test public void roundTrip() throws Exception {
+        Field[] fields = new Field[] {
+            new LongField(Long.MAX_VALUE - 7),
+            new DoubleField(-12.5),
+            DateField.parse("2024-02-29"),
+            DateField.parse("1969-12-31 23:59:58"),
+        };
+        Type[] types = new Type[] { Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE, Type.DATE_TYPE };
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (Field f : fields)
+            f.serialize(dos);
+        dos.flush();
+        assertEquals(32, baos.size());
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 0; i < fields.length; i++) {
+            assertEquals(8, types[i].getLen());
+            assertEquals(fields[i], types[i].parse(dis));
+        }
+        assertEquals("2024-02-29", fields[2].toString());
+        assertEquals("1969-12-31 23:59:58", fields[3].toString());
+        assertEquals(fields[2], Type.DATE_TYPE.parse(fields[2].toString()));
+    }
+
+    /**
+     * Unit test for compare() of the numeric fields
+     */
+    @Test public void compare() {
+        assertTrue(new LongField(3).compare(Predicate.Op.LESS_THAN, new LongField(1L << 40)));
+        assertTrue(new DoubleField(0.5).compare(Predicate.Op.GREATER_THAN_OR_EQ, new DoubleField(0.5)));
+        assertFalse(new DoubleField(0.5).compare(Predicate.Op.NOT_EQUALS, new DoubleField(0.5)));
+        assertTrue(DateField.parse("2020-01-01").compare(Predicate.Op.LESS_THAN,
+                DateField.parse("2020-01-01 00:00:01")));
+        assertTrue(Type.LONG_TYPE.parse(" 42 ").compare(Predicate.Op.EQUALS, new LongField(42)));
+    }
+
+    /**
+     * Malformed text is rejected with IllegalArgumentException
+     */
+    @Test public void parseErrors() {
+        for (String s : new String[] { "2020-13-01", "yesterday" }) {
+            try {
+                Type.DATE_TYPE.parse(s);
+                fail("expected IllegalArgumentException for " + s);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            Type.DOUBLE_TYPE.parse("1.2.3");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Type.DATE_TYPE, Type.forName(" Date"));
+        assertNull(Type.forName("float"));
+    }
+
+    /**
+     * Aggregates over the new types keep the column type, except COUNT
+     */
+    @Test public void aggregate() throws Exception {
+        TupleDesc td = new TupleDesc(TYPES);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 4; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i % 2));
+            t.setField(1, new LongField(10000000000L * (i + 1)));
+            t.setField(2, new DoubleField(i + 0.25));
+            t.setField(3, DateField.parse("2000-01-0" + (i + 1)));
+            tuples.add(t);
+        }
+
+        Aggregate sum = new Aggregate(new TupleIterator(td, tuples), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        assertEquals(Type.LONG_TYPE, sum.getTupleDesc().getFieldType(0));
+        sum.open();
+        assertEquals(new LongField(100000000000L), sum.next().getField(0));
+        sum.close();
+
+        Aggregate avg = new Aggregate(new TupleIterator(td, tuples), 2, 0, Aggregator.Op.AVG);
+        assertEquals(Type.DOUBLE_TYPE, avg.getTupleDesc().getFieldType(1));
+        avg.open();
+        HashMap<Field, Field> res = new HashMap<Field, Field>();
+        while (avg.hasNext()) {
+            Tuple t = avg.next();
+            res.put(t.getField(0), t.getField(1));
+        }
+        avg.close();
+        assertEquals(new DoubleField(1.25), res.get(new IntField(0)));
+        assertEquals(new DoubleField(2.25), res.get(new IntField(1)));
+
+        Aggregate max = new Aggregate(new TupleIterator(td, tuples), 3, Aggregator.NO_GROUPING, Aggregator.Op.MAX);
+        max.open();
+        assertEquals("2000-01-04", max.next().getField(0).toString());
+        max.close();
+
+        Aggregate count = new Aggregate(new TupleIterator(td, tuples), 3, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        assertEquals(Type.INT_TYPE, count.getTupleDesc().getFieldType(0));
+        count.open();
+        assertEquals(new IntField(4), count.next().getField(0));
+        count.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericFieldTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private static void check(int rows, int keys, int[] afields, int[] gfields, Aggregator.Op[] aops)
+            throws Exception {
+        Map<String, Integer> expected = TestUtil.resultMultiset(new Aggregate(
+                TestUtil.createKeyedTupleList(3, rows, keys, 1), afields, gfields, aops));
+        for (int parallelism : new int[] { 1, 2, 4 }) {
+            ParallelAggregate pa = new ParallelAggregate(TestUtil.createKeyedTupleList(3, rows, keys, 1),
+                    afields, gfields, aops, parallelism);
+            assertEquals(Aggregate.resultTupleDesc(pa.getChildren()[0].getTupleDesc(), gfields, afields, aops),
+                    pa.getTupleDesc());
+            assertEquals(expected, TestUtil.resultMultiset(pa));
+        }
+    }
+
+    /**
+     * Every supported operator gives the same result as Aggregate, with and
+     * without grouping
+     */
+    @Test public void sameAsAggregate() throws Exception {
+        Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX };
+        int[] afields = new int[] { 2, 2, 2, 2, 1 };
+        check(20000, 100, afields, new int[] { 0 }, aops);
+        check(20000, 5000, afields, new int[] { 0, 1 }, aops);
+        check(20000, 10, afields, new int[0], aops);
+        check(0, 10, afields, new int[] { 0 }, aops);
+    }
+
+    /**
+     * Groups beyond the memory budget are spilled by the workers, and still
+     * aggregated once each
+     */
+    @Test public void spills() throws Exception {
+        int[] afields = new int[] { 2, 2 };
+        int[] gfields = new int[] { 0, 1 };
+        Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT };
+        Map<String, Integer> expected = TestUtil.resultMultiset(new Aggregate(
+                TestUtil.createKeyedTupleList(3, 20000, 4000, 1), afields, gfields, aops));
+        for (int parallelism : new int[] { 1, 3 }) {
+            ParallelAggregate pa = new ParallelAggregate(TestUtil.createKeyedTupleList(3, 20000, 4000, 1),
+                    afields, gfields, aops, parallelism, 8192);
+            pa.open();
+            assertTrue(pa.numSpilledTuples() > 0);
+            pa.close();
+            assertEquals(expected, TestUtil.resultMultiset(pa));
+        }
+    }
+
+    /**
+     * Strings can be grouped on and counted
+     */
+    @Test public void stringColumns() throws Exception {
+        Object[] data = new Object[3000 * 2];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = "k" + (i % 7);
+            data[2 * i + 1] = "v" + i;
+        }
+        int[] afields = new int[] { 1 };
+        int[] gfields = new int[] { 0 };
+        Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.COUNT };
+        Map<String, Integer> expected = TestUtil.resultMultiset(new Aggregate(
+                TestUtil.createTupleList(2, data), afields, gfields, aops));
+        assertEquals(expected, TestUtil.resultMultiset(new ParallelAggregate(
+                TestUtil.createTupleList(2, data), afields, gfields, aops, 3)));
+    }
+
+    /**
+     * Operators that can't be merged from partials are rejected
+     */
+    @Test public void unsupported() {
+        assertTrue(ParallelAggregate.supports(Type.INT_TYPE, Aggregator.Op.AVG));
+        assertFalse(ParallelAggregate.supports(Type.LONG_TYPE, Aggregator.Op.AVG));
+        assertFalse(ParallelAggregate.supports(Type.INT_TYPE, Aggregator.Op.SC_AVG));
+        try {
+            new ParallelAggregate(TestUtil.createKeyedTupleList(3, 10, 2, 1), new int[] { 2 }, new int[] { 0 },
+                    new Aggregator.Op[] { Aggregator.Op.SUM_COUNT }, 2);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
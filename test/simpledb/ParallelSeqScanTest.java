@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+    /**
+     * Every tuple is returned once, whatever the number of threads
+     */
+    @Test public void scanAll() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 20000, null, tuples);
+        assertTrue(f.numPages() > ParallelSeqScan.MORSEL_PAGES * 3);
+        TransactionId tid = new TransactionId();
+        for (int parallelism : new int[] { 1, 3, 4 }) {
+            ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", new Predicate[0], null, parallelism);
+            assertEquals(new SeqScan(tid, f.getId(), "t").getTupleDesc(), scan.getTupleDesc());
+            SystemTestUtil.matchTuples(scan, tuples);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Workers filter and project their tuples
+     */
+    @Test public void filterAndProject() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 20000, 10000, null, tuples);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 1000 && t.get(1) >= 5000) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+            }
+        }
+        TransactionId tid = new TransactionId();
+        Predicate[] preds = new Predicate[] {
+            new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1000)),
+            new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(5000)) };
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", preds, new int[] { 2, 0 }, 4);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t." + f.getTupleDesc().getFieldName(2), scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan closed before it is exhausted stops its workers, and a rewound
+     * scan starts over
+     */
+    @Test public void closeEarlyAndRewind() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 30000, null, tuples);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", new Predicate[0], null, 4);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.next();
+        scan.rewind();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        assertEquals(tuples.size(), n);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples dropped by a runtime filter are counted once the workers are
+     * done
+     */
+    @Test public void runtimeFilter() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        BloomFilter filter = new BloomFilter(50);
+        for (int i = 0; i < 50; i++)
+            filter.add(new IntField(i));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (filter.mightContain(new IntField(t.get(1))))
+                expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", new Predicate[0], null, 4);
+        scan.setRuntimeFilter(1, filter);
+        SystemTestUtil.matchTuples(scan, expected);
+        assertEquals(tuples.size() - expected.size(), scan.numFiltered());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ParallelSortTest extends SimpleDbTestBase {
+
+    // a sort key and the original position, to check stability
+    private static class Item {
+        final int key;
+        final int pos;
+
+        Item(int key, int pos) {
+            this.key = key;
+            this.pos = pos;
+        }
+    }
+
+    private static final Comparator<Item> BY_KEY = new Comparator<Item>() {
+        public int compare(Item i1, Item i2) {
+            return Integer.compare(i1.key, i2.key);
+        }
+    };
+
+    private static void check(int n, int keys, int parallelism) {
+        Random r = new Random(n * 31 + parallelism);
+        Item[] a = new Item[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = new Item(r.nextInt(keys), i);
+        }
+        ParallelSort.sort(a, BY_KEY, parallelism);
+        for (int i = 1; i < n; i++) {
+            assertTrue(a[i - 1].key <= a[i].key);
+            if (a[i - 1].key == a[i].key) {
+                assertTrue(a[i - 1].pos < a[i].pos);
+            }
+        }
+    }
+
+    /**
+     * Arrays of every size are sorted stably with any parallelism
+     */
+    @Test public void sort() {
+        for (int parallelism : new int[] { 1, 2, 4 }) {
+            check(0, 10, parallelism);
+            check(100, 10, parallelism);
+            check(ParallelSort.MIN_PARTITION * 5 + 3, 100, parallelism);
+            check(ParallelSort.MIN_PARTITION * 8, 1000000, parallelism);
+        }
+    }
+
+    /**
+     * ExternalSort gives the same order with one or several threads
+     */
+    @Test public void externalSort() throws Exception {
+        int rows = ParallelSort.MIN_PARTITION * 3;
+        int[] data = new int[rows * 2];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = i * 7919 % 1000;
+            data[2 * i + 1] = i;
+        }
+        ExternalSort s1 = new ExternalSort(TestUtil.createTupleList(2, data),
+                new TupleComparator(0, false), SpillFile.DEFAULT_MEMORY_BUDGET, 1);
+        ExternalSort s4 = new ExternalSort(TestUtil.createTupleList(2, data),
+                new TupleComparator(0, false), SpillFile.DEFAULT_MEMORY_BUDGET, 4);
+        s1.open();
+        s4.open();
+        int n = 0;
+        while (s1.hasNext()) {
+            assertTrue(s4.hasNext());
+            assertTrue(TestUtil.compareTuples(s1.next(), s4.next()));
+            n++;
+        }
+        assertFalse(s4.hasNext());
+        assertEquals(rows, n);
+        s1.close();
+        s4.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelSortTest.class);
+    }
+}
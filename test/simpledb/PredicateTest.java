@@ -5,6 +5,7 @@ import org.junit.Test;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
 
 public class PredicateTest extends SimpleDbTestBase{
@@ -55,6 +56,27 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * The specialized evaluators must agree with Field.compare for every
+   * operator, and non-int operands must still work
+   */
+  @Test public void specializedMatchesCompare() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = -2; i <= 2; i++) {
+        Predicate p = new Predicate(0, op, TestUtil.getField(0));
+        assertEquals(TestUtil.getField(i).compare(op, TestUtil.getField(0)),
+            p.filter(Utility.getHeapTuple(i)));
+      }
+    }
+
+    Tuple t = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE }));
+    t.setField(0, new StringField("bob", Type.STRING_LEN));
+    assertTrue(new Predicate(0, Predicate.Op.LIKE,
+        new StringField("o", Type.STRING_LEN)).filter(t));
+    assertFalse(new Predicate(0, Predicate.Op.GREATER_THAN,
+        new StringField("carol", Type.STRING_LEN)).filter(t));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class QueryExecutorTest extends SimpleDbTestBase {
+
+    /**
+     * Many small queries run concurrently, each getting its own result
+     */
+    @Test public void manySmallQueries() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+        QueryExecutor ex = new QueryExecutor(1 << 20, 1, 4);
+        ArrayList<Future<List<Tuple>>> results = new ArrayList<Future<List<Tuple>>>();
+        for (int k = 0; k < 200; k++) {
+            TransactionId tid = new TransactionId();
+            Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(k * 5)),
+                    new SeqScan(tid, f.getId(), "t"));
+            results.add(ex.submit(new Query(filter, tid)));
+        }
+        for (int k = 0; k < results.size(); k++) {
+            int expected = 0;
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) < k * 5)
+                    expected++;
+            }
+            assertEquals(expected, results.get(k).get().size());
+        }
+        ex.shutdown();
+        assertTrue(ex.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, ex.running());
+        assertEquals(0, ex.reservedMemory());
+    }
+
+    /**
+     * Queries whose joins don't fit in the memory budget together wait for
+     * each other
+     */
+    @Test public void memoryAdmission() throws Exception {
+        assertEquals(1, maxConcurrent(1000));
+        int max = maxConcurrent(3000);
+        assertTrue(max > 1 && max <= 3);
+    }
+
+    // the most queries running at once, each with a join budget of 1000
+    // bytes, under an executor budget of the given size
+    private static int maxConcurrent(long budget) throws Exception {
+        final QueryExecutor ex = new QueryExecutor(budget, 1, 8);
+        final AtomicInteger max = new AtomicInteger();
+        final TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tups = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            tups.add(t);
+        }
+        ArrayList<Future<List<Tuple>>> results = new ArrayList<Future<List<Tuple>>>();
+        for (int q = 0; q < 8; q++) {
+            DbIterator slow = new TupleIterator(td, tups) {
+                private static final long serialVersionUID = 1L;
+
+                public void open() {
+                    int running = ex.running();
+                    while (max.get() < running && !max.compareAndSet(max.get(), running)) {
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    super.open();
+                }
+            };
+            HashJoin join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), slow,
+                    new TupleIterator(td, tups), true, 1000);
+            assertEquals(1000, QueryExecutor.memoryNeeded(join));
+            results.add(ex.submit(new Query(join, new TransactionId())));
+        }
+        for (Future<List<Tuple>> r : results) {
+            assertEquals(10, r.get().size());
+        }
+        ex.shutdown();
+        return max.get();
+    }
+
+    /**
+     * Queries wait to be admitted without holding a thread, and one that
+     * is cancelled while waiting never runs
+     */
+    @Test public void waitingQueries() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean cancelledRan = new AtomicBoolean();
+        final TupleDesc td = Utility.getTupleDesc(2);
+        DbIterator blocked = new TupleIterator(td, new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+
+            public void open() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.open();
+            }
+        };
+        DbIterator cancelled = new TupleIterator(td, new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+
+            public void open() {
+                cancelledRan.set(true);
+                super.open();
+            }
+        };
+        QueryExecutor ex = new QueryExecutor(1 << 20, 1, 1);
+        Future<List<Tuple>> first = ex.submit(new Query(blocked, new TransactionId()));
+        Future<List<Tuple>> second = ex.submit(new Query(cancelled, new TransactionId()));
+        assertEquals(1, ex.running());
+        assertTrue(second.cancel(false));
+        Future<List<Tuple>> third = ex.submit(new Query(new TupleIterator(td, new ArrayList<Tuple>()),
+                new TransactionId()));
+        release.countDown();
+        assertEquals(0, first.get().size());
+        assertEquals(0, third.get().size());
+        ex.shutdown();
+        assertTrue(ex.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(cancelledRan.get());
+        assertEquals(0, ex.running());
+    }
+
+    /**
+     * A query that fails is closed, and its memory released
+     */
+    @Test public void failedQueryClosed() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        DbIterator failing = new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+
+            public boolean hasNext() {
+                throw new IllegalStateException("failed");
+            }
+
+            public void close() {
+                closed.set(true);
+                super.close();
+            }
+        };
+        QueryExecutor ex = new QueryExecutor(1 << 20, 1, 2);
+        HashJoin join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), failing,
+                new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()), true, 1000);
+        Future<List<Tuple>> result = ex.submit(new Query(join, new TransactionId()));
+        try {
+            result.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        ex.shutdown();
+        assertTrue(ex.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(closed.get());
+        assertEquals(0, ex.reservedMemory());
+    }
+
+    /**
+     * A query cancelled while it runs keeps its reservation until its
+     * thread is done with it
+     */
+    @Test public void cancelledWhileRunning() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DbIterator stubborn = new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()) {
+            private static final long serialVersionUID = 1L;
+
+            public void open() {
+                started.countDown();
+                // ignores interrupts, as most operators do
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        // keep waiting
+                    }
+                }
+                super.open();
+            }
+        };
+        QueryExecutor ex = new QueryExecutor(1000, 1, 2);
+        HashJoin join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), stubborn,
+                new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()), true, 1000);
+        Future<List<Tuple>> result = ex.submit(new Query(join, new TransactionId()));
+        started.await();
+        assertTrue(result.cancel(true));
+        assertEquals(1, ex.running());
+        assertEquals(1000, ex.reservedMemory());
+        HashJoin other = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()),
+                new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>()), true, 1000);
+        Future<List<Tuple>> next = ex.submit(new Query(other, new TransactionId()));
+        assertEquals(1, ex.running());
+        release.countDown();
+        assertEquals(0, next.get().size());
+        ex.shutdown();
+        assertTrue(ex.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, ex.running());
+        assertEquals(0, ex.reservedMemory());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryExecutorTest.class);
+    }
+}
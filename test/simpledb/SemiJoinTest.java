@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+
+    private static final int[] OUTER = { 1, 10, 2, 20, 3, 30, 4, 40, 3, 31 };
+    // 3 matches twice, 2 and 4 don't match
+    private static final int[] INNER = { 3, 0, 1, 0, 3, 1, 7, 1 };
+
+    /**
+     * Each outer tuple with a match is returned once, with its own fields
+     */
+    @Test public void semiJoin() throws Exception {
+        SemiJoin j = new SemiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, OUTER), TestUtil.createTupleList(2, INNER), false);
+        assertEquals(2, j.getTupleDesc().numFields());
+        j.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 10, 3, 30, 3, 31 }), j);
+        j.rewind();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 10, 3, 30, 3, 31 }), j);
+        j.close();
+    }
+
+    /**
+     * The outer tuples without a match are returned
+     */
+    @Test public void antiJoin() throws Exception {
+        SemiJoin j = new SemiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, OUTER), TestUtil.createTupleList(2, INNER), true);
+        j.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 2, 20, 4, 40 }), j);
+        j.close();
+    }
+
+    /**
+     * Other predicates than equality match any inner value they hold for
+     */
+    @Test public void inequality() throws Exception {
+        SemiJoin j = new SemiJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                TestUtil.createTupleList(2, OUTER), TestUtil.createTupleList(2, INNER), false);
+        j.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 2, 20, 3, 30, 4, 40, 3, 31 }), j);
+        j.close();
+        j = new SemiJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                TestUtil.createTupleList(2, OUTER), TestUtil.createTupleList(2, INNER), true);
+        j.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 1, 10 }), j);
+        j.close();
+    }
+
+    /**
+     * Range predicates, tested against the smallest or largest inner value,
+     * agree with comparing every pair, with an empty inner side too
+     */
+    @Test public void rangeBounds() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+        for (int[] inner : new int[][] { INNER, new int[0] }) {
+            for (Predicate.Op op : ops) {
+                for (boolean anti : new boolean[] { false, true }) {
+                    Map<String, Integer> expected = new HashMap<String, Integer>();
+                    DbIterator outer = TestUtil.createTupleList(2, OUTER);
+                    while (outer.hasNext()) {
+                        Tuple t = outer.next();
+                        boolean match = false;
+                        for (int i = 0; i < inner.length; i += 2)
+                            match |= t.getField(0).compare(op, new IntField(inner[i]));
+                        if (match != anti)
+                            expected.put(t.toString(), 1);
+                    }
+                    SemiJoin j = new SemiJoin(new JoinPredicate(0, op, 0), TestUtil.createTupleList(2, OUTER),
+                            TestUtil.createTupleList(2, inner), anti);
+                    assertEquals(op + " " + anti, expected, TestUtil.resultMultiset(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * IN and NOT EXISTS subqueries are planned as semi-joins and anti-joins
+     */
+    @Test public void subqueries() throws Exception {
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> inner = new ArrayList<ArrayList<Integer>>();
+        HeapFile o = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, outer, "o");
+        HeapFile i = SystemTestUtil.createRandomHeapFile(2, 300, 100, null, inner, "i");
+        Database.getCatalog().addTable(o, "outer_t");
+        Database.getCatalog().addTable(i, "inner_t");
+        TableStats.computeStatistics();
+        HashSet<Integer> keys = new HashSet<Integer>();
+        for (ArrayList<Integer> t : inner) {
+            if (t.get(1) < 50)
+                keys.add(t.get(0));
+        }
+        ArrayList<ArrayList<Integer>> in = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> notExists = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : outer) {
+            (keys.contains(t.get(0)) ? in : notExists).add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = plan(tid, "SELECT * FROM outer_t o WHERE o.o0 IN "
+                + "(SELECT i.i0 FROM inner_t i WHERE i.i1 < 50);");
+        SystemTestUtil.matchTuples(plan, in);
+        plan = plan(tid, "SELECT * FROM outer_t o WHERE NOT EXISTS "
+                + "(SELECT i.i1 FROM inner_t i WHERE i.i1 < 50 AND i.i0 = o.o0);");
+        SystemTestUtil.matchTuples(plan, notExists);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static DbIterator plan(TransactionId tid, String sql) throws Exception {
+        ZQuery q = (ZQuery) new ZqlParser(new java.io.ByteArrayInputStream(sql.getBytes("UTF-8"))).readStatement();
+        LogicalPlan lp = new Parser().parseQueryLogicalPlan(tid, q);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SemiJoinTest.class);
+    }
+}
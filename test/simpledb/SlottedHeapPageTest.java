@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+    private File text;
+
+    /**
+     * Write a text table with short strings
+     */
+    @Before public void writeTable() throws Exception {
+        text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < ROWS; i++)
+            bw.write(i + ",name" + (i % 10) + "\n");
+        bw.close();
+    }
+
+    private HeapFile convert(boolean slotted) throws IOException {
+        File dat = File.createTempFile("slotted", ".dat");
+        dat.deleteOnExit();
+        if (slotted)
+            HeapFileEncoder.convertSlotted(text, dat, BufferPool.getPageSize(), 2, TYPES, ',');
+        else
+            HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2, TYPES, ',');
+        HeapFile hf = new HeapFile(dat, new TupleDesc(TYPES), slotted);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
+    /**
+     * Scanning a slotted file returns every row, from far fewer pages
+     */
+    @Test public void scan() throws Exception {
+        HeapFile slotted = convert(true);
+        HeapFile fixed = convert(false);
+
+        DbFileIterator it = slotted.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + (i % 10), ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+
+        assertEquals(ROWS, count);
+        assertTrue(slotted.numPages() * 4 < fixed.numPages());
+    }
+
+    /**
+     * getPageData() output can be parsed back into an identical page
+     */
+    @Test public void roundTrip() throws Exception {
+        HeapFile hf = convert(true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        SlottedHeapPage page = (SlottedHeapPage) hf.readPage(pid);
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+
+        Iterator<Tuple> it1 = page.iterator();
+        Iterator<Tuple> it2 = copy.iterator();
+        while (it1.hasNext()) {
+            assertTrue(it2.hasNext());
+            assertTrue(TestUtil.compareTuples(it1.next(), it2.next()));
+        }
+        assertFalse(it2.hasNext());
+    }
+
+    /**
+     * Latin-1 strings read back unchanged, with and without a dictionary
+     */
+    @Test public void latin1() throws Exception {
+        String s = "caf\u00e9 \u00fcber";
+        for (StringDictionary dict : new StringDictionary[] { null, new StringDictionary() }) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            SlottedHeapPage.writeField(dos, new StringField(s, Type.STRING_LEN));
+            dos.flush();
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+            assertEquals(s, ((StringField) SlottedHeapPage.readField(dis, Type.STRING_TYPE, dict)).getValue());
+        }
+    }
+
+    /**
+     * Deleted space is reused by inserts
+     */
+    @Test public void insertDelete() throws Exception {
+        HeapFile hf = convert(true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        SlottedHeapPage page = (SlottedHeapPage) hf.readPage(pid);
+        int free = page.getFreeSpace();
+        int slots = page.getNumSlots();
+
+        Tuple victim = page.iterator().next();
+        page.deleteTuple(victim);
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.getFreeSpace() > free);
+
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().tupleno());
+        assertEquals(slots, page.getNumSlots());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals("x", ((StringField) copy.iterator().next().getField(1)).getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
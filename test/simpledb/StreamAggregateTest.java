@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+    /**
+     * Sorted input gives the same groups as Aggregate
+     */
+    @Test public void sameAsAggregate() throws Exception {
+        int[] afields = new int[] { 2, 2, 2, 1 };
+        Aggregator.Op[] aops = new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT,
+                Aggregator.Op.AVG, Aggregator.Op.MAX };
+        int[] sortFields = new int[] { 0, 1 };
+        boolean[] ascs = new boolean[] { true, false };
+        for (int[] gfields : new int[][] { { 0 }, { 0, 1 }, { 1, 0 } }) {
+            Map<String, Integer> expected = TestUtil.resultMultiset(new Aggregate(
+                    TestUtil.createKeyedTupleList(3, 3000, 100, 7), afields, gfields, aops));
+            StreamAggregate sa = new StreamAggregate(new OrderBy(sortFields, ascs,
+                    TestUtil.createKeyedTupleList(3, 3000, 100, 7)), afields, gfields, aops);
+            assertEquals(expected, TestUtil.resultMultiset(sa));
+        }
+
+        // a single aggregate, and an empty input
+        Map<String, Integer> expected = TestUtil.resultMultiset(new Aggregate(
+                TestUtil.createKeyedTupleList(3, 500, 10, 7), 2, 0, Aggregator.Op.MIN));
+        assertEquals(expected, TestUtil.resultMultiset(new StreamAggregate(
+                new OrderBy(0, true, TestUtil.createKeyedTupleList(3, 500, 10, 7)),
+                new int[] { 2 }, new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.MIN })));
+        assertEquals(0, TestUtil.resultMultiset(new StreamAggregate(
+                new OrderBy(0, true, TestUtil.createKeyedTupleList(3, 0, 10, 7)),
+                new int[] { 2 }, new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.MIN })).size());
+    }
+
+    /**
+     * Groups are returned in input order, and rewind starts over
+     */
+    @Test public void groupOrder() throws Exception {
+        DbIterator child = TestUtil.createTupleList(2,
+            new int[] { 5, 1,
+                        5, 2,
+                        3, 4,
+                        9, 1,
+                        9, 1 });
+        StreamAggregate sa = new StreamAggregate(child, new int[] { 1 }, new int[] { 0 },
+                new Aggregator.Op[] { Aggregator.Op.SUM });
+        DbIterator expected = TestUtil.createTupleList(2,
+            new int[] { 5, 3,
+                        3, 4,
+                        9, 2 });
+        sa.open();
+        expected.open();
+        TestUtil.compareDbIterators(expected, sa);
+        sa.rewind();
+        expected.rewind();
+        TestUtil.compareDbIterators(expected, sa);
+        sa.close();
+    }
+
+    /**
+     * Sorts and sort-merge joins are recognized as grouping their output
+     */
+    @Test public void isGroupedOn() {
+        OrderBy sorted = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                TestUtil.createKeyedTupleList(3, 10, 5, 7));
+        assertTrue(StreamAggregate.isGroupedOn(sorted, new int[] { 0 }));
+        assertTrue(StreamAggregate.isGroupedOn(sorted, new int[] { 1, 0 }));
+        assertFalse(StreamAggregate.isGroupedOn(sorted, new int[] { 1 }));
+        assertFalse(StreamAggregate.isGroupedOn(sorted, new int[] { 0, 2 }));
+        assertTrue(StreamAggregate.isGroupedOn(new Filter(new Predicate(2, Predicate.Op.GREATER_THAN,
+                new IntField(3)), sorted), new int[] { 0 }));
+        assertFalse(StreamAggregate.isGroupedOn(TestUtil.createKeyedTupleList(3, 10, 5, 7), new int[] { 0 }));
+
+        Join smj = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1), TestUtil.createKeyedTupleList(3, 10, 5, 7),
+                TestUtil.createKeyedTupleList(3, 10, 5, 7), Join.Algorithm.SORT_MERGE);
+        assertTrue(StreamAggregate.isGroupedOn(smj, new int[] { 0 }));
+        assertTrue(StreamAggregate.isGroupedOn(smj, new int[] { 4 }));
+        assertTrue(StreamAggregate.isGroupedOn(smj, new int[] { 4, 0 }));
+        assertFalse(StreamAggregate.isGroupedOn(smj, new int[] { 1 }));
+        Join bnlj = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 1), TestUtil.createKeyedTupleList(3, 10, 5, 7),
+                TestUtil.createKeyedTupleList(3, 10, 5, 7), Join.Algorithm.BLOCK_NESTED_LOOP);
+        assertFalse(StreamAggregate.isGroupedOn(bnlj, new int[] { 0 }));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StreamAggregateTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+
+    private static DataInputStream serialized(String... values) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (String v : values)
+            new StringField(v, Type.STRING_LEN).serialize(dos);
+        dos.flush();
+        return new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    /**
+     * Unit test for StringDictionary.decode()
+     */
+    @Test public void decodeShared() throws Exception {
+        StringDictionary dict = new StringDictionary();
+        DataInputStream dis = serialized("alice", "bob", "alice");
+
+        StringField a1 = dict.decode(dis);
+        StringField b = dict.decode(dis);
+        StringField a2 = dict.decode(dis);
+
+        assertSame(a1, a2);
+        assertEquals("alice", a1.getValue());
+        assertEquals("bob", b.getValue());
+        assertEquals(2, dict.size());
+        assertTrue(a1.getCode() != b.getCode());
+        assertSame(b, dict.getField(b.getCode()));
+    }
+
+    /**
+     * Interned and plain values of the same string must stay equal
+     */
+    @Test public void equalityAcrossDictionaries() throws Exception {
+        StringDictionary d1 = new StringDictionary();
+        StringDictionary d2 = new StringDictionary();
+        StringField f1 = d1.intern("carol");
+        StringField f2 = d2.intern("carol");
+        StringField plain = new StringField("carol", Type.STRING_LEN);
+
+        assertEquals(f1, f2);
+        assertEquals(f1, plain);
+        assertEquals(plain, f2);
+        assertEquals(f1.hashCode(), plain.hashCode());
+        assertTrue(f1.compare(Predicate.Op.EQUALS, f2));
+        assertFalse(f1.compare(Predicate.Op.EQUALS, d1.intern("dave")));
+        assertTrue(f1.compare(Predicate.Op.NOT_EQUALS, d1.intern("dave")));
+        assertEquals(-1, plain.getCode());
+    }
+
+    /**
+     * Type.parse() with a dictionary must produce the same values as without
+     */
+    @Test public void parseWithDictionary() throws Exception {
+        StringDictionary dict = new StringDictionary();
+        DataInputStream dis = serialized("x", "", "x");
+        Field f1 = Type.STRING_TYPE.parse(dis, dict);
+        Field f2 = Type.STRING_TYPE.parse(dis, dict);
+        Field f3 = Type.STRING_TYPE.parse(dis, dict);
+        assertEquals("x", f1.toString());
+        assertEquals("", f2.toString());
+        assertSame(f1, f3);
+        assertEquals(0, dis.available());
+    }
+
+    /**
+     * Values are stored one byte per character, so Latin-1 characters
+     * round-trip through intern() and decode() to the same field
+     */
+    @Test public void latin1() throws Exception {
+        StringDictionary dict = new StringDictionary();
+        String s = "caf\u00e9 \u00fcber";
+        StringField interned = dict.intern(s);
+        StringField decoded = dict.decode(serialized(s));
+        assertSame(interned, decoded);
+        assertEquals(s, decoded.getValue());
+        assertEquals(1, dict.size());
+    }
+
+    /**
+     * Threads decoding the same values at once all get the same fields
+     */
+    @Test public void concurrentDecode() throws Exception {
+        final StringDictionary dict = new StringDictionary();
+        final String[] values = new String[500];
+        for (int i = 0; i < values.length; i++)
+            values[i] = "v" + i;
+        final StringField[][] decoded = new StringField[4][values.length];
+        final Exception[] failure = new Exception[1];
+        Thread[] threads = new Thread[decoded.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        DataInputStream dis = serialized(values);
+                        for (int i = 0; i < values.length; i++)
+                            decoded[id][i] = dict.decode(dis);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(failure[0]);
+        assertEquals(values.length, dict.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], decoded[0][i].getValue());
+            for (int t = 1; t < decoded.length; t++)
+                assertSame(decoded[0][i], decoded[t][i]);
+            assertSame(decoded[0][i], dict.getField(decoded[0][i].getCode()));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
@@ -83,6 +83,55 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return an open DbIterator over a table of rows whose first field is
+     *   the key i * stride % keys and whose last field is the row number
+     *   i; a table of width 3 has i % 3 in the middle field.
+     * @param width 2 or 3
+     * @param rows the number of rows
+     * @param keys the number of distinct keys
+     * @param stride the step between the keys of consecutive rows, which
+     *   scrambles their order when it is not 1
+     */
+    public static TupleIterator createKeyedTupleList(int width, int rows, int keys, int stride) {
+        int[] data = new int[rows * width];
+        for (int i = 0; i < rows; i++) {
+            data[width * i] = (int) ((long) i * stride % keys);
+            if (width == 3)
+                data[width * i + 1] = i % 3;
+            data[width * i + width - 1] = i;
+        }
+        return createTupleList(width, data);
+    }
+
+    /**
+     * @return the multiset of the tuples an open iterator has left, as
+     *   strings mapped to their number of occurrences
+     */
+    public static Map<String, Integer> countTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        Map<String, Integer> res = new HashMap<String, Integer>();
+        while (it.hasNext()) {
+            String s = it.next().toString();
+            Integer n = res.get(s);
+            res.put(s, n == null ? 1 : n + 1);
+        }
+        return res;
+    }
+
+    /**
+     * Open the iterator, read all of its tuples and close it.
+     *
+     * @return the multiset of the tuples read, as in countTuples
+     */
+    public static Map<String, Integer> resultMultiset(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        Map<String, Integer> res = countTuples(it);
+        it.close();
+        return res;
+    }
+
     /**
      * @return true iff the tuples have the same number of fields and
      *   corresponding fields in the two Tuples are all equal.
@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private static List<Tuple> drain(DbIterator it, int max) throws Exception {
+        List<Tuple> res = new ArrayList<Tuple>();
+        while (res.size() < max && it.hasNext()) {
+            res.add(it.next());
+        }
+        return res;
+    }
+
+    // TopN returns the first n tuples of the full sort, ties included
+    private static void check(int rows, int keys, boolean asc, int n) throws Exception {
+        OrderBy sort = new OrderBy(0, asc, TestUtil.createKeyedTupleList(2, rows, keys, 31));
+        TopN top = new TopN(0, asc, n, TestUtil.createKeyedTupleList(2, rows, keys, 31));
+        sort.open();
+        top.open();
+        List<Tuple> expected = drain(sort, n);
+        List<Tuple> actual = drain(top, Integer.MAX_VALUE);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+        }
+        sort.close();
+        top.close();
+    }
+
+    @Test public void topN() throws Exception {
+        check(1000, 997, true, 10);
+        check(1000, 997, false, 10);
+        // many ties
+        check(1000, 7, true, 50);
+        check(1000, 7, false, 50);
+        // limit beyond the input, and no rows at all
+        check(20, 20, true, 100);
+        check(20, 20, true, 0);
+    }
+
+    /**
+     * A huge limit doesn't reserve a heap of its size, and only fits the
+     * sort budget when its tuples do
+     */
+    @Test public void hugeLimit() throws Exception {
+        check(20, 20, true, 2000000000);
+        TupleDesc td = Utility.getTupleDesc(2);
+        assertTrue(TopN.fits(1000, td, SpillFile.DEFAULT_MEMORY_BUDGET));
+        assertFalse(TopN.fits(2000000000, td, SpillFile.DEFAULT_MEMORY_BUDGET));
+    }
+
+    /**
+     * Limit stops reading its child once the limit is reached
+     */
+    @Test public void limit() throws Exception {
+        final int[] read = new int[1];
+        DbIterator counted = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                TestUtil.createKeyedTupleList(2, 1000, 10, 31)) {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws NoSuchElementException,
+                    TransactionAbortedException, DbException {
+                read[0]++;
+                return super.fetchNext();
+            }
+        };
+        Limit l = new Limit(5, counted);
+        l.open();
+        assertEquals(5, drain(l, Integer.MAX_VALUE).size());
+        assertTrue(read[0] <= 6);
+        l.rewind();
+        assertEquals(5, drain(l, Integer.MAX_VALUE).size());
+        l.close();
+    }
+
+    /**
+     * A trailing LIMIT clause is removed from the statement and its limit
+     * returned
+     */
+    @Test public void parseLimit() throws Exception {
+        assertEquals("select * from t;", Parser.stripLimit("select * from t limit 10;"));
+        assertEquals(10, Parser.parseLimit("select * from t limit 10;"));
+        assertEquals("select * from t order by t.a", Parser.stripLimit("SELECT * from t order by t.a LIMIT 5\n").toLowerCase());
+        assertEquals(5, Parser.parseLimit("SELECT * from t order by t.a LIMIT 5\n"));
+        assertEquals("select * from t where t.b = 'limit 3';",
+                Parser.stripLimit("select * from t where t.b = 'limit 3';"));
+        assertEquals(-1, Parser.parseLimit("select * from t where t.b = 'limit 3';"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
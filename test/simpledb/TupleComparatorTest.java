@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TupleComparatorTest extends SimpleDbTestBase {
+
+    private static Tuple tuple(Type type, Field f) {
+        Tuple t = new Tuple(new TupleDesc(new Type[] { type }));
+        t.setField(0, f);
+        return t;
+    }
+
+    // different prefixes must agree with the full comparison
+    private static void checkPrefixes(List<Tuple> tuples) {
+        for (boolean asc : new boolean[] { true, false }) {
+            TupleComparator cmp = new TupleComparator(0, asc);
+            for (Tuple t1 : tuples) {
+                for (Tuple t2 : tuples) {
+                    int p = Long.compare(cmp.prefix(t1), cmp.prefix(t2));
+                    if (p != 0) {
+                        assertEquals(t1 + " vs " + t2, p, Integer.signum(cmp.compare(t1, t2)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Normalized key prefixes preserve the order of every type
+     */
+    @Test public void prefixOrder() {
+        List<Tuple> ints = new ArrayList<Tuple>();
+        for (int v : new int[] { Integer.MIN_VALUE, -5, -1, 0, 1, 7, Integer.MAX_VALUE }) {
+            ints.add(tuple(Type.INT_TYPE, new IntField(v)));
+        }
+        checkPrefixes(ints);
+
+        List<Tuple> longs = new ArrayList<Tuple>();
+        for (long v : new long[] { Long.MIN_VALUE, -1L << 40, -1, 0, 3, 1L << 40, Long.MAX_VALUE }) {
+            longs.add(tuple(Type.LONG_TYPE, new LongField(v)));
+        }
+        checkPrefixes(longs);
+
+        List<Tuple> doubles = new ArrayList<Tuple>();
+        for (double v : new double[] { Double.NEGATIVE_INFINITY, -1e300, -2.5, -0.0, 0.0, 1e-300, 2.5,
+                Double.POSITIVE_INFINITY }) {
+            doubles.add(tuple(Type.DOUBLE_TYPE, new DoubleField(v)));
+        }
+        checkPrefixes(doubles);
+
+        List<Tuple> strings = new ArrayList<Tuple>();
+        for (String v : new String[] { "", "a", "a\0", "ab", "abcd", "abcde", "abcdf", "b", "\u007f\u007f" }) {
+            strings.add(tuple(Type.STRING_TYPE, new StringField(v, Type.STRING_LEN)));
+        }
+        checkPrefixes(strings);
+    }
+
+    /**
+     * OrderBy sorts on every key, in its own direction
+     */
+    @Test public void multiKey() throws Exception {
+        int rows = 500;
+        int[] data = new int[rows * 3];
+        for (int i = 0; i < rows; i++) {
+            data[3 * i] = i % 5;
+            data[3 * i + 1] = i * 37 % 11;
+            data[3 * i + 2] = i;
+        }
+        OrderBy ob = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                TestUtil.createTupleList(3, data));
+        ob.open();
+        int n = 0;
+        int[] prev = null;
+        while (ob.hasNext()) {
+            Tuple t = ob.next();
+            int[] cur = new int[3];
+            for (int i = 0; i < 3; i++) {
+                cur[i] = ((IntField) t.getField(i)).getValue();
+            }
+            if (prev != null) {
+                assertTrue(prev[0] <= cur[0]);
+                if (prev[0] == cur[0]) {
+                    assertTrue(prev[1] >= cur[1]);
+                    if (prev[1] == cur[1]) {
+                        assertTrue(prev[2] < cur[2]);
+                    }
+                }
+            }
+            prev = cur;
+            n++;
+        }
+        ob.close();
+        assertEquals(rows, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleComparatorTest.class);
+    }
+}